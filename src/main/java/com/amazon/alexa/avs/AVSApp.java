@@ -86,7 +86,8 @@ public class AVSApp extends JFrame implements ExpectSpeechListener, RecordingRMS
     private AVSApp(DeviceConfig config) throws Exception {
         deviceConfig = config;
         controller = new AVSController(this, new AVSAudioPlayerFactory(), new AlertManagerFactory(),
-                getAVSClientFactory(deviceConfig), DialogRequestIdAuthority.getInstance());
+                getAVSClientFactory(deviceConfig), DialogRequestIdAuthority.getInstance(),
+                deviceConfig.getPreRollMilliseconds());
 
         authSetup = new AuthSetup(config, this);
         authSetup.addAccessTokenListener(this);
@@ -318,20 +319,11 @@ public class AVSApp extends JFrame implements ExpectSpeechListener, RecordingRMS
 
     @Override
     public void onExpectSpeechDirective() {
-        Thread thread = new Thread() {
-            @Override
-            public void run() {
-                while (!actionButton.isEnabled() || !actionButton.getText().equals(START_LABEL)
-                        || controller.isSpeaking()) {
-                    try {
-                        Thread.sleep(500);
-                    } catch (Exception e) {
-                    }
-                }
-                actionButton.doClick();
-            }
-        };
-        thread.start();
+        // listen again once the previous request and any speech have finished
+        controller.getPlaybackCoordinator().when("ExpectSpeech",
+                () -> actionButton.isEnabled() && actionButton.getText().equals(START_LABEL)
+                        && !controller.isSpeaking(),
+                actionButton::doClick);
 
     }
 
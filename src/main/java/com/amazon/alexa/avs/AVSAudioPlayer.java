@@ -8,6 +8,9 @@
  */
 package com.amazon.alexa.avs;
 
+import com.amazon.alexa.avs.AudioClipCache.CachedClip;
+import com.amazon.alexa.avs.AudioMixer.Playback;
+import com.amazon.alexa.avs.AudioMixer.Priority;
 import com.amazon.alexa.avs.AudioPlayerStateMachine.AudioPlayerState;
 import com.amazon.alexa.avs.exception.DirectiveHandlingException;
 import com.amazon.alexa.avs.exception.DirectiveHandlingException.ExceptionType;
@@ -22,6 +25,8 @@ import com.amazon.alexa.avs.message.response.audioplayer.Stream;
 import com.amazon.alexa.avs.message.response.speaker.SetMute;
 import com.amazon.alexa.avs.message.response.speaker.VolumePayload;
 import com.amazon.alexa.avs.message.response.speechsynthesizer.Speak;
+import com.amazon.alexa.avs.trace.LatencyStage;
+import com.amazon.alexa.avs.trace.LatencyTracer;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -33,13 +38,18 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
-import javazoom.jl.player.Player;
 import uk.co.caprica.vlcj.component.AudioMediaPlayerComponent;
 import uk.co.caprica.vlcj.player.MediaPlayer;
 import uk.co.caprica.vlcj.player.MediaPlayerEventAdapter;
@@ -50,11 +60,33 @@ public class AVSAudioPlayer {
 
     // callback to send audio events
     private final AVSController controller;
-    // vlc instance to play media
-    private AudioMediaPlayerComponent audioPlayer;
-    // queue of listen directive media
+    // runs playback steps once speech and pending events are done
+    private final PlaybackCoordinator coordinator;
+    // Number of vlc players: one playing and one loading the next stream
+    private static final int MEDIA_PLAYER_POOL_SIZE = 2;
+    // Reusable vlc instances to play media
+    private final MediaPlayerPool mediaPlayerPool;
+    // vlc instance playing the current media
+    private volatile AudioMediaPlayerComponent audioPlayer;
+    // vlc instance holding the next stream, loaded and paused at its start, or null
+    private volatile AudioMediaPlayerComponent prefetchPlayer;
+    // The stream held by prefetchPlayer
+    private Stream prefetchStream;
+    private volatile boolean prefetchBuffered;
+    private volatile boolean prefetchFailed;
+    private final PlaybackListener playbackListener = new PlaybackListener();
+    // Guards the players, the prefetched stream and changes to the play queue
+    private final Object mediaLock = new Object();
+    // Loads the next stream, since vlc must not be called back from its own event thread
+    private final ExecutorService prefetchExecutor;
+    // When the previous media finished, for measuring the gap to the next one
+    private volatile long lastFinishedNanos;
+    private volatile long lastTrackGapMs = -1;
+    private volatile long maxTrackGapMs = -1;
+    // queue of listen directive media. Directives of different lanes and the playback
+    // coordinator use the queues from their own threads.
     private final Queue<Stream> playQueue;
-    // queue of speak directive media
+    // queue of speak directive media. Locked while deciding whether speech starts or finishes.
     private final Queue<SpeakItem> speakQueue;
     // Cache of URLs associated with the current AVSPlayItem/stream
     private Set<String> streamUrls;
@@ -62,12 +94,6 @@ public class AVSAudioPlayer {
     private Set<String> attemptedUrls;
     // Alarm thread
     private Thread alarmThread;
-    // Speaker thread
-    private Thread playThread;
-    // Object on which to lock
-    private Object playLock = new Object();
-    // How long the thread should block on waiting for audio to finish playing
-    private static final int TIMEOUT_IN_MS = 3000;
 
     // VLCJ volumes are between 0-200. Alexa volumes are from 0-100. These constants are used to
     // convert and limit volume values.
@@ -75,11 +101,23 @@ public class AVSAudioPlayer {
     private static final int VLCJ_MIN_VOLUME = 0;
     private static final int VLCJ_MAX_VOLUME = 200;
 
+    // Decoded earcons, alert sounds and speech are kept on disk so they play without decoding
+    private static final String AUDIO_CACHE_DIRECTORY = "audio-cache";
+    private static final long AUDIO_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+    // Speech is cached under its Content-ID, kept apart from the resource names
+    private static final String SPEECH_CACHE_PREFIX = "speak:";
+    private static final String ALARM_RESOURCE = "res/alarm.mp3";
+    private static final String[] BUNDLED_EARCONS =
+            { ALARM_RESOURCE, "res/start.mp3", "res/stop.mp3", "res/error.mp3" };
+
     private long stopOffset;
-    // track the last progressReport sent time
-    private boolean waitForPlaybackFinished;
-    // used for speak directives and earcons
-    private Player speaker = null;
+    // plays speak directives, alerts and earcons through one audio line
+    private final AudioMixer mixer = new AudioMixer();
+    // the speech item being played, for reporting its offset
+    private volatile Playback speechPlayback;
+    // the alarm sound being played, so stopping the alert leaves speech and earcons playing
+    private volatile Playback alarmPlayback;
+    private final AudioClipCache clipCache;
     private final ClassLoader resLoader; // used to load resource files
 
     private String latestStreamToken = "";
@@ -119,14 +157,22 @@ public class AVSAudioPlayer {
 
     public AVSAudioPlayer(AVSController controller) {
         this.controller = controller;
+        coordinator = controller.getPlaybackCoordinator();
         resLoader = Thread.currentThread().getContextClassLoader();
+        clipCache = new AudioClipCache(new File(AUDIO_CACHE_DIRECTORY), AUDIO_CACHE_MAX_BYTES);
+        clipCache.preloadAsync(resLoader, BUNDLED_EARCONS);
         stopOffset = -1;
-        waitForPlaybackFinished = false;
-        playQueue = new LinkedList<Stream>();
-        speakQueue = new LinkedList<SpeakItem>();
+        playQueue = new ConcurrentLinkedQueue<Stream>();
+        speakQueue = new ConcurrentLinkedQueue<SpeakItem>();
         streamUrls = new HashSet<String>();
         attemptedUrls = new HashSet<String>();
-        setupAudioPlayer();
+        mediaPlayerPool = new MediaPlayerPool(MEDIA_PLAYER_POOL_SIZE, playbackListener);
+        audioPlayer = mediaPlayerPool.acquire();
+        prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MediaPrefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         currentVolume = audioPlayer.getMediaPlayer().getVolume();
         currentlyMuted = audioPlayer.getMediaPlayer().isMute();
@@ -135,7 +181,8 @@ public class AVSAudioPlayer {
 
         progressReporter = new AudioPlayerProgressReporter(
                 new ProgressReportDelayEventRunnable(audioPlayerStateMachine),
-                new ProgressReportIntervalEventRunnable(audioPlayerStateMachine));
+                new ProgressReportIntervalEventRunnable(audioPlayerStateMachine),
+                this::getProgress);
 
         listeners = new HashSet<>();
     }
@@ -145,11 +192,20 @@ public class AVSAudioPlayer {
     }
 
     public void handleSpeak(Speak speak) {
-        SpeakItem speakItem = new SpeakItem(speak.getToken(), speak.getAttachedContent());
+        handleSpeak(speak, null);
+    }
+
+    public void handleSpeak(Speak speak, String dialogRequestId) {
+        SpeakItem speakItem = new SpeakItem(speak.getToken(), speak.getAttachedContent(),
+                dialogRequestId, speak.getAttachedContentId());
 
-        speakQueue.add(speakItem);
-        // if not already speaking, start speech
-        if (speakQueue.size() == 1) {
+        boolean start;
+        synchronized (speakQueue) {
+            // if not already speaking, start speech
+            start = speakQueue.isEmpty();
+            speakQueue.add(speakItem);
+        }
+        if (start) {
             startSpeech();
         }
     }
@@ -226,147 +282,223 @@ public class AVSAudioPlayer {
                 .sendRequest(RequestFactory.createSpeakerMuteChangedEvent(getVolume(), isMuted()));
     }
 
-    private void setupAudioPlayer() {
-        audioPlayer = new AudioMediaPlayerComponent();
+    /**
+     * Follows the vlc events of the current media. Events of the player holding the next stream
+     * only record whether that stream could be loaded.
+     */
+    private class PlaybackListener extends MediaPlayerEventAdapter {
 
-        audioPlayer.getMediaPlayer().addMediaPlayerEventListener(new MediaPlayerEventAdapter() {
+        private boolean playbackStartedSuccessully;
 
-            private boolean playbackStartedSuccessully;
+        private boolean bufferUnderrunInProgress;
 
-            private boolean bufferUnderrunInProgress;
+        private boolean isPaused;
 
-            private boolean isPaused;
+        private volatile boolean nearlyFinishedSent;
 
-            @Override
-            public void newMedia(MediaPlayer mediaPlayer) {
-                log.debug("newMedia: {}", mediaPlayer.mrl());
-                playbackStartedSuccessully = false;
-                bufferUnderrunInProgress = false;
-            }
+        /**
+         * Forgets the state of the previous media, before a player starts on the next.
+         */
+        private void reset() {
+            playbackStartedSuccessully = false;
+            bufferUnderrunInProgress = false;
+            isPaused = false;
+            nearlyFinishedSent = false;
+        }
 
-            @Override
-            public void stopped(MediaPlayer mediaPlayer) {
-                log.debug("stopped: {}", mediaPlayer.mrl());
-            }
+        private boolean isCurrent(MediaPlayer mediaPlayer) {
+            AudioMediaPlayerComponent current = audioPlayer;
+            return current != null && current.getMediaPlayer() == mediaPlayer;
+        }
 
-            @Override
-            public void playing(MediaPlayer mediaPlayer) {
-                log.debug("playing: {}", mediaPlayer.mrl());
-                long length = audioPlayer.getMediaPlayer().getLength();
-                log.debug("    length: {}", length);
-
-                if (isPaused && playbackStartedSuccessully) {
-                    audioPlayerStateMachine.playbackResumed();
-                    isPaused = false;
-                }
+        private boolean isPrefetch(MediaPlayer mediaPlayer) {
+            AudioMediaPlayerComponent prefetch = prefetchPlayer;
+            return prefetch != null && prefetch.getMediaPlayer() == mediaPlayer;
+        }
+
+        /**
+         * The media has buffered for the first time and is playing.
+         */
+        private void onPlaybackStarted() {
+            playbackStartedSuccessully = true;
+            audioPlayerStateMachine.playbackStarted();
+
+            if (isPaused) {
+                audioPlayerStateMachine.playbackPaused();
             }
 
-            @Override
-            public void buffering(MediaPlayer mediaPlayer, float newCache) {
-                if (playbackStartedSuccessully && !bufferUnderrunInProgress) {
-                    // We started buffering mid playback
-                    bufferUnderrunInProgress = true;
-                    playbackStutterStartedOffsetInMilliseconds = getCurrentOffsetInMilliseconds();
-                    audioPlayerStateMachine.playbackStutterStarted();
-                }
+            // Ask for the next stream now, so it can be loaded before this one ends
+            nearlyFinishedSent = true;
+            audioPlayerStateMachine.playbackNearlyFinished();
+            prefetchExecutor.execute(AVSAudioPlayer.this::prefetchNext);
+        }
 
-                if (bufferUnderrunInProgress && newCache >= 100.0f) {
-                    // We are fully buffered after a buffer underrun event
-                    bufferUnderrunInProgress = false;
-                    audioPlayerStateMachine.playbackStutterFinished();
-                }
+        @Override
+        public void newMedia(MediaPlayer mediaPlayer) {
+            log.debug("newMedia: {}", mediaPlayer.mrl());
+            if (!isCurrent(mediaPlayer)) {
+                return;
+            }
+            playbackStartedSuccessully = false;
+            bufferUnderrunInProgress = false;
+        }
 
-                if (!playbackStartedSuccessully && newCache >= 100.0f) {
-                    // We have successfully buffered the first time and started playback
-                    playbackStartedSuccessully = true;
-                    audioPlayerStateMachine.playbackStarted();
+        @Override
+        public void stopped(MediaPlayer mediaPlayer) {
+            log.debug("stopped: {}", mediaPlayer.mrl());
+        }
 
-                    if (isPaused) {
-                        audioPlayerStateMachine.playbackPaused();
-                    }
-                }
+        @Override
+        public void playing(MediaPlayer mediaPlayer) {
+            log.debug("playing: {}", mediaPlayer.mrl());
+            if (!isCurrent(mediaPlayer)) {
+                return;
+            }
+            long length = mediaPlayer.getLength();
+            log.debug("    length: {}", length);
+
+            long finishedNanos = lastFinishedNanos;
+            if (finishedNanos != 0) {
+                lastFinishedNanos = 0;
+                lastTrackGapMs =
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - finishedNanos);
+                maxTrackGapMs = Math.max(maxTrackGapMs, lastTrackGapMs);
+                log.info("Started {} ms after the previous media finished", lastTrackGapMs);
             }
 
-            @Override
-            public void paused(MediaPlayer mediaPlayer) {
-                log.debug("paused: {}", mediaPlayer.mrl());
-                if (playbackStartedSuccessully) {
-                    audioPlayerStateMachine.playbackPaused();
-                }
-                isPaused = true;
+            if (isPaused && playbackStartedSuccessully) {
+                audioPlayerStateMachine.playbackResumed();
+                isPaused = false;
             }
+        }
 
-            @Override
-            public void finished(MediaPlayer mediaPlayer) {
-                log.info("Finished playing {}", mediaPlayer.mrl());
-                List<String> items = mediaPlayer.subItems();
-                // Remember the url we just tried
-                attemptedUrls.add(mediaPlayer.mrl());
-
-                if ((items.size() > 0) || (streamUrls.size() > 0)) {
-                    // Add to the set of URLs to attempt playback
-                    streamUrls.addAll(items);
-
-                    // Play any url associated with this play item that
-                    // we haven't already tried
-                    for (String mrl : streamUrls) {
-                        if (!attemptedUrls.contains(mrl)) {
-                            log.info("Playing {}", mrl);
-                            mediaPlayer.playMedia(mrl);
-                            return;
-                        }
-                    }
+        @Override
+        public void buffering(MediaPlayer mediaPlayer, float newCache) {
+            if (!isCurrent(mediaPlayer)) {
+                if (isPrefetch(mediaPlayer) && newCache >= 100.0f) {
+                    prefetchBuffered = true;
                 }
+                return;
+            }
 
-                // wait for any pending events to finish(playbackStarted/progressReport)
-                while (controller.eventRunning()) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (Exception e) {
-                    }
-                }
+            if (playbackStartedSuccessully && !bufferUnderrunInProgress) {
+                // We started buffering mid playback
+                bufferUnderrunInProgress = true;
+                playbackStutterStartedOffsetInMilliseconds = getCurrentOffsetInMilliseconds();
+                audioPlayerStateMachine.playbackStutterStarted();
+            }
 
-                // remove the item from the queue since it has finished playing
-                playQueue.poll();
+            if (bufferUnderrunInProgress && newCache >= 100.0f) {
+                // We are fully buffered after a buffer underrun event
+                bufferUnderrunInProgress = false;
+                audioPlayerStateMachine.playbackStutterFinished();
+            }
 
-                progressReporter.stop();
-                audioPlayerStateMachine.playbackNearlyFinished();
-                audioPlayerStateMachine.playbackFinished();
+            if (!playbackStartedSuccessully && newCache >= 100.0f) {
+                // We have successfully buffered the first time and started playback
+                onPlaybackStarted();
+            }
+        }
 
-                // unblock playback now that playbackFinished has been sent
-                waitForPlaybackFinished = false;
-                if (!playQueue.isEmpty()) {
-                    // start playback if it wasn't the last item
-                    startPlayback();
+        @Override
+        public void paused(MediaPlayer mediaPlayer) {
+            log.debug("paused: {}", mediaPlayer.mrl());
+            if (!isCurrent(mediaPlayer)) {
+                return;
+            }
+            if (playbackStartedSuccessully) {
+                audioPlayerStateMachine.playbackPaused();
+            }
+            isPaused = true;
+        }
+
+        @Override
+        public void finished(MediaPlayer mediaPlayer) {
+            if (!isCurrent(mediaPlayer)) {
+                if (isPrefetch(mediaPlayer)) {
+                    // A playlist, or nothing to play; it is started the usual way instead
+                    prefetchFailed = true;
                 }
+                return;
             }
+            log.info("Finished playing {}", mediaPlayer.mrl());
+            List<String> items = mediaPlayer.subItems();
+            // Remember the url we just tried
+            attemptedUrls.add(mediaPlayer.mrl());
 
-            @Override
-            public void error(MediaPlayer mediaPlayer) {
-                log.error("Error playing: {}", mediaPlayer.mrl());
+            if ((items.size() > 0) || (streamUrls.size() > 0)) {
+                // Add to the set of URLs to attempt playback
+                streamUrls.addAll(items);
 
-                attemptedUrls.add(mediaPlayer.mrl());
-                // If there are any urls left to try, don't throw an error
+                // Play any url associated with this play item that
+                // we haven't already tried
                 for (String mrl : streamUrls) {
                     if (!attemptedUrls.contains(mrl)) {
+                        log.info("Playing {}", mrl);
                         mediaPlayer.playMedia(mrl);
                         return;
                     }
                 }
+            }
 
-                // wait for any pending events to finish(playbackStarted/progressReport)
-                while (controller.eventRunning()) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (Exception e) {
-                    }
+            lastFinishedNanos = System.nanoTime();
+            // wait for any pending events to finish(playbackStarted/progressReport)
+            coordinator.when("playbackFinished", () -> !controller.eventRunning(),
+                    this::onMediaFinished);
+        }
+
+        private void onMediaFinished() {
+            // remove the item from the queue since it has finished playing
+            synchronized (mediaLock) {
+                playQueue.poll();
+            }
+
+            progressReporter.stop();
+            if (!nearlyFinishedSent) {
+                audioPlayerStateMachine.playbackNearlyFinished();
+            }
+            audioPlayerStateMachine.playbackFinished();
+
+            // the media has finished and playbackFinished has been sent
+            coordinator.signal();
+            if (!playQueue.isEmpty()) {
+                // start playback if it wasn't the last item
+                startPlayback();
+            }
+        }
+
+        @Override
+        public void error(MediaPlayer mediaPlayer) {
+            if (!isCurrent(mediaPlayer)) {
+                if (isPrefetch(mediaPlayer)) {
+                    log.warn("Failed to load the next stream {}", mediaPlayer.mrl());
+                    prefetchFailed = true;
                 }
-                progressReporter.stop();
-                playQueue.clear();
-                audioPlayerStateMachine.playbackFailed();
+                return;
+            }
+            log.error("Error playing: {}", mediaPlayer.mrl());
 
+            attemptedUrls.add(mediaPlayer.mrl());
+            // If there are any urls left to try, don't throw an error
+            for (String mrl : streamUrls) {
+                if (!attemptedUrls.contains(mrl)) {
+                    mediaPlayer.playMedia(mrl);
+                    return;
+                }
             }
-        });
+
+            // wait for any pending events to finish(playbackStarted/progressReport)
+            coordinator.when("playbackFailed", () -> !controller.eventRunning(),
+                    this::onMediaFailed);
+        }
+
+        private void onMediaFailed() {
+            progressReporter.stop();
+            synchronized (mediaLock) {
+                playQueue.clear();
+            }
+            audioPlayerStateMachine.playbackFailed();
+        }
     }
 
     /**
@@ -400,6 +532,7 @@ public class AVSAudioPlayer {
             interruptCurrentlyPlaying();
         }
         speakQueue.clear();
+        coordinator.signal();
 
         interruptAlertsAndContent();
     }
@@ -420,7 +553,7 @@ public class AVSAudioPlayer {
      */
     private void interruptContent() {
 
-        synchronized (audioPlayer.getMediaPlayer()) {
+        synchronized (mediaLock) {
             if (!playQueue.isEmpty() && (stopOffset == -1)
                     && audioPlayer.getMediaPlayer().isPlaying()) {
                 progressReporter.pause();
@@ -454,7 +587,7 @@ public class AVSAudioPlayer {
      * Resume any content
      */
     private void resumeContent() {
-        synchronized (audioPlayer.getMediaPlayer()) {
+        synchronized (mediaLock) {
             if (!playQueue.isEmpty() && (stopOffset == -1)
                     && !audioPlayer.getMediaPlayer().isPlaying()) {
                 progressReporter.resume();
@@ -474,18 +607,69 @@ public class AVSAudioPlayer {
     private void add(Stream stream) {
         String expectedPreviousToken = stream.getExpectedPreviousToken();
 
-        boolean startPlaying = playQueue.isEmpty();
+        boolean startPlaying;
+        synchronized (mediaLock) {
+            startPlaying = playQueue.isEmpty();
 
-        if (expectedPreviousToken == null || latestStreamToken.isEmpty()
-                || latestStreamToken.equals(expectedPreviousToken)) {
-            playQueue.add(stream);
+            if (expectedPreviousToken == null || latestStreamToken.isEmpty()
+                    || latestStreamToken.equals(expectedPreviousToken)) {
+                playQueue.add(stream);
+            }
         }
 
         if (startPlaying) {
             startPlayback();
+        } else if (playbackListener.nearlyFinishedSent) {
+            prefetchExecutor.execute(this::prefetchNext);
+        }
+    }
+
+    /**
+     * Loads the stream after the current one into the spare player and pauses it at its start, so
+     * that it starts without a gap once the current one finishes. Discards a loaded stream that
+     * is no longer next.
+     */
+    private void prefetchNext() {
+        synchronized (mediaLock) {
+            Stream next = null;
+            Iterator<Stream> iterator = playQueue.iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                next = iterator.hasNext() ? iterator.next() : null;
+            }
+            if (next != null && next == prefetchStream && !prefetchFailed) {
+                return;
+            }
+            discardPrefetch();
+            if (next == null || !playbackListener.nearlyFinishedSent) {
+                return;
+            }
+
+            AudioMediaPlayerComponent player = mediaPlayerPool.acquire();
+            prefetchBuffered = false;
+            prefetchFailed = false;
+            prefetchStream = next;
+            prefetchPlayer = player;
+            log.debug("Prefetching {}", next.getUrl());
+            if (player.getMediaPlayer().prepareMedia(next.getUrl(), ":start-paused")) {
+                player.getMediaPlayer().mute(true);
+                player.getMediaPlayer().play();
+            } else {
+                prefetchFailed = true;
+            }
         }
     }
 
+    /**
+     * Returns the player holding the next stream to the pool. Called with mediaLock held.
+     */
+    private void discardPrefetch() {
+        AudioMediaPlayerComponent player = prefetchPlayer;
+        prefetchPlayer = null;
+        prefetchStream = null;
+        mediaPlayerPool.release(player);
+    }
+
     /**
      * Play media in the play queue
      */
@@ -494,59 +678,49 @@ public class AVSAudioPlayer {
             return;
         }
 
-        Thread thread = new Thread() {
+        // wait for any speech to complete before starting playback. playbackFinished of the
+        // previous stream has already been sent by onMediaFinished.
+        coordinator.when("startPlayback", () -> speakQueue.isEmpty(),
+                () -> {
+                    Stream stream = playQueue.peek();
 
-            @Override
-            public void run() {
-                // wait for any speech to complete before starting playback
-                // also wait for playbackFinished to be called after getNextItem
-                while (!speakQueue.isEmpty() || waitForPlaybackFinished) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        log.error("Interupted while waiting to start playback", e);
+                    if (stream == null) {
+                        // if a stop/clearQueue came down before we started
+                        return;
                     }
-                }
 
-                Stream stream = playQueue.peek();
+                    latestStreamToken = stream.getToken();
 
-                if (stream == null) {
-                    // if a stop/clearQueue came down before we started
-                    return;
-                }
-
-                latestStreamToken = stream.getToken();
-
-                if (!playItem(stream.getUrl(), stream.getOffsetInMilliseconds())) {
-                    // an error will be reported from the vlcj listener
-                    return;
-                }
+                    if (!playItem(stream)) {
+                        // an error will be reported from the vlcj listener
+                        return;
+                    }
 
-                if (stream.getProgressReportRequired()) {
-                    progressReporter.stop();
-                    progressReporter.start(stream.getProgressReport());
-                }
+                    if (stream.getProgressReportRequired()) {
+                        progressReporter.stop();
+                        progressReporter.start(stream.getProgressReport(),
+                                stream.getOffsetInMilliseconds());
+                    }
 
-                if (isSpeaking() || isAlarming()) {
-                    // pause if Alexa is speaking or there is an active alert.
-                    interruptContent();
-                }
-            }
-        };
-        thread.start();
+                    if (isSpeaking() || isAlarming()) {
+                        // pause if Alexa is speaking or there is an active alert.
+                        interruptContent();
+                    }
+                });
     }
 
     /**
-     * Play the media from the given url, at the given offset
+     * Play the media of the given stream, at its offset. A stream that has been prefetched is
+     * resumed on the player holding it; otherwise a player from the pool is started on it.
      *
-     * @param url
+     * @param stream
      *            Media item to play
-     * @param offset
-     *            Offset from the start to play at in milliseconds
      * @return true if played successfully, false otherwise
      */
-    private boolean playItem(final String url, final long offset) {
-        synchronized (audioPlayer.getMediaPlayer()) {
+    private boolean playItem(final Stream stream) {
+        String url = stream.getUrl();
+        long offset = stream.getOffsetInMilliseconds();
+        synchronized (mediaLock) {
             // we are no longer in "PAUSED" state
             stopOffset = -1;
 
@@ -554,15 +728,44 @@ public class AVSAudioPlayer {
             streamUrls = new HashSet<String>();
             attemptedUrls = new HashSet<String>();
 
-            setupAudioPlayer();
+            AudioMediaPlayerComponent previous = audioPlayer;
+            if (prefetchPlayer != null && prefetchStream == stream && !prefetchFailed) {
+                log.debug("playing prefetched {}", url);
+                AudioMediaPlayerComponent next = prefetchPlayer;
+                boolean buffered = prefetchBuffered;
+                prefetchPlayer = null;
+                prefetchStream = null;
+                playbackListener.reset();
+                audioPlayer = next;
+                mediaPlayerPool.release(previous);
+
+                MediaPlayer mediaPlayer = next.getMediaPlayer();
+                mediaPlayer.setVolume(currentVolume);
+                mediaPlayer.mute(currentlyMuted);
+                if (offset > 0) {
+                    mediaPlayer.setTime(offset);
+                }
+                mediaPlayer.setPause(false);
+                if (buffered) {
+                    // The buffering events went by while the stream was waiting
+                    playbackListener.onPlaybackStarted();
+                }
+                return true;
+            }
+
+            discardPrefetch();
+            mediaPlayerPool.release(previous);
+            AudioMediaPlayerComponent next = mediaPlayerPool.acquire();
+            playbackListener.reset();
+            audioPlayer = next;
 
             log.debug("playing {}", url);
 
-            if (audioPlayer.getMediaPlayer().startMedia(url)) {
-                audioPlayer.getMediaPlayer().setVolume(currentVolume);
-                audioPlayer.getMediaPlayer().mute(currentlyMuted);
+            if (next.getMediaPlayer().startMedia(url)) {
+                next.getMediaPlayer().setVolume(currentVolume);
+                next.getMediaPlayer().mute(currentlyMuted);
                 if (offset > 0) {
-                    audioPlayer.getMediaPlayer().setTime(offset);
+                    next.getMediaPlayer().setTime(offset);
                 }
 
                 return true;
@@ -571,11 +774,27 @@ public class AVSAudioPlayer {
         }
     }
 
+    /**
+     * @return How long, in milliseconds, the last media took to start after the one before it
+     *         finished, or -1 if no media has followed another yet.
+     */
+    public long getLastTrackGapMs() {
+        return lastTrackGapMs;
+    }
+
+    /**
+     * @return The longest time, in milliseconds, that any media took to start after the one
+     *         before it finished, or -1 if no media has followed another yet.
+     */
+    public long getMaxTrackGapMs() {
+        return maxTrackGapMs;
+    }
+
     /**
      * Stop all media playback
      */
     public void stop() {
-        synchronized (audioPlayer.getMediaPlayer()) {
+        synchronized (mediaLock) {
             if (!playQueue.isEmpty() && (stopOffset == -1)) {
                 stopOffset = getProgress();
 
@@ -585,6 +804,26 @@ public class AVSAudioPlayer {
         }
     }
 
+    /**
+     * Stop all playback and free the media players and the audio line. The player must not be used
+     * afterwards.
+     */
+    public void shutdown() {
+        stop();
+        progressReporter.stop();
+        prefetchExecutor.shutdownNow();
+        try {
+            // don't free a player while it is being prefetched
+            prefetchExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mixer.shutdown();
+        synchronized (mediaLock) {
+            mediaPlayerPool.shutdown();
+        }
+    }
+
     /**
      * Play items from the speech play queue
      */
@@ -602,36 +841,66 @@ public class AVSAudioPlayer {
         Thread thread = new Thread() {
             @Override
             public void run() {
-                synchronized (playLock) {
-                    try {
-                        InputStream inpStream = speak.getAudio();
-                        play(inpStream);
-                        while (inpStream.available() > 0) {
-                            playLock.wait(TIMEOUT_IN_MS);
-                        }
-                    } catch (InterruptedException | IOException e) {
-                    }
-
-                    finishedSpeechItem();
+                try {
+                    Playback player = playSpeech(speak);
+                    speechPlayback = player;
+                    player.await();
+                    log.debug("MP3 frames decode in {} us on average, {} us at most, "
+                            + "{} decode underruns, {} output underruns",
+                            Mp3Source.getAverageDecodeMicros(), Mp3Source.getMaxDecodeMicros(),
+                            Mp3Source.getUnderrunCount(), mixer.getUnderrunCount());
+                } catch (InterruptedException e) {
                 }
+
+                finishedSpeechItem();
             }
         };
         thread.start();
     }
 
+    /**
+     * Plays a speech item from the clip cache if the same attachment has been played before.
+     * Otherwise it is decoded as the attachment streams in, so playback starts before the whole
+     * prompt has been downloaded, and the decoded audio is cached once it has played to the end.
+     * The speech counts as played once its first decoded frame reaches the mixer.
+     */
+    private Playback playSpeech(SpeakItem speak) {
+        Runnable onFirstFrame = () -> LatencyTracer.getInstance()
+                .mark(speak.getDialogRequestId(), LatencyStage.FIRST_SPEECH_PLAYED);
+        if (speak.getContentId() == null) {
+            return play(speak.getAudio(), Priority.SPEECH, onFirstFrame);
+        }
+        String key = SPEECH_CACHE_PREFIX + speak.getContentId();
+        Optional<CachedClip> clip = clipCache.get(key);
+        if (clip.isPresent()) {
+            // Lets the parser skip the rest of the attachment
+            IOUtils.closeQuietly(speak.getAudio());
+            Playback playback = play(clip.get(), Priority.SPEECH);
+            onFirstFrame.run();
+            return playback;
+        }
+        return mixer.play(new Mp3Source(speak.getAudio(), AudioMixer.OUTPUT_FORMAT, onFirstFrame,
+                clipCache.startClip(key).orElse(null)), Priority.SPEECH);
+    }
+
     /**
      * When a speech item is finished, perform the necessary actions
      */
     private void finishedSpeechItem() {
-        // remove the finished item
-        speakQueue.poll();
+        boolean finished;
+        synchronized (speakQueue) {
+            // remove the finished item
+            speakQueue.poll();
+            finished = speakQueue.isEmpty();
+        }
 
-        if (speakQueue.isEmpty()) {
+        if (finished) {
             speechState = SpeechState.FINISHED;
             controller.sendRequest(
                     RequestFactory.createSpeechSynthesizerSpeechFinishedEvent(latestToken));
 
             notifyAlexaSpeechFinished();
+            coordinator.signal();
         } else {
             // if not done start the next speech
             startSpeech();
@@ -642,13 +911,16 @@ public class AVSAudioPlayer {
      * Clear the queue of items to play, but keep the most recent item.
      */
     public void clearEnqueued() {
-        // save the top item
-        Stream top = playQueue.poll();
-        // clear the queue and re-add the top item
-        playQueue.clear();
-        if (top != null) {
-            playQueue.add(top);
+        synchronized (mediaLock) {
+            // save the top item
+            Stream top = playQueue.poll();
+            // clear the queue and re-add the top item
+            playQueue.clear();
+            if (top != null) {
+                playQueue.add(top);
+            }
         }
+        prefetchExecutor.execute(this::prefetchNext);
     }
 
     /**
@@ -656,19 +928,22 @@ public class AVSAudioPlayer {
      */
     public void clearAll() {
         // stop playback and clear all
-        stop();
-        playQueue.clear();
+        synchronized (mediaLock) {
+            stop();
+            playQueue.clear();
+        }
+        prefetchExecutor.execute(this::prefetchNext);
     }
 
     /**
-     * Get the position of the currently playing media item
+     * Get the position of the currently playing media item. Reads the clock of the media player
+     * without taking mediaLock, so progress reports are never held up by a player starting.
      *
      * @return The position in milliseconds of the stream
      */
     private long getProgress() {
-        synchronized (audioPlayer.getMediaPlayer()) {
-            return audioPlayer.getMediaPlayer().getTime();
-        }
+        AudioMediaPlayerComponent player = audioPlayer;
+        return player == null ? 0 : player.getMediaPlayer().getTime();
     }
 
     /**
@@ -732,21 +1007,45 @@ public class AVSAudioPlayer {
      *
      * @return Player offset in milliseconds
      */
-    private synchronized long getPlayerPosition() {
-        long offsetInMilliseconds = 0;
-        if (speaker != null) {
-            offsetInMilliseconds = speaker.getPosition();
-        }
-        return offsetInMilliseconds;
+    private long getPlayerPosition() {
+        Playback player = speechPlayback;
+        return player == null ? 0 : player.getPositionMs();
     }
 
     /**
      * plays MP3 data from a resource asynchronously. will stop any previous playback and start the
      * new audio
      */
-    public synchronized void playMp3FromResource(String resource) {
-        final InputStream inpStream = resLoader.getResourceAsStream(resource);
-        play(inpStream);
+    public void playMp3FromResource(String resource) {
+        playResource(resource, Priority.EARCON);
+    }
+
+    /**
+     * @return The hits and misses of the cache of decoded earcons, alert sounds and speech.
+     */
+    public AudioClipCache getClipCache() {
+        return clipCache;
+    }
+
+    /**
+     * @return The mixer playing speech, alerts and earcons, for its underrun count and latency.
+     */
+    public AudioMixer getMixer() {
+        return mixer;
+    }
+
+    /**
+     * Plays a bundled MP3 resource, from the clip cache if it has been decoded already.
+     *
+     * @return The playback of the resource.
+     */
+    private Playback playResource(String resource, Priority priority) {
+        Optional<CachedClip> clip = clipCache.get(resource);
+        if (clip.isPresent()) {
+            return play(clip.get(), priority);
+        }
+        clipCache.preloadAsync(resLoader, resource);
+        return play(resLoader.getResourceAsStream(resource), priority, null);
     }
 
     /**
@@ -768,15 +1067,24 @@ public class AVSAudioPlayer {
                             if (Thread.interrupted()) {
                                 break;
                             }
-                            InputStream inpStream = resLoader.getResourceAsStream("res/alarm.mp3");
-                            synchronized (playLock) {
-                                try {
-                                    play(inpStream);
-                                    while (inpStream.available() > 0) {
-                                        playLock.wait(TIMEOUT_IN_MS);
-                                    }
-                                } catch (InterruptedException | IOException e) {
-                                }
+                            Optional<CachedClip> clip = getAlarmClip();
+                            Playback playback;
+                            if (clip.isPresent()) {
+                                playback = mixer.play(new ClipSource(clip.get(),
+                                        AudioMixer.OUTPUT_FORMAT,
+                                        () -> isAlarming() && !isSpeaking()), Priority.ALERT);
+                            } else {
+                                playback = playResource(ALARM_RESOURCE, Priority.ALERT);
+                            }
+                            alarmPlayback = playback;
+                            if (!isAlarming()) {
+                                // stopAlert came in before the playback was published
+                                playback.stop();
+                            }
+                            try {
+                                playback.await();
+                            } catch (InterruptedException e) {
+                                break;
                             }
                         }
                     }
@@ -786,21 +1094,39 @@ public class AVSAudioPlayer {
         }
     }
 
+    /**
+     * Returns the decoded alarm sound, decoding it now if the preload has not got to it yet.
+     */
+    private Optional<CachedClip> getAlarmClip() {
+        if (!clipCache.contains(ALARM_RESOURCE)) {
+            try (InputStream inpStream = resLoader.getResourceAsStream(ALARM_RESOURCE)) {
+                if (inpStream == null) {
+                    return Optional.empty();
+                }
+                clipCache.put(ALARM_RESOURCE, inpStream);
+            } catch (IOException e) {
+                log.error("Failed to decode the alarm sound", e);
+            }
+        }
+        return clipCache.get(ALARM_RESOURCE);
+    }
+
     /**
      * Stop the alarm
      */
     public void stopAlert() {
-        interruptCurrentlyPlaying();
+        // Mark the alert finished first so the alarm thread does not start another loop
         alertState = AlertState.FINISHED;
+        Playback playback = alarmPlayback;
+        if (playback != null) {
+            playback.stop();
+        }
     }
 
     /**
      * Interrupt whatever audio is currently playing through the default audio player
      */
     private synchronized void interruptCurrentlyPlaying() {
-        if (playThread != null) {
-            playThread.interrupt();
-        }
         stopPlayer();
     }
 
@@ -808,44 +1134,33 @@ public class AVSAudioPlayer {
      * Ends playback of the default audio player
      */
     private synchronized void stopPlayer() {
-        if (speaker != null) {
-            speaker.close();
-            speaker = null;
-            if (isSpeaking()) {
-                speechState = SpeechState.FINISHED;
-                notifyAlexaSpeechFinished();
-            }
+        mixer.stopAll();
+        if (isSpeaking()) {
+            speechState = SpeechState.FINISHED;
+            notifyAlexaSpeechFinished();
         }
     }
 
     /**
-     * Play a generic input stream through the default audio player without blocking
+     * Play a generic input stream through the mixer without blocking
+     *
+     * @param onFirstFrame
+     *            Run on the mixer thread once the first decoded frame is played, or null.
+     * @return The playback of the stream.
      */
-    private synchronized void play(final InputStream inpStream) {
-        play(inpStream, false);
+    private Playback play(final InputStream inpStream, Priority priority,
+            Runnable onFirstFrame) {
+        return mixer.play(new Mp3Source(inpStream, AudioMixer.OUTPUT_FORMAT, onFirstFrame),
+                priority);
     }
 
     /**
-     * Play a generic input stream through the default audio player
+     * Play a cached clip through the mixer without blocking
+     *
+     * @return The playback of the clip.
      */
-    private synchronized void play(final InputStream inpStream, boolean block) {
-        playThread = new Thread() {
-            @Override
-            public void run() {
-                synchronized (playLock) {
-                    try {
-                        speaker = new Player(inpStream);
-                        speaker.play();
-                    } catch (Exception e) {
-                        log.error("An error occurred while trying to play audio", e);
-                    } finally {
-                        IOUtils.closeQuietly(inpStream);
-                    }
-                    playLock.notifyAll();
-                }
-            }
-        };
-        playThread.start();
+    private Playback play(final CachedClip clip, Priority priority) {
+        return mixer.play(new ClipSource(clip, AudioMixer.OUTPUT_FORMAT, null), priority);
     }
 
     private void notifyAlexaSpeechStarted() {
@@ -27,6 +27,9 @@ import com.amazon.alexa.avs.message.response.audioplayer.Play;
 import com.amazon.alexa.avs.message.response.speaker.SetMute;
 import com.amazon.alexa.avs.message.response.speaker.VolumePayload;
 import com.amazon.alexa.avs.message.response.speechsynthesizer.Speak;
+import com.amazon.alexa.avs.trace.LatencyReportServer;
+import com.amazon.alexa.avs.trace.LatencyStage;
+import com.amazon.alexa.avs.trace.LatencyTracer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,13 +37,17 @@ import org.slf4j.LoggerFactory;
 import java.io.InputStream;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class AVSController
@@ -51,7 +58,10 @@ public class AVSController
     private final DialogRequestIdAuthority dialogRequestIdAuthority;
     private AlertManager alertManager;
 
-    private boolean eventRunning = false; // is an event currently being sent
+    // number of events currently being sent
+    private final AtomicInteger eventsRunning = new AtomicInteger();
+    // reacts to speech, playback and recording state changes instead of polling for them
+    private final PlaybackCoordinator playbackCoordinator = new PlaybackCoordinator();
 
     private static final AudioInputFormat AUDIO_TYPE = AudioInputFormat.LPCM;
     private static final String START_SOUND = "res/start.mp3";
@@ -63,12 +73,16 @@ public class AVSController
     private static final Logger log = LoggerFactory.getLogger(AVSController.class);
     private static final long MILLISECONDS_PER_SECOND = 1000;
     private static final long USER_INACTIVITY_REPORT_PERIOD_HOURS = 1;
+    private static final long LATENCY_LOG_PERIOD_MINUTES = 15;
 
     private final AVSAudioPlayer player;
     private BlockableDirectiveThread dependentDirectiveThread;
     private BlockableDirectiveThread independentDirectiveThread;
     private BlockingQueue<Directive> dependentQueue;
     private BlockingQueue<Directive> independentQueue;
+    private final DirectiveScheduler directiveScheduler;
+    // Directive namespace to directive name to the handler for that directive
+    private final Map<String, Map<String, DirectiveHandler>> directiveHandlers = new HashMap<>();
     public SpeechRequestAudioPlayerPauseController speechRequestAudioPlayerPauseController;
 
     private ScheduledExecutorService scheduledExecutor = Executors.newScheduledThreadPool(1);
@@ -77,12 +91,29 @@ public class AVSController
 
     private final Set<ExpectSpeechListener> expectSpeechListeners;
 
+    private final LatencyTracer latencyTracer = LatencyTracer.getInstance();
+    private final LatencyReportServer latencyReportServer =
+            new LatencyReportServer(latencyTracer, LatencyReportServer.DEFAULT_PORT);
+
     public AVSController(ExpectSpeechListener listenHandler, AVSAudioPlayerFactory audioFactory,
             AlertManagerFactory alarmFactory, AVSClientFactory avsClientFactory,
             DialogRequestIdAuthority dialogRequestIdAuthority) throws Exception {
+        this(listenHandler, audioFactory, alarmFactory, avsClientFactory, dialogRequestIdAuthority,
+                0);
+    }
+
+    /**
+     * @param preRollMilliseconds
+     *            If positive, the microphone is kept open and each speech request starts with this
+     *            much audio from before {@link #startRecording} was called.
+     */
+    public AVSController(ExpectSpeechListener listenHandler, AVSAudioPlayerFactory audioFactory,
+            AlertManagerFactory alarmFactory, AVSClientFactory avsClientFactory,
+            DialogRequestIdAuthority dialogRequestIdAuthority, int preRollMilliseconds)
+                    throws Exception {
 
         this.microphone = AudioCapture.getAudioHardware(AUDIO_TYPE.getAudioFormat(),
-                new MicrophoneLineFactory());
+                new MicrophoneLineFactory(), preRollMilliseconds);
         this.player = audioFactory.getAudioPlayer(this);
         this.player.registerAlexaSpeechListener(this);
         this.dialogRequestIdAuthority = dialogRequestIdAuthority;
@@ -100,7 +131,8 @@ public class AVSController
 
         avsClient = avsClientFactory.getAVSClient(directiveEnqueuer, this);
 
-        alertManager = alarmFactory.getAlertManager(this, this, AlertsFileDataStore.getInstance());
+        alertManager = alarmFactory.getAlertManager(this, this,
+                AlertsJournalDataStore.getInstance());
 
         // Ensure that we have attempted to finish loading all alarms from file before sending
         // synchronize state
@@ -116,25 +148,84 @@ public class AVSController
             }
         });
 
+        registerDirectiveHandlers();
+        directiveScheduler = new DirectiveScheduler(this);
+
         // ensure we notify AVS of playbackStopped on app exit
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
-                player.stop();
+                player.shutdown();
                 avsClient.shutdown();
+                directiveScheduler.shutdown();
+                playbackCoordinator.shutdown();
+                latencyReportServer.stopServer();
             }
         });
 
-        dependentDirectiveThread =
-                new BlockableDirectiveThread(dependentQueue, this, "DependentDirectiveThread");
-        independentDirectiveThread =
-                new BlockableDirectiveThread(independentQueue, this, "IndependentDirectiveThread");
+        dependentDirectiveThread = new BlockableDirectiveThread(dependentQueue,
+                directiveScheduler, "DependentDirectiveThread");
+        independentDirectiveThread = new BlockableDirectiveThread(independentQueue,
+                directiveScheduler, "IndependentDirectiveThread");
 
         lastUserInteractionTimestampSeconds =
                 new AtomicLong(System.currentTimeMillis() / MILLISECONDS_PER_SECOND);
         scheduledExecutor.scheduleAtFixedRate(new UserInactivityReport(),
                 USER_INACTIVITY_REPORT_PERIOD_HOURS, USER_INACTIVITY_REPORT_PERIOD_HOURS,
                 TimeUnit.HOURS);
+
+        latencyTracer.startPeriodicLog(LATENCY_LOG_PERIOD_MINUTES, TimeUnit.MINUTES);
+        latencyReportServer.startServer();
+    }
+
+    private void registerDirectiveHandlers() {
+        registerDirectiveHandler(AVSAPIConstants.SpeechRecognizer.NAMESPACE,
+                AVSAPIConstants.SpeechRecognizer.Directives.ExpectSpeech.NAME,
+                // If your device cannot handle automatically starting to listen, you must
+                // implement a listen timeout event, as described here:
+                // https://developer.amazon.com/public/solutions/alexa/alexa-voice-service/rest/speechrecognizer-listentimeout-request
+                directive -> notifyExpectSpeechDirective());
+
+        registerDirectiveHandler(AVSAPIConstants.SpeechSynthesizer.NAMESPACE,
+                AVSAPIConstants.SpeechSynthesizer.Directives.Speak.NAME,
+                directive -> player.handleSpeak((Speak) directive.getPayload(),
+                        directive.getDialogRequestId()));
+
+        registerDirectiveHandler(AVSAPIConstants.AudioPlayer.NAMESPACE,
+                AVSAPIConstants.AudioPlayer.Directives.Play.NAME,
+                directive -> player.handlePlay((Play) directive.getPayload()));
+        registerDirectiveHandler(AVSAPIConstants.AudioPlayer.NAMESPACE,
+                AVSAPIConstants.AudioPlayer.Directives.Stop.NAME,
+                directive -> player.handleStop());
+        registerDirectiveHandler(AVSAPIConstants.AudioPlayer.NAMESPACE,
+                AVSAPIConstants.AudioPlayer.Directives.ClearQueue.NAME,
+                directive -> player.handleClearQueue((ClearQueue) directive.getPayload()));
+
+        registerDirectiveHandler(AVSAPIConstants.Alerts.NAMESPACE,
+                AVSAPIConstants.Alerts.Directives.SetAlert.NAME, this::handleSetAlert);
+        registerDirectiveHandler(AVSAPIConstants.Alerts.NAMESPACE,
+                AVSAPIConstants.Alerts.Directives.DeleteAlert.NAME,
+                directive -> alertManager.delete(((DeleteAlert) directive.getPayload())
+                        .getToken()));
+
+        registerDirectiveHandler(AVSAPIConstants.Speaker.NAMESPACE,
+                AVSAPIConstants.Speaker.Directives.SetVolume.NAME,
+                directive -> player.handleSetVolume((VolumePayload) directive.getPayload()));
+        registerDirectiveHandler(AVSAPIConstants.Speaker.NAMESPACE,
+                AVSAPIConstants.Speaker.Directives.AdjustVolume.NAME,
+                directive -> player.handleAdjustVolume((VolumePayload) directive.getPayload()));
+        registerDirectiveHandler(AVSAPIConstants.Speaker.NAMESPACE,
+                AVSAPIConstants.Speaker.Directives.SetMute.NAME,
+                directive -> player.handleSetMute((SetMute) directive.getPayload()));
+
+        registerDirectiveHandler(AVSAPIConstants.System.NAMESPACE,
+                AVSAPIConstants.System.Directives.ResetUserInactivity.NAME,
+                directive -> onUserActivity());
+    }
+
+    private void registerDirectiveHandler(String namespace, String name,
+            DirectiveHandler handler) {
+        directiveHandlers.computeIfAbsent(namespace, key -> new HashMap<>()).put(name, handler);
     }
 
     public void startHandlingDirectives() {
@@ -155,8 +246,11 @@ public class AVSController
     // start the recording process and send to server
     // takes an optional RMS callback and an optional request callback
     public void startRecording(RecordingRMSListener rmsListener, RequestListener requestListener) {
+        // Check the connection while the microphone opens
+        avsClient.warmUp();
         try {
             String dialogRequestId = dialogRequestIdAuthority.createNewDialogRequestId();
+            latencyTracer.recordingStarted(dialogRequestId);
 
             RequestBody body = RequestFactory.createSpeechRegonizerRecognizeRequest(dialogRequestId,
                     PROFILE, FORMAT, player.getPlaybackState(), player.getSpeechState(),
@@ -212,45 +306,49 @@ public class AVSController
     }
 
     public void sendRequest(RequestBody body) {
-        eventRunning = true;
+        eventsRunning.incrementAndGet();
         try {
             avsClient.sendEvent(body);
         } catch (Exception e) {
             log.error("Failed to send request", e);
         }
-        eventRunning = false;
+        if (eventsRunning.decrementAndGet() == 0) {
+            playbackCoordinator.signal();
+        }
     }
 
     public boolean eventRunning() {
-        return eventRunning;
+        return eventsRunning.get() > 0;
+    }
+
+    public PlaybackCoordinator getPlaybackCoordinator() {
+        return playbackCoordinator;
     }
 
+    /**
+     * Handles a directive. Called on the {@link DirectiveLane} of the directive's namespace, so
+     * directives of different namespaces may be handled concurrently.
+     */
     @Override
-    public synchronized void dispatch(Directive directive) {
+    public void dispatch(Directive directive) {
         String directiveNamespace = directive.getNamespace();
 
         String directiveName = directive.getName();
         log.info("Handling directive: {}.{}", directiveNamespace, directiveName);
+        latencyTracer.mark(directive.getDialogRequestId(), LatencyStage.FIRST_DIRECTIVE_DISPATCHED);
         if (dialogRequestIdAuthority.isCurrentDialogRequestId(directive.getDialogRequestId())) {
             speechRequestAudioPlayerPauseController.dispatchDirective();
         }
         try {
-            if (directiveNamespace.equals(AVSAPIConstants.SpeechRecognizer.NAMESPACE)) {
-                handleSpeechRecognizerDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.SpeechSynthesizer.NAMESPACE)) {
-                handleSpeechSynthesizerDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.AudioPlayer.NAMESPACE)) {
-                handleAudioPlayerDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.Alerts.NAMESPACE)) {
-                handleAlertsDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.Speaker.NAMESPACE)) {
-                handleSpeakerDirective(directive);
-            } else if (directiveNamespace.equals(AVSAPIConstants.System.NAMESPACE)) {
-                handleSystemDirective(directive);
-            } else {
+            Map<String, DirectiveHandler> handlers = directiveHandlers.get(directiveNamespace);
+            if (handlers == null) {
                 throw new DirectiveHandlingException(ExceptionType.UNSUPPORTED_OPERATION,
                         "No device side component to handle the directive.");
             }
+            DirectiveHandler handler = handlers.get(directiveName);
+            if (handler != null) {
+                handler.handle(directive);
+            }
         } catch (DirectiveHandlingException e) {
             sendExceptionEncounteredEvent(directive.getRawMessage(), e.getType(), e);
         } catch (Exception e) {
@@ -261,6 +359,13 @@ public class AVSController
 
     }
 
+    /**
+     * @return The directive lanes created so far, for monitoring.
+     */
+    public Collection<DirectiveLane> getDirectiveLanes() {
+        return directiveScheduler.getLanes();
+    }
+
     private void sendExceptionEncounteredEvent(String directiveJson, ExceptionType type,
             Exception e) {
         sendRequest(RequestFactory.createSystemExceptionEncounteredEvent(directiveJson, type,
@@ -269,79 +374,23 @@ public class AVSController
         log.error("{} error handling directive: {}", type, directiveJson, e);
     }
 
-    private void handleAudioPlayerDirective(Directive directive) throws DirectiveHandlingException {
-        String directiveName = directive.getName();
-        if (directiveName.equals(AVSAPIConstants.AudioPlayer.Directives.Play.NAME)) {
-            player.handlePlay((Play) directive.getPayload());
-        } else if (directiveName.equals(AVSAPIConstants.AudioPlayer.Directives.Stop.NAME)) {
-            player.handleStop();
-        } else if (directiveName.equals(AVSAPIConstants.AudioPlayer.Directives.ClearQueue.NAME)) {
-            player.handleClearQueue((ClearQueue) directive.getPayload());
-        }
-
-    }
-
-    private void handleSpeechSynthesizerDirective(Directive directive)
-            throws DirectiveHandlingException {
-        if (directive.getName().equals(AVSAPIConstants.SpeechSynthesizer.Directives.Speak.NAME)) {
-            player.handleSpeak((Speak) directive.getPayload());
-        }
-    }
+    private void handleSetAlert(Directive directive) {
+        SetAlert payload = (SetAlert) directive.getPayload();
+        String alertToken = payload.getToken();
+        ZonedDateTime scheduledTime = payload.getScheduledTime();
+        AlertType type = payload.getType();
 
-    private void handleSpeechRecognizerDirective(Directive directive) {
-        if (directive
-                .getName()
-                .equals(AVSAPIConstants.SpeechRecognizer.Directives.ExpectSpeech.NAME)) {
-
-            // If your device cannot handle automatically starting to listen, you must
-            // implement a listen timeout event, as described here:
-            // https://developer.amazon.com/public/solutions/alexa/alexa-voice-service/rest/speechrecognizer-listentimeout-request
-            notifyExpectSpeechDirective();
-        }
-    }
-
-    private void handleAlertsDirective(Directive directive) {
-        String directiveName = directive.getName();
-        if (directiveName.equals(AVSAPIConstants.Alerts.Directives.SetAlert.NAME)) {
-            SetAlert payload = (SetAlert) directive.getPayload();
-            String alertToken = payload.getToken();
-            ZonedDateTime scheduledTime = payload.getScheduledTime();
-            AlertType type = payload.getType();
-
-            if (alertManager.hasAlert(alertToken)) {
-                AlertScheduler scheduler = alertManager.getScheduler(alertToken);
-                if (scheduler.getAlert().getScheduledTime().equals(scheduledTime)) {
-                    return;
-                } else {
-                    scheduler.cancel();
-                }
+        if (alertManager.hasAlert(alertToken)) {
+            AlertScheduler scheduler = alertManager.getScheduler(alertToken);
+            if (scheduler.getAlert().getScheduledTime().equals(scheduledTime)) {
+                return;
+            } else {
+                scheduler.cancel();
             }
-
-            Alert alert = new Alert(alertToken, type, scheduledTime);
-            alertManager.add(alert);
-        } else if (directiveName.equals(AVSAPIConstants.Alerts.Directives.DeleteAlert.NAME)) {
-            DeleteAlert payload = (DeleteAlert) directive.getPayload();
-            alertManager.delete(payload.getToken());
         }
-    }
 
-    private void handleSpeakerDirective(Directive directive) {
-        String directiveName = directive.getName();
-        if (directiveName.equals(AVSAPIConstants.Speaker.Directives.SetVolume.NAME)) {
-            player.handleSetVolume((VolumePayload) directive.getPayload());
-        } else if (directiveName.equals(AVSAPIConstants.Speaker.Directives.AdjustVolume.NAME)) {
-            player.handleAdjustVolume((VolumePayload) directive.getPayload());
-        } else if (directiveName.equals(AVSAPIConstants.Speaker.Directives.SetMute.NAME)) {
-            player.handleSetMute((SetMute) directive.getPayload());
-        }
-    }
-
-    private void handleSystemDirective(Directive directive) {
-        if (directive
-                .getName()
-                .equals(AVSAPIConstants.System.Directives.ResetUserInactivity.NAME)) {
-            onUserActivity();
-        }
+        Alert alert = new Alert(alertToken, type, scheduledTime);
+        alertManager.add(alert);
     }
 
     private void notifyExpectSpeechDirective() {
@@ -416,6 +465,7 @@ public class AVSController
     public void processingFinished() {
         speechRequestAudioPlayerPauseController
                 .speechRequestProcessingFinished(dependentQueue.size());
+        playbackCoordinator.signal();
     }
 
     @Override
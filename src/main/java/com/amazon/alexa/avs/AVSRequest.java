@@ -17,18 +17,67 @@ import org.eclipse.jetty.client.api.ContentProvider;
 import java.util.Optional;
 
 public class AVSRequest {
+    /**
+     * Requests the user is waiting on are sent even while the circuit breaker holds back others.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL
+    }
+
     private final Resource resource;
     private final ContentProvider contentProvider;
     private final RetryPolicy retryPolicy;
     private final MultipartParser multipartParser;
     private final RequestListener requestListener;
+    private final String lane;
+    private final long timeoutMs;
+    private final Priority priority;
+    private final long deadline;
 
-    public AVSRequest(Resource resource, ContentProvider contentProvider, RetryPolicy retryPolicy, MultipartParser multipartParser, RequestListener requestListener) {
+    /**
+     * @param lane
+     *            Requests in the same lane are sent in the order they were enqueued, one at a time.
+     *            Requests in different lanes may be sent concurrently.
+     * @param timeoutMs
+     *            Maximum time the whole exchange may take, or 0 for no limit.
+     * @param priority
+     *            Whether the user is waiting on this request.
+     * @param deadline
+     *            Time in milliseconds since the epoch after which the request is no longer worth
+     *            sending, or 0 for none.
+     */
+    public AVSRequest(Resource resource, ContentProvider contentProvider, RetryPolicy retryPolicy,
+            MultipartParser multipartParser, RequestListener requestListener, String lane,
+            long timeoutMs, Priority priority, long deadline) {
         this.resource = resource;
         this.contentProvider = contentProvider;
         this.retryPolicy = retryPolicy;
         this.multipartParser = multipartParser;
         this.requestListener = requestListener;
+        this.lane = lane;
+        this.timeoutMs = timeoutMs;
+        this.priority = priority;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param lane
+     *            Requests in the same lane are sent in the order they were enqueued, one at a time.
+     *            Requests in different lanes may be sent concurrently.
+     * @param timeoutMs
+     *            Maximum time the whole exchange may take, or 0 for no limit.
+     */
+    public AVSRequest(Resource resource, ContentProvider contentProvider, RetryPolicy retryPolicy,
+            MultipartParser multipartParser, RequestListener requestListener, String lane,
+            long timeoutMs) {
+        this(resource, contentProvider, retryPolicy, multipartParser, requestListener, lane,
+                timeoutMs, Priority.NORMAL, 0);
+    }
+
+    public AVSRequest(Resource resource, ContentProvider contentProvider, RetryPolicy retryPolicy, MultipartParser multipartParser, RequestListener requestListener) {
+        this(resource, contentProvider, retryPolicy, multipartParser, requestListener,
+                resource.name(), 0);
     }
 
     public AVSRequest(Resource resource, ContentProvider contentProvider, RetryPolicy retryPolicy, MultipartParser multipartParser) {
@@ -54,4 +103,24 @@ public class AVSRequest {
     public Optional<RequestListener> getRequestListener() {
         return Optional.ofNullable(requestListener);
     }
+
+    public String getLane() {
+        return lane;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean isExpired(long now) {
+        return deadline > 0 && now >= deadline;
+    }
 }
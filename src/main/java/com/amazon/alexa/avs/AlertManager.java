@@ -13,19 +13,20 @@ import com.amazon.alexa.avs.message.request.context.AlertsStatePayload;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AlertManager implements AlertHandler {
     private final AlertEventListener listener;
     private final AlertHandler handler;
     private final Map<String, AlertScheduler> schedulers;
-    private final Set<String> activeAlerts;
+    // Lets context events read the alert state without waiting on alert changes
+    private final AlertStateIndex stateIndex;
     private final AlertsDataStore dataStore;
+    // One thread triggers every alert, however many are scheduled
+    private final AlertTimingWheel timingWheel = new AlertTimingWheel();
 
     private static final Logger log = LoggerFactory.getLogger(AlertManager.class);
 
@@ -33,8 +34,8 @@ public class AlertManager implements AlertHandler {
             AlertsDataStore dataStore) {
         this.listener = listener;
         this.handler = handler;
-        this.schedulers = new HashMap<String, AlertScheduler>();
-        this.activeAlerts = new HashSet<String>();
+        this.schedulers = new ConcurrentHashMap<String, AlertScheduler>();
+        this.stateIndex = new AlertStateIndex();
         this.dataStore = dataStore;
     }
 
@@ -43,27 +44,29 @@ public class AlertManager implements AlertHandler {
 
     }
 
-    public synchronized boolean hasAlert(String alertToken) {
+    public boolean hasAlert(String alertToken) {
         return schedulers.containsKey(alertToken);
     }
 
-    public synchronized boolean hasActiveAlerts() {
-        return activeAlerts.size() > 0;
+    public boolean hasActiveAlerts() {
+        return !stateIndex.snapshot().getActiveTokens().isEmpty();
     }
 
-    public synchronized Set<String> getActiveAlerts() {
-        return activeAlerts;
+    /**
+     * @return An immutable snapshot of the tokens of the active alerts.
+     */
+    public Set<String> getActiveAlerts() {
+        return stateIndex.snapshot().getActiveTokens();
     }
 
-    public synchronized List<Alert> getAllAlerts() {
-        List<Alert> list = new ArrayList<Alert>(schedulers.size());
-        for (AlertScheduler scheduler : schedulers.values()) {
-            list.add(scheduler.getAlert());
-        }
-        return list;
+    /**
+     * @return An immutable snapshot of all alerts.
+     */
+    public List<Alert> getAllAlerts() {
+        return stateIndex.snapshot().getAllAlerts();
     }
 
-    public synchronized AlertScheduler getScheduler(String alertToken) {
+    public AlertScheduler getScheduler(String alertToken) {
         return schedulers.get(alertToken);
     }
 
@@ -74,11 +77,12 @@ public class AlertManager implements AlertHandler {
     // When re-adding alerts by reading them from disk, suppressEvent
     // should be set to true. We only want to trigger events the first time
     // a alert is set
-    public synchronized void add(final Alert alert, final boolean suppressEvent) {
-        final AlertScheduler scheduler = new AlertScheduler(alert, this);
+    public void add(final Alert alert, final boolean suppressEvent) {
+        final AlertScheduler scheduler = new AlertScheduler(alert, this, timingWheel);
         schedulers.put(alert.getToken(), scheduler);
+        stateIndex.put(alert);
         log.debug("Adding alert with token {}", alert.getToken());
-        writeCurrentAlertsToDisk(new ResultListener() {
+        dataStore.add(alert, this::getAllAlerts, new ResultListener() {
             @Override
             public void onSuccess() {
                 if (!suppressEvent) {
@@ -91,18 +95,21 @@ public class AlertManager implements AlertHandler {
                 if (!suppressEvent) {
                     listener.onAlertSet(alert.getToken(), false);
                 }
-                schedulers.remove(alert.getToken());
+                if (schedulers.remove(alert.getToken(), scheduler)) {
+                    stateIndex.remove(alert.getToken());
+                }
                 scheduler.cancel();
             }
         });
     }
 
-    public synchronized void delete(final String alertToken) {
+    public void delete(final String alertToken) {
         final AlertScheduler scheduler = schedulers.remove(alertToken);
         log.debug("Deleting alert with token {}", alertToken);
         if (scheduler != null) {
             final Alert alert = scheduler.getAlert();
-            writeCurrentAlertsToDisk(new ResultListener() {
+            stateIndex.remove(alertToken);
+            dataStore.delete(alert, this::getAllAlerts, new ResultListener() {
                 @Override
                 public void onSuccess() {
                     scheduler.cancel();
@@ -117,25 +124,44 @@ public class AlertManager implements AlertHandler {
         }
     }
 
-    public void drop(final Alert alert) {
-        listener.onAlertStopped(alert.getToken());
+    /**
+     * Schedules an alert read back by the data store. The store already holds it, so it is not
+     * stored again, and no event is sent for it.
+     */
+    void restore(final Alert alert) {
+        schedulers.put(alert.getToken(), new AlertScheduler(alert, this, timingWheel));
+        stateIndex.put(alert);
+        log.debug("Restoring alert with token {}", alert.getToken());
     }
 
-    private void writeCurrentAlertsToDisk(final ResultListener l) {
-        dataStore.writeToDisk(getAllAlerts(), l);
+    public void drop(final Alert alert) {
+        listener.onAlertStopped(alert.getToken());
     }
 
     @Override
-    public synchronized void startAlert(String alertToken) {
-        activeAlerts.add(alertToken);
+    public void startAlert(String alertToken) {
+        stateIndex.setActive(alertToken, true);
         listener.onAlertStarted(alertToken);
         handler.startAlert(alertToken);
     }
 
     @Override
-    public synchronized void stopAlert(String alertToken) {
-        activeAlerts.remove(alertToken);
-        schedulers.remove(alertToken);
+    public void stopAlert(String alertToken) {
+        AlertScheduler scheduler = schedulers.remove(alertToken);
+        stateIndex.remove(alertToken);
+        if (scheduler != null) {
+            // Otherwise the stopped alert is restored, and fires again, after a restart
+            dataStore.delete(scheduler.getAlert(), this::getAllAlerts, new ResultListener() {
+                @Override
+                public void onSuccess() {
+                }
+
+                @Override
+                public void onFailure() {
+                    log.error("Failed to remove the stopped alert with token {}", alertToken);
+                }
+            });
+        }
         listener.onAlertStopped(alertToken);
         handler.stopAlert(alertToken);
     }
@@ -143,27 +169,18 @@ public class AlertManager implements AlertHandler {
     /**
      * Stops an active alert
      */
-    public synchronized void stopActiveAlert() {
-        if (hasActiveAlerts()) {
-            for (String alertToken : activeAlerts) {
-                stopAlert(alertToken);
-                return;
-            }
+    public void stopActiveAlert() {
+        for (String alertToken : getActiveAlerts()) {
+            stopAlert(alertToken);
+            return;
         }
     }
 
-    public synchronized AlertsStatePayload getState() {
-        List<Alert> all = new ArrayList<>(schedulers.size());
-        List<Alert> active = new ArrayList<>(activeAlerts.size());
-        for (AlertScheduler scheduler : schedulers.values()) {
-            Alert alert = scheduler.getAlert();
-            all.add(alert);
-
-            if (activeAlerts.contains(alert.getToken())) {
-                active.add(alert);
-            }
-        }
-        return new AlertsStatePayload(all, active);
+    /**
+     * @return The alert context, read from the latest snapshot without blocking.
+     */
+    public AlertsStatePayload getState() {
+        return stateIndex.snapshot().getState();
     }
 
     interface ResultListener {
@@ -8,29 +8,31 @@
  */
 package com.amazon.alexa.avs;
 
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import com.amazon.alexa.avs.AlertTimingWheel.Timeout;
 
 /**
- * A timer used to trigger AVS alerts on schedule
+ * Triggers an AVS alert on schedule
  */
-public class AlertScheduler extends Timer {
+public class AlertScheduler {
     private final Alert alert;
     private final AlertHandler handler;
+    private final Timeout timeout;
     private boolean active = false;
+    private boolean cancelled = false;
 
-    public AlertScheduler(final Alert alert, final AlertHandler handler) {
-        super();
-        schedule(new TimerTask() {
-            @Override
-            public void run() {
-                setActive(true);
-                handler.startAlert(alert.getToken());
-            }
-        }, Date.from(alert.getScheduledTime().toInstant()));
+    public AlertScheduler(final Alert alert, final AlertHandler handler,
+            final AlertTimingWheel timingWheel) {
         this.alert = alert;
         this.handler = handler;
+        timeout = timingWheel.schedule(alert.getScheduledTime().toInstant(), () -> {
+            synchronized (AlertScheduler.this) {
+                if (cancelled) {
+                    return;
+                }
+                active = true;
+            }
+            handler.startAlert(alert.getToken());
+        });
     }
 
     public synchronized boolean isActive() {
@@ -41,9 +43,11 @@ public class AlertScheduler extends Timer {
         this.active = active;
     }
 
-    @Override
     public void cancel() {
-        super.cancel();
+        synchronized (this) {
+            cancelled = true;
+        }
+        timeout.cancel();
         if (isActive()) {
             handler.stopAlert(alert.getToken());
             setActive(false);
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.message.request.context.AlertsStatePayload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * The set of alerts and which of them are active, published as immutable, versioned snapshots.
+ * Readers never block: they get the latest snapshot, with its {@link AlertsStatePayload} already
+ * built, in constant time. Writers derive a new snapshot from the latest one and publish it with a
+ * compare-and-set, retrying if another writer got there first.
+ */
+public class AlertStateIndex {
+
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot());
+
+    /**
+     * An immutable view of the alerts at one point in time.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final Map<String, Alert> all;
+        private final Set<String> active;
+        private final AlertsStatePayload state;
+
+        private Snapshot() {
+            this(0, Collections.emptyMap(), Collections.emptySet());
+        }
+
+        private Snapshot(long version, Map<String, Alert> all, Set<String> active) {
+            this.version = version;
+            this.all = all;
+            this.active = active;
+
+            List<Alert> allList = Collections.unmodifiableList(new ArrayList<>(all.values()));
+            List<Alert> activeList = new ArrayList<>(active.size());
+            for (String token : active) {
+                Alert alert = all.get(token);
+                if (alert != null) {
+                    activeList.add(alert);
+                }
+            }
+            state = new AlertsStatePayload(allList, Collections.unmodifiableList(activeList));
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public boolean contains(String alertToken) {
+            return all.containsKey(alertToken);
+        }
+
+        public List<Alert> getAllAlerts() {
+            return state.getAllAlerts();
+        }
+
+        public Set<String> getActiveTokens() {
+            return active;
+        }
+
+        public AlertsStatePayload getState() {
+            return state;
+        }
+
+        private Snapshot with(Map<String, Alert> newAll, Set<String> newActive) {
+            return new Snapshot(version + 1, Collections.unmodifiableMap(newAll),
+                    Collections.unmodifiableSet(newActive));
+        }
+    }
+
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    public void put(Alert alert) {
+        update(s -> {
+            Map<String, Alert> all = new LinkedHashMap<>(s.all);
+            all.put(alert.getToken(), alert);
+            return s.with(all, s.active);
+        });
+    }
+
+    /**
+     * Removes an alert, whether or not it is active.
+     */
+    public void remove(String alertToken) {
+        update(s -> {
+            if (!s.all.containsKey(alertToken) && !s.active.contains(alertToken)) {
+                return s;
+            }
+            Map<String, Alert> all = new LinkedHashMap<>(s.all);
+            all.remove(alertToken);
+            Set<String> active = new LinkedHashSet<>(s.active);
+            active.remove(alertToken);
+            return s.with(all, active);
+        });
+    }
+
+    public void setActive(String alertToken, boolean isActive) {
+        update(s -> {
+            if (s.active.contains(alertToken) == isActive) {
+                return s;
+            }
+            Set<String> active = new LinkedHashSet<>(s.active);
+            if (isActive) {
+                active.add(alertToken);
+            } else {
+                active.remove(alertToken);
+            }
+            return s.with(s.all, active);
+        });
+    }
+
+    private void update(UnaryOperator<Snapshot> change) {
+        Snapshot previous;
+        Snapshot next;
+        do {
+            previous = current.get();
+            next = change.apply(previous);
+        } while (previous != next && !current.compareAndSet(previous, next));
+    }
+}
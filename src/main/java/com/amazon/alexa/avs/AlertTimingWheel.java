@@ -0,0 +1,273 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel that runs any number of alert timeouts on a single thread. Adding and
+ * cancelling a timeout take constant time. Timeouts are due at a wall clock time; the wheel ticks
+ * on the monotonic clock and re-files every pending timeout if it sees the wall clock jump, for
+ * example when the time is first synchronized after boot.
+ */
+public class AlertTimingWheel {
+    private static final Logger log = LoggerFactory.getLogger(AlertTimingWheel.class);
+
+    private static final long DEFAULT_TICK_MS = 100;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    // How far the wall clock may drift from the monotonic clock before timeouts are re-filed
+    private static final long CLOCK_JUMP_TOLERANCE_MS = 1000;
+
+    private final long tickMs;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    // All fields below are guarded by this
+    private long currentTick;
+    private long startNanos;
+    private long startWallMs;
+    private int pendingCount;
+    private Thread worker;
+
+    /**
+     * A pending timeout. Cancelling it before it is due keeps its task from running.
+     */
+    public class Timeout {
+        private final long deadlineMs;
+        private final Runnable task;
+        private long deadlineTick;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(long deadlineMs, Runnable task) {
+            this.deadlineMs = deadlineMs;
+            this.task = task;
+        }
+
+        /**
+         * @return False if the timeout had already fired or been cancelled.
+         */
+        public boolean cancel() {
+            synchronized (AlertTimingWheel.this) {
+                if (bucket == null) {
+                    return false;
+                }
+                bucket.remove(this);
+                pendingCount--;
+                return true;
+            }
+        }
+    }
+
+    private static class Bucket {
+        private Timeout head;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = null;
+            timeout.next = head;
+            if (head != null) {
+                head.previous = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+    }
+
+    public AlertTimingWheel() {
+        this(DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tickMs
+     *            Resolution of the wheel in milliseconds.
+     * @param wheelSize
+     *            Number of buckets. Rounded up to a power of two.
+     */
+    public AlertTimingWheel(long tickMs, int wheelSize) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("Tick and wheel size must be positive.");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickMs = tickMs;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        startNanos = System.nanoTime();
+        startWallMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Runs the given task on the wheel's thread once the wall clock reaches the given time. Tasks
+     * that are already due run on the next tick.
+     */
+    public synchronized Timeout schedule(Instant time, Runnable task) {
+        Timeout timeout = new Timeout(time.toEpochMilli(), task);
+        if (pendingCount == 0) {
+            // The wheel stops ticking while it is empty, do not replay the ticks it missed
+            resync();
+        }
+        file(timeout, System.currentTimeMillis());
+        pendingCount++;
+        if (worker == null) {
+            worker = new Thread(this::run, "AlertTimingWheel");
+            worker.setDaemon(true);
+            worker.start();
+        }
+        notifyAll();
+        return timeout;
+    }
+
+    /**
+     * @return The number of timeouts that have neither fired nor been cancelled.
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    private void file(Timeout timeout, long nowWallMs) {
+        // Plus one to make up for truncating to whole milliseconds
+        long nowOffsetMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + 1;
+        long deadlineOffsetMs = nowOffsetMs + Math.max(0, timeout.deadlineMs - nowWallMs);
+        // Round up so a timeout never fires early, and never file into the bucket that is being
+        // processed since it would then wait a full revolution
+        timeout.deadlineTick =
+                Math.max(currentTick + 1, (deadlineOffsetMs + tickMs - 1) / tickMs);
+        wheel[(int) (timeout.deadlineTick & mask)].add(timeout);
+    }
+
+    private void run() {
+        List<Timeout> expired = new ArrayList<>();
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (pendingCount == 0) {
+                        wait();
+                    }
+                    long sleepMs = TimeUnit.NANOSECONDS
+                            .toMillis(startNanos + TimeUnit.MILLISECONDS.toNanos(
+                                    (currentTick + 1) * tickMs) - System.nanoTime());
+                    if (sleepMs > 0) {
+                        wait(sleepMs);
+                        continue;
+                    }
+                    advance(expired);
+                }
+            } catch (InterruptedException e) {
+                log.error("Alert timing wheel interrupted", e);
+                return;
+            }
+
+            for (Timeout timeout : expired) {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    log.error("Alert task failed", e);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * Processes every tick that has elapsed, collecting the timeouts that are due.
+     */
+    private void advance(List<Timeout> expired) {
+        long nowNanos = System.nanoTime();
+        long elapsedTick = TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos) / tickMs;
+        long expectedWallMs = startWallMs + TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos);
+        long nowWallMs = System.currentTimeMillis();
+        if (Math.abs(nowWallMs - expectedWallMs) > CLOCK_JUMP_TOLERANCE_MS) {
+            log.info("Wall clock moved by {} ms, rescheduling alerts", nowWallMs - expectedWallMs);
+            refileAll(nowWallMs, expired);
+            return;
+        }
+
+        // Every bucket is visited at most once per call, even after a long stall
+        long lastTick = Math.min(elapsedTick, currentTick + wheel.length);
+        while (currentTick < lastTick) {
+            currentTick++;
+            Bucket bucket = wheel[(int) (currentTick & mask)];
+            Timeout timeout = bucket.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadlineTick <= elapsedTick) {
+                    bucket.remove(timeout);
+                    pendingCount--;
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+        currentTick = elapsedTick;
+    }
+
+    /**
+     * Re-files every pending timeout against the current wall clock time, collecting the ones that
+     * are now due.
+     */
+    private void refileAll(long nowWallMs, List<Timeout> expired) {
+        List<Timeout> pending = new ArrayList<>(pendingCount);
+        for (Bucket bucket : wheel) {
+            while (bucket.head != null) {
+                Timeout timeout = bucket.head;
+                bucket.remove(timeout);
+                pending.add(timeout);
+            }
+        }
+        resync();
+        for (Timeout timeout : pending) {
+            if (timeout.deadlineMs <= nowWallMs) {
+                pendingCount--;
+                expired.add(timeout);
+            } else {
+                file(timeout, nowWallMs);
+            }
+        }
+    }
+
+    /**
+     * Makes the current tick correspond to the current time on both clocks.
+     */
+    private void resync() {
+        long nowNanos = System.nanoTime();
+        long nowWallMs = System.currentTimeMillis();
+        long elapsedTick = TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos) / tickMs;
+        if (elapsedTick != currentTick) {
+            // Pending timeouts are filed relative to currentTick, so keep them in place
+            startNanos += TimeUnit.MILLISECONDS.toNanos((elapsedTick - currentTick) * tickMs);
+        }
+        startWallMs = nowWallMs - TimeUnit.NANOSECONDS.toMillis(nowNanos - startNanos);
+    }
+}
@@ -11,10 +11,33 @@ package com.amazon.alexa.avs;
 import com.amazon.alexa.avs.AlertManager.ResultListener;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 public interface AlertsDataStore {
 
     void loadFromDisk(AlertManager manager, ResultListener listener);
 
     void writeToDisk(List<Alert> alerts, ResultListener listener);
+
+    /**
+     * Persists a newly set alert. Stores that can record a single change override this; by default
+     * every alert is written again.
+     *
+     * @param allAlerts
+     *            All alerts, including the new one.
+     */
+    default void add(Alert alert, Supplier<List<Alert>> allAlerts, ResultListener listener) {
+        writeToDisk(allAlerts.get(), listener);
+    }
+
+    /**
+     * Persists the deletion of an alert. Stores that can record a single change override this; by
+     * default every remaining alert is written again.
+     *
+     * @param allAlerts
+     *            All remaining alerts.
+     */
+    default void delete(Alert alert, Supplier<List<Alert>> allAlerts, ResultListener listener) {
+        writeToDisk(allAlerts.get(), listener);
+    }
 }
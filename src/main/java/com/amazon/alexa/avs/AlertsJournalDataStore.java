@@ -0,0 +1,328 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.AlertManager.ResultListener;
+import com.amazon.alexa.avs.config.ObjectMapperFactory;
+
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.codehaus.jackson.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * A journaled data store for AVS Alerts. Each change is appended to a journal as a single line, and
+ * changes that arrive while the journal is being synced are written and synced together, so a burst
+ * of alerts costs one sync. Once the journal grows large it is folded into a snapshot in the same
+ * format as {@link AlertsFileDataStore}, which is replaced atomically. On startup the snapshot is
+ * loaded and the journal replayed on top of it.
+ */
+public class AlertsJournalDataStore implements AlertsDataStore {
+    private static final Logger log = LoggerFactory.getLogger(AlertsJournalDataStore.class);
+    private static final String SNAPSHOT_FILE = "alarms.json";
+    private static final String JOURNAL_FILE = "alarms.journal";
+    private static final int MINUTES_AFTER_PAST_ALERT_EXPIRES = 30;
+    // Number of journal records after which the journal is folded into the snapshot
+    private static final int COMPACTION_THRESHOLD = 256;
+
+    // Journal record prefixes, followed by the alert as JSON or the token of the deleted alert
+    private static final char ADD_RECORD = '+';
+    private static final char DELETE_RECORD = '-';
+
+    private static AlertsJournalDataStore sInstance = new AlertsJournalDataStore();
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final File snapshotFile;
+    private final File journalFile;
+
+    // Changes waiting for the next group commit. Guarded by this.
+    private List<PendingChange> pendingChanges = new ArrayList<>();
+
+    // Accessed only on sExecutor
+    private final Map<String, Alert> alerts = new LinkedHashMap<>();
+    private FileChannel journal;
+    private int journalRecords;
+
+    private static class PendingChange {
+        private final String token;
+        private final Alert alert;
+        private final ResultListener listener;
+
+        PendingChange(String token, Alert alert, ResultListener listener) {
+            this.token = token;
+            this.alert = alert;
+            this.listener = listener;
+        }
+    }
+
+    private AlertsJournalDataStore() {
+        snapshotFile = new File(SNAPSHOT_FILE);
+        journalFile = new File(JOURNAL_FILE);
+    }
+
+    public synchronized static AlertsJournalDataStore getInstance() {
+        return sInstance;
+    }
+
+    @Override
+    public synchronized void loadFromDisk(AlertManager manager, final ResultListener listener) {
+        sExecutor.execute(() -> {
+            try {
+                alerts.clear();
+                readSnapshot();
+                replayJournal();
+
+                List<Alert> droppedAlerts = new LinkedList<Alert>();
+                ZonedDateTime expiry =
+                        ZonedDateTime.now().minusMinutes(MINUTES_AFTER_PAST_ALERT_EXPIRES);
+                for (Alert alert : new ArrayList<>(alerts.values())) {
+                    // Only restore alerts that are within the expiration window. They are
+                    // already in the journal, so they are not written again.
+                    if (alert.getScheduledTime().isAfter(expiry)) {
+                        manager.restore(alert);
+                    } else {
+                        alerts.remove(alert.getToken());
+                        droppedAlerts.add(alert);
+                    }
+                }
+                // Start from a fresh journal that no longer mentions the dropped alerts
+                compact();
+                for (Alert alert : droppedAlerts) {
+                    manager.drop(alert);
+                }
+                listener.onSuccess();
+            } catch (IOException e) {
+                log.error("Failed to load alerts from disk.", e);
+                listener.onFailure();
+            }
+        });
+    }
+
+    @Override
+    public synchronized void writeToDisk(List<Alert> alerts, final ResultListener listener) {
+        List<Alert> snapshot = new ArrayList<>(alerts);
+        sExecutor.execute(() -> {
+            try {
+                // Changes already queued are older than the list we were given
+                commit();
+                this.alerts.clear();
+                for (Alert alert : snapshot) {
+                    this.alerts.put(alert.getToken(), alert);
+                }
+                compact();
+                listener.onSuccess();
+            } catch (IOException e) {
+                log.error("Failed to write to disk", e);
+                listener.onFailure();
+            }
+        });
+    }
+
+    @Override
+    public void add(Alert alert, Supplier<List<Alert>> allAlerts, ResultListener listener) {
+        enqueue(new PendingChange(alert.getToken(), alert, listener));
+    }
+
+    @Override
+    public void delete(Alert alert, Supplier<List<Alert>> allAlerts, ResultListener listener) {
+        enqueue(new PendingChange(alert.getToken(), null, listener));
+    }
+
+    private synchronized void enqueue(PendingChange change) {
+        pendingChanges.add(change);
+        if (pendingChanges.size() == 1) {
+            // Later changes join this commit until it starts writing
+            sExecutor.execute(() -> {
+                try {
+                    commit();
+                } catch (IOException e) {
+                    // Listeners have been notified
+                }
+            });
+        }
+    }
+
+    private synchronized List<PendingChange> takePendingChanges() {
+        List<PendingChange> changes = pendingChanges;
+        pendingChanges = new ArrayList<>();
+        return changes;
+    }
+
+    /**
+     * Appends all pending changes to the journal and syncs it once. Runs on {@link #sExecutor}.
+     */
+    private void commit() throws IOException {
+        List<PendingChange> changes = takePendingChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        try {
+            ObjectWriter writer = ObjectMapperFactory.getObjectWriter();
+            StringBuilder records = new StringBuilder();
+            for (PendingChange change : changes) {
+                if (change.alert != null) {
+                    records.append(ADD_RECORD).append(writer.writeValueAsString(change.alert));
+                } else {
+                    records.append(DELETE_RECORD).append(change.token);
+                }
+                records.append('\n');
+            }
+
+            FileChannel channel = openJournal();
+            ByteBuffer buffer =
+                    ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("Failed to write to disk", e);
+            closeJournal();
+            changes.forEach(change -> change.listener.onFailure());
+            throw e;
+        }
+
+        for (PendingChange change : changes) {
+            apply(change.token, change.alert);
+        }
+        journalRecords += changes.size();
+        log.debug("Committed {} alert changes with one sync", changes.size());
+        changes.forEach(change -> change.listener.onSuccess());
+
+        if (journalRecords >= COMPACTION_THRESHOLD) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // The journal still holds every change, compaction is retried later
+                log.warn("Failed to compact the alert journal", e);
+            }
+        }
+    }
+
+    /**
+     * Writes all alerts to a new snapshot, replaces the old one atomically and empties the
+     * journal. Runs on {@link #sExecutor}.
+     */
+    private void compact() throws IOException {
+        File tmp = new File(SNAPSHOT_FILE + ".tmp");
+        byte[] data = ObjectMapperFactory
+                .getObjectWriter()
+                .writeValueAsBytes(new ArrayList<>(alerts.values()));
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        // Replaying the old journal over the new snapshot is harmless, so a crash here is safe
+        FileChannel channel = openJournal();
+        channel.truncate(0);
+        channel.force(true);
+        journalRecords = 0;
+    }
+
+    private void readSnapshot() throws IOException {
+        ObjectReader reader = ObjectMapperFactory
+                .getObjectReader()
+                .withType(new TypeReference<List<Alert>>() {
+                });
+        try (BufferedReader br = Files.newBufferedReader(snapshotFile.toPath())) {
+            List<Alert> snapshot = reader.readValue(br);
+            for (Alert alert : snapshot) {
+                alerts.put(alert.getToken(), alert);
+            }
+        } catch (NoSuchFileException e) {
+            // This is not a fatal error
+            // The alarm file might not have been created yet
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        ObjectReader reader = ObjectMapperFactory.getObjectReader(Alert.class);
+        int replayed = 0;
+        try (BufferedReader br = Files.newBufferedReader(journalFile.toPath())) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (line.charAt(0) == ADD_RECORD) {
+                        Alert alert = reader.readValue(line.substring(1));
+                        apply(alert.getToken(), alert);
+                    } else if (line.charAt(0) == DELETE_RECORD) {
+                        apply(line.substring(1), null);
+                    }
+                    replayed++;
+                } catch (IOException e) {
+                    // Only the last record can be torn, by a crash while it was being written
+                    log.warn("Skipping unreadable alert journal record", e);
+                }
+            }
+        }
+        log.info("Replayed {} alert journal records", replayed);
+    }
+
+    private void apply(String token, Alert alert) {
+        if (alert != null) {
+            alerts.put(token, alert);
+        } else {
+            alerts.remove(token);
+        }
+    }
+
+    private FileChannel openJournal() throws IOException {
+        if (journal == null) {
+            journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return journal;
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the alert journal", e);
+            }
+            journal = null;
+        }
+    }
+}
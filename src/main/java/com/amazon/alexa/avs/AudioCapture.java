@@ -13,7 +13,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.LineUnavailableException;
@@ -27,20 +26,50 @@ public class AudioCapture {
 
     private static final int BUFFER_SIZE_IN_SECONDS = 6;
 
+    private static final int LEVEL_PUBLISH_INTERVAL_MS = 50;
+
     private final int BUFFER_SIZE_IN_BYTES;
 
+    /*
+     * Always-on capture state. When a pre-roll length is configured the microphone is kept open and
+     * every recording starts with the audio captured just before it was requested.
+     */
+    private final PreRollBuffer preRollBuffer;
+    private final int preRollBytes;
+    private final Object captureLock = new Object();
+    private AlwaysOnCaptureThread alwaysOnThread;
+    private AudioStateOutputStream activeStream; // guarded by captureLock
+
     private static final Logger log = LoggerFactory.getLogger(AudioCapture.class);
 
     public static AudioCapture getAudioHardware(final AudioFormat audioFormat,
             MicrophoneLineFactory microphoneLineFactory) {
+        return getAudioHardware(audioFormat, microphoneLineFactory, 0);
+    }
+
+    /**
+     * @param preRollMilliseconds
+     *            Amount of audio captured before each recording is requested to include in it. If
+     *            positive, the microphone is kept open for the lifetime of the application.
+     */
+    public static AudioCapture getAudioHardware(final AudioFormat audioFormat,
+            MicrophoneLineFactory microphoneLineFactory, int preRollMilliseconds) {
         if (sAudioCapture == null) {
-            sAudioCapture = new AudioCapture(audioFormat, microphoneLineFactory);
+            sAudioCapture =
+                    new AudioCapture(audioFormat, microphoneLineFactory, preRollMilliseconds);
+            if (sAudioCapture.isAlwaysOn()) {
+                try {
+                    sAudioCapture.startAlwaysOnCapture();
+                } catch (LineUnavailableException e) {
+                    log.warn("Could not open the microphone, retrying on the next recording", e);
+                }
+            }
         }
         return sAudioCapture;
     }
 
     private AudioCapture(final AudioFormat audioFormat,
-            MicrophoneLineFactory microphoneLineFactory) {
+            MicrophoneLineFactory microphoneLineFactory, int preRollMilliseconds) {
         super();
         this.audioFormat = audioFormat;
         microphoneLine = microphoneLineFactory.getMicrophone();
@@ -48,23 +77,45 @@ public class AudioCapture {
         BUFFER_SIZE_IN_BYTES =
                 (int) ((audioFormat.getSampleSizeInBits() * audioFormat.getSampleRate()) / 8
                         * BUFFER_SIZE_IN_SECONDS);
+
+        if (preRollMilliseconds > 0) {
+            preRollBuffer = new PreRollBuffer(audioFormat, preRollMilliseconds);
+            preRollBytes = preRollBuffer.getCapacity();
+        } else {
+            preRollBuffer = null;
+            preRollBytes = 0;
+        }
     }
 
     public InputStream getAudioInputStream(final RecordingStateListener stateListener,
             final RecordingRMSListener rmsListener) throws LineUnavailableException, IOException {
+        if (isAlwaysOn()) {
+            return getAlwaysOnAudioInputStream(stateListener, rmsListener);
+        }
+
         try {
             startCapture();
-            PipedInputStream inputStream = new PipedInputStream(BUFFER_SIZE_IN_BYTES);
-            thread = new AudioBufferThread(inputStream, stateListener, rmsListener);
+            AudioRingBuffer ringBuffer = new AudioRingBuffer(BUFFER_SIZE_IN_BYTES);
+            thread = new AudioBufferThread(ringBuffer, stateListener, rmsListener);
             thread.start();
-            return inputStream;
-        } catch (LineUnavailableException | IOException e) {
+            return ringBuffer.getInputStream();
+        } catch (LineUnavailableException e) {
             stopCapture();
             throw e;
         }
     }
 
     public void stopCapture() {
+        if (isAlwaysOn()) {
+            AudioStateOutputStream stream;
+            synchronized (captureLock) {
+                stream = activeStream;
+                activeStream = null;
+            }
+            closeQuietly(stream);
+            return;
+        }
+
         microphoneLine.stop();
         microphoneLine.close();
 
@@ -79,15 +130,59 @@ public class AudioCapture {
         return BUFFER_SIZE_IN_BYTES;
     }
 
+    public boolean isAlwaysOn() {
+        return preRollBuffer != null;
+    }
+
+    private InputStream getAlwaysOnAudioInputStream(RecordingStateListener stateListener,
+            RecordingRMSListener rmsListener) throws LineUnavailableException, IOException {
+        startAlwaysOnCapture();
+
+        AudioRingBuffer ringBuffer = new AudioRingBuffer(BUFFER_SIZE_IN_BYTES + preRollBytes);
+        AudioStateOutputStream stream = new AudioStateOutputStream(ringBuffer, audioFormat,
+                LEVEL_PUBLISH_INTERVAL_MS, stateListener, rmsListener);
+        AudioStateOutputStream previousStream;
+        synchronized (captureLock) {
+            preRollBuffer.copyLatestTo(ringBuffer, preRollBytes);
+            previousStream = activeStream;
+            activeStream = stream;
+        }
+        closeQuietly(previousStream);
+        return ringBuffer.getInputStream();
+    }
+
+    private synchronized void startAlwaysOnCapture() throws LineUnavailableException {
+        if (alwaysOnThread != null && alwaysOnThread.isAlive()) {
+            return;
+        }
+        startCapture();
+        alwaysOnThread = new AlwaysOnCaptureThread();
+        alwaysOnThread.start();
+    }
+
+    private void closeQuietly(AudioStateOutputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.error("Failed to close audio stream ", e);
+        }
+    }
+
     private class AudioBufferThread extends Thread {
 
+        private final AudioRingBuffer ringBuffer;
         private final AudioStateOutputStream audioStateOutputStream;
-
-        public AudioBufferThread(PipedInputStream inputStream,
-                RecordingStateListener recordingStateListener, RecordingRMSListener rmsListener)
-                        throws IOException {
-            audioStateOutputStream =
-                    new AudioStateOutputStream(inputStream, recordingStateListener, rmsListener);
+        private final byte[] data;
+
+        public AudioBufferThread(AudioRingBuffer ringBuffer,
+                RecordingStateListener recordingStateListener, RecordingRMSListener rmsListener) {
+            this.ringBuffer = ringBuffer;
+            audioStateOutputStream = new AudioStateOutputStream(ringBuffer, audioFormat,
+                    LEVEL_PUBLISH_INTERVAL_MS, recordingStateListener, rmsListener);
+            data = new byte[microphoneLine.getBufferSize() / 5];
         }
 
         @Override
@@ -95,11 +190,13 @@ public class AudioCapture {
             while (microphoneLine.isOpen()) {
                 copyAudioBytesFromInputToOutput();
             }
-            closePipedOutputStream();
+            closeAudioStateOutputStream();
+            log.debug("Audio capture finished: {} underruns, {} overruns, {} bytes dropped",
+                    ringBuffer.getUnderrunCount(), ringBuffer.getOverrunCount(),
+                    ringBuffer.getDroppedBytes());
         }
 
         private void copyAudioBytesFromInputToOutput() {
-            byte[] data = new byte[microphoneLine.getBufferSize() / 5];
             int numBytesRead = microphoneLine.read(data, 0, data.length);
             try {
                 audioStateOutputStream.write(data, 0, numBytesRead);
@@ -108,7 +205,7 @@ public class AudioCapture {
             }
         }
 
-        private void closePipedOutputStream() {
+        private void closeAudioStateOutputStream() {
             try {
                 audioStateOutputStream.close();
             } catch (IOException e) {
@@ -117,4 +214,39 @@ public class AudioCapture {
         }
     }
 
+    /**
+     * Reads from the microphone for as long as it is open, keeping the pre-roll history up to date
+     * and forwarding audio to the active recording, if there is one.
+     */
+    private class AlwaysOnCaptureThread extends Thread {
+        private final byte[] data;
+
+        public AlwaysOnCaptureThread() {
+            setName("AlwaysOnCaptureThread");
+            setDaemon(true);
+            data = new byte[microphoneLine.getBufferSize() / 5];
+        }
+
+        @Override
+        public void run() {
+            while (microphoneLine.isOpen()) {
+                int numBytesRead = microphoneLine.read(data, 0, data.length);
+                AudioStateOutputStream failedStream = null;
+                synchronized (captureLock) {
+                    preRollBuffer.write(data, 0, numBytesRead);
+                    if (activeStream != null) {
+                        try {
+                            activeStream.write(data, 0, numBytesRead);
+                        } catch (IOException e) {
+                            failedStream = activeStream;
+                            activeStream = null;
+                        }
+                    }
+                }
+                closeQuietly(failedStream);
+            }
+            stopCapture();
+        }
+    }
+
 }
@@ -0,0 +1,447 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * A size bounded, least recently used cache of decoded MP3 audio on disk. Clips are stored as raw
+ * PCM behind a small header so they can be played straight from a memory mapped file, without
+ * downloading or decoding them again. Clips are either decoded here, or copied by a
+ * {@link ClipWriter} from a stream that is being decoded for playback anyway. The index of cached
+ * clips is kept in memory and rebuilt from the cache directory on startup.
+ */
+public class AudioClipCache {
+    private static final Logger log = LoggerFactory.getLogger(AudioClipCache.class);
+
+    private static final String CLIP_SUFFIX = ".pcm";
+    private static final int CLIP_MAGIC = 0x41565343; // "AVSC"
+    private static final int HEADER_SIZE = 12;
+    private static final int SAMPLE_SIZE_IN_BITS = 16;
+
+    private final File directory;
+    private final long maxBytes;
+    private final ExecutorService decodeExecutor;
+
+    // File name to size in bytes, in least recently used order. Guarded by this.
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * A cached clip, ready to be written to an audio line.
+     */
+    public static class CachedClip {
+        private final AudioFormat format;
+        private final ByteBuffer data;
+
+        CachedClip(AudioFormat format, ByteBuffer data) {
+            this.format = format;
+            this.data = data;
+        }
+
+        public AudioFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * @return A read-only view of the PCM data. Each call returns an independent view.
+         */
+        public ByteBuffer getData() {
+            return data.duplicate();
+        }
+    }
+
+    /**
+     * Copies PCM into the cache as a stream is decoded, and adds it as a clip once it is complete.
+     * Writes are made on the decoding thread, while the clip is added on the cache's own thread.
+     */
+    public class ClipWriter {
+        private final String key;
+        private final File tmp;
+        // Guarded by this. Null once the clip has been committed or aborted.
+        private FileChannel channel;
+        private ByteBuffer pcm;
+        private int sampleRate;
+        private int channels;
+        private boolean failed;
+
+        private ClipWriter(String key, File tmp, FileChannel channel) {
+            this.key = key;
+            this.tmp = tmp;
+            this.channel = channel;
+        }
+
+        /**
+         * Appends decoded samples. A change of format mid stream cannot be cached, so it makes
+         * the writer discard the clip.
+         */
+        public synchronized void write(short[] samples, int length, int sampleRate,
+                int channels) {
+            if (channel == null || failed) {
+                return;
+            }
+            if (this.sampleRate == 0) {
+                this.sampleRate = sampleRate;
+                this.channels = channels;
+            } else if (this.sampleRate != sampleRate || this.channels != channels) {
+                failed = true;
+                return;
+            }
+            if (pcm == null || pcm.capacity() < length * 2) {
+                pcm = ByteBuffer.allocate(length * 2).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            pcm.clear();
+            pcm.asShortBuffer().put(samples, 0, length);
+            pcm.limit(length * 2);
+            try {
+                while (pcm.hasRemaining()) {
+                    channel.write(pcm);
+                }
+            } catch (IOException e) {
+                log.warn("Could not copy audio into the cache", e);
+                failed = true;
+            }
+        }
+
+        /**
+         * Adds the clip to the cache, replacing any clip with the same key. Does not block.
+         */
+        public void commit() {
+            decodeExecutor.execute(() -> finish(true));
+        }
+
+        /**
+         * Discards what has been written. Does not block.
+         */
+        public void abort() {
+            decodeExecutor.execute(() -> finish(false));
+        }
+
+        private void finish(boolean keep) {
+            try {
+                synchronized (this) {
+                    if (channel == null) {
+                        return;
+                    }
+                    try {
+                        if (keep && !failed && sampleRate != 0) {
+                            writeHeader(channel, sampleRate, channels);
+                        } else {
+                            keep = false;
+                        }
+                    } finally {
+                        channel.close();
+                        channel = null;
+                    }
+                }
+                if (keep) {
+                    add(key, tmp);
+                }
+            } catch (IOException e) {
+                log.warn("Could not cache audio {}", key, e);
+            } finally {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * @param directory
+     *            Where to store the clips. Created if it does not exist.
+     * @param maxBytes
+     *            Total size of the clips to keep before evicting the least recently used ones.
+     */
+    public AudioClipCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        decodeExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AudioClipCache");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            log.error("Could not create the audio cache directory {}", directory);
+        }
+        loadIndex();
+    }
+
+    /**
+     * Looks up a clip, counting a hit or a miss.
+     */
+    public synchronized Optional<CachedClip> get(String key) {
+        String fileName = fileName(key);
+        if (index.get(fileName) != null) {
+            File file = new File(directory, fileName);
+            try {
+                CachedClip clip = map(file);
+                hitCount.incrementAndGet();
+                file.setLastModified(System.currentTimeMillis());
+                return Optional.of(clip);
+            } catch (IOException e) {
+                log.warn("Dropping unreadable audio cache entry {}", file, e);
+                remove(fileName);
+            }
+        }
+        missCount.incrementAndGet();
+        return Optional.empty();
+    }
+
+    public synchronized boolean contains(String key) {
+        return index.containsKey(fileName(key));
+    }
+
+    /**
+     * Decodes and caches the given bundled MP3 resources in the background, skipping the ones that
+     * are already cached.
+     */
+    public void preloadAsync(ClassLoader resourceLoader, String... resources) {
+        decodeExecutor.execute(() -> {
+            for (String resource : resources) {
+                if (contains(resource)) {
+                    continue;
+                }
+                try (InputStream inpStream = resourceLoader.getResourceAsStream(resource)) {
+                    if (inpStream == null) {
+                        log.warn("Missing audio resource {}", resource);
+                        continue;
+                    }
+                    put(resource, inpStream);
+                } catch (IOException e) {
+                    log.warn("Could not cache audio resource {}", resource, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes the given MP3 stream and adds it to the cache, evicting the least recently used clips
+     * if the cache grows beyond its limit.
+     */
+    public void put(String key, InputStream mp3) throws IOException {
+        File tmp = File.createTempFile("clip", ".tmp", directory);
+        try {
+            decode(mp3, tmp);
+            add(key, tmp);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Starts copying a stream that is being decoded into the cache.
+     *
+     * @return The writer to copy the decoded PCM to, or empty if the cache cannot be written.
+     */
+    public Optional<ClipWriter> startClip(String key) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("clip", ".tmp", directory);
+            FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+            return Optional.of(new ClipWriter(key, tmp, channel));
+        } catch (IOException e) {
+            log.warn("Could not start caching audio {}", key, e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return Optional.empty();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return totalBytes;
+    }
+
+    private void loadIndex() {
+        // Clips that were still being written when the process stopped
+        File[] partial = directory.listFiles((dir, name) -> name.endsWith(".tmp"));
+        if (partial != null) {
+            for (File file : partial) {
+                file.delete();
+            }
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(CLIP_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        // Oldest first, so the least recently played clips are evicted first
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        synchronized (this) {
+            for (File file : files) {
+                index.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+            evict();
+        }
+        log.info("Audio cache holds {} clips, {} bytes", index.size(), totalBytes);
+    }
+
+    /**
+     * Moves a complete clip file into the cache under the given key.
+     */
+    private void add(String key, File tmp) throws IOException {
+        String fileName = fileName(key);
+        File target = new File(directory, fileName);
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        long size = target.length();
+        synchronized (this) {
+            Long replaced = index.put(fileName, size);
+            totalBytes += size - (replaced == null ? 0 : replaced);
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    private void remove(String fileName) {
+        Long size = index.remove(fileName);
+        if (size != null) {
+            totalBytes -= size;
+            new File(directory, fileName).delete();
+        }
+    }
+
+    private static CachedClip map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != CLIP_MAGIC) {
+                throw new IOException("Not an audio cache file");
+            }
+            int sampleRate = header.getInt();
+            int channels = header.getInt();
+            AudioFormat format =
+                    new AudioFormat(sampleRate, SAMPLE_SIZE_IN_BITS, channels, true, false);
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                    channel.size() - HEADER_SIZE);
+            return new CachedClip(format, data);
+        }
+    }
+
+    private static void decode(InputStream mp3, File target) throws IOException {
+        Bitstream bitstream = new Bitstream(new BufferedInputStream(mp3));
+        Decoder decoder = new Decoder();
+        try (FileChannel channel =
+                FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+            channel.position(HEADER_SIZE);
+
+            ByteBuffer pcm = null;
+            Header frame;
+            while ((frame = bitstream.readFrame()) != null) {
+                SampleBuffer output = (SampleBuffer) decoder.decodeFrame(frame, bitstream);
+                short[] samples = output.getBuffer();
+                int length = output.getBufferLength();
+                if (pcm == null || pcm.capacity() < length * 2) {
+                    pcm = ByteBuffer.allocate(length * 2).order(ByteOrder.LITTLE_ENDIAN);
+                }
+                pcm.clear();
+                pcm.asShortBuffer().put(samples, 0, length);
+                pcm.limit(length * 2);
+                while (pcm.hasRemaining()) {
+                    channel.write(pcm);
+                }
+                bitstream.closeFrame();
+            }
+
+            if (pcm == null) {
+                throw new IOException("No audio frames found");
+            }
+            writeHeader(channel, decoder.getOutputFrequency(), decoder.getOutputChannels());
+        } catch (JavaLayerException e) {
+            throw new IOException("Failed to decode audio", e);
+        } finally {
+            try {
+                bitstream.close();
+            } catch (JavaLayerException e) {
+            }
+            IOUtils.closeQuietly(mp3);
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, int sampleRate, int channels)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CLIP_MAGIC).putInt(sampleRate).putInt(channels).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, HEADER_SIZE - header.remaining());
+        }
+    }
+
+    private static String fileName(String key) {
+        return sha256(key.getBytes(StandardCharsets.UTF_8)) + CLIP_SUFFIX;
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Computes windowed audio levels from 16 bit, mono, little endian PCM chunks and publishes them to
+ * a {@link RecordingRMSListener}. Samples are decoded directly from the byte array and accumulated
+ * in integer sums, so metering a chunk does not allocate. Levels are published once per window
+ * rather than once per chunk.
+ */
+public class AudioLevelMeter {
+    private static final int BYTES_PER_SAMPLE = 2;
+    private static final int FULL_SCALE = 32768;
+    private static final double SILENCE_DBFS = -96.0;
+
+    // The legacy rms value scales |sample| from 1 to 100 against max/2 as values tend to be low
+    private static final double LEGACY_SCALE = 100.0 / (Short.MAX_VALUE / 2.0);
+
+    private final RecordingRMSListener rmsListener;
+    private final int samplesPerWindow;
+
+    private long sumOfSquares;
+    private long sumOfMagnitudes;
+    private int peak;
+    private int sampleCount;
+
+    // low byte of a sample split across two chunks, or -1 if there is none
+    private int pendingLowByte = -1;
+
+    /**
+     * @param audioFormat
+     *            Format of the audio being metered. Only the sample rate is used, samples are
+     *            assumed to be 16 bit, mono, little endian.
+     * @param publishIntervalMs
+     *            Length of the metering window in milliseconds.
+     * @param rmsListener
+     *            Listener to publish levels to.
+     */
+    public AudioLevelMeter(AudioFormat audioFormat, int publishIntervalMs,
+            RecordingRMSListener rmsListener) {
+        if (publishIntervalMs <= 0) {
+            throw new IllegalArgumentException("Publish interval must be positive.");
+        }
+        this.rmsListener = rmsListener;
+        samplesPerWindow =
+                Math.max(1, (int) (audioFormat.getSampleRate() * publishIntervalMs / 1000));
+    }
+
+    /**
+     * Meters a chunk of audio, publishing a level for every window completed by it.
+     */
+    public void process(byte[] data, int off, int len) {
+        if (rmsListener == null || len <= 0) {
+            return;
+        }
+
+        int i = off;
+        int end = off + len;
+
+        if (pendingLowByte >= 0) {
+            accumulate((short) (pendingLowByte | (data[i++] << 8)));
+            pendingLowByte = -1;
+        }
+
+        for (; i + 1 < end; i += BYTES_PER_SAMPLE) {
+            accumulate((short) ((data[i] & 0xff) | (data[i + 1] << 8)));
+        }
+
+        if (i < end) {
+            pendingLowByte = data[i] & 0xff;
+        }
+    }
+
+    /**
+     * Discards any partially filled window.
+     */
+    public void reset() {
+        resetWindow();
+        pendingLowByte = -1;
+    }
+
+    private void resetWindow() {
+        sumOfSquares = 0;
+        sumOfMagnitudes = 0;
+        peak = 0;
+        sampleCount = 0;
+    }
+
+    private void accumulate(int sample) {
+        int magnitude = Math.abs(sample);
+        sumOfSquares += (long) sample * sample;
+        sumOfMagnitudes += magnitude;
+        if (magnitude > peak) {
+            peak = magnitude;
+        }
+
+        if (++sampleCount == samplesPerWindow) {
+            publish();
+            resetWindow();
+        }
+    }
+
+    private void publish() {
+        double meanSquare = (double) sumOfSquares / sampleCount;
+        double meanMagnitude = (double) sumOfMagnitudes / sampleCount;
+
+        // mean of (scale * |x| + 1)^2 expanded so it can be computed from the two running sums
+        double legacyRms = Math.sqrt(LEGACY_SCALE * LEGACY_SCALE * meanSquare
+                + 2 * LEGACY_SCALE * meanMagnitude + 1);
+
+        double rms = Math.sqrt(meanSquare);
+        double dbfs = rms == 0 ? SILENCE_DBFS
+                : Math.max(SILENCE_DBFS, 20 * Math.log10(rms / FULL_SCALE));
+
+        rmsListener.rmsChanged((int) legacyRms);
+        rmsListener.levelChanged((int) rms, peak, dbfs);
+    }
+}
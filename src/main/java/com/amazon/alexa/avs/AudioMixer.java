@@ -0,0 +1,475 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays speech, alerts and earcons through a single audio line that stays open. One thread mixes
+ * every playing {@link MixerSource} into fixed size buffers that are allocated once. Sources of a
+ * lower priority than the highest one playing are ducked, so speech stays clear over an alert.
+ * Media content is played by VLC and is paused during speech as before.
+ */
+public class AudioMixer {
+    private static final Logger log = LoggerFactory.getLogger(AudioMixer.class);
+
+    public static final AudioFormat OUTPUT_FORMAT = new AudioFormat(44100, 16, 2, true, false);
+    // About 12 ms per buffer
+    public static final int FRAMES_PER_BUFFER = 512;
+    // The line holds this many buffers, which bounds the output latency to about 46 ms
+    private static final int LINE_BUFFERS = 4;
+    private static final float DUCKED_GAIN = 0.25f;
+
+    /**
+     * Sources of a higher priority duck the ones below them.
+     */
+    public enum Priority {
+        ALERT,
+        SPEECH,
+        EARCON
+    }
+
+    /**
+     * Where the mixed audio goes.
+     */
+    public interface Sink {
+        void open(AudioFormat format, int bufferSize) throws LineUnavailableException;
+
+        void start();
+
+        /**
+         * Blocks until all the bytes have been accepted.
+         */
+        void write(byte[] data, int offset, int length);
+
+        /**
+         * @return The number of bytes that can be written without blocking.
+         */
+        int available();
+
+        int getBufferSize();
+
+        /**
+         * @return The number of frames played so far.
+         */
+        long getFramePosition();
+
+        void drain();
+
+        void flush();
+
+        void stop();
+    }
+
+    /**
+     * Writes to the default audio output.
+     */
+    public static class LineSink implements Sink {
+        private SourceDataLine line;
+
+        @Override
+        public void open(AudioFormat format, int bufferSize) throws LineUnavailableException {
+            line = AudioSystem.getSourceDataLine(format);
+            line.open(format, bufferSize);
+        }
+
+        @Override
+        public void start() {
+            line.start();
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            line.write(data, offset, length);
+        }
+
+        @Override
+        public int available() {
+            return line.available();
+        }
+
+        @Override
+        public int getBufferSize() {
+            return line.getBufferSize();
+        }
+
+        @Override
+        public long getFramePosition() {
+            return line.getLongFramePosition();
+        }
+
+        @Override
+        public void drain() {
+            line.drain();
+        }
+
+        @Override
+        public void flush() {
+            line.flush();
+        }
+
+        @Override
+        public void stop() {
+            line.stop();
+        }
+    }
+
+    /**
+     * A source being played by the mixer.
+     */
+    public static class Playback {
+        private final MixerSource source;
+        private final Priority priority;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile float gain = 1.0f;
+        private volatile boolean stopped;
+        private volatile long framesMixed;
+        // Frame position of the sink at which the last of the source has been played
+        private long endFrame = -1;
+
+        private Playback(MixerSource source, Priority priority) {
+            this.source = source;
+            this.priority = priority;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public float getGain() {
+            return gain;
+        }
+
+        /**
+         * @param gain
+         *            Multiplies the samples of this source, 1 leaves them unchanged.
+         */
+        public void setGain(float gain) {
+            this.gain = gain;
+        }
+
+        /**
+         * Stops playback. Safe to call from any thread.
+         */
+        public void stop() {
+            stopped = true;
+        }
+
+        /**
+         * Blocks until the source has been played to the end or stopped.
+         */
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * @return How much of the source has been mixed, in milliseconds.
+         */
+        public long getPositionMs() {
+            return (long) (framesMixed * 1000 / OUTPUT_FORMAT.getFrameRate());
+        }
+
+        private void finish() {
+            source.close();
+            done.countDown();
+        }
+    }
+
+    private final Sink sink;
+    private final int channels = OUTPUT_FORMAT.getChannels();
+    private final float[] mix = new float[FRAMES_PER_BUFFER * channels];
+    private final byte[] output = new byte[FRAMES_PER_BUFFER * OUTPUT_FORMAT.getFrameSize()];
+
+    // Guarded by this
+    private final List<Playback> playing = new ArrayList<>();
+    private Thread thread;
+    private boolean shutdown;
+
+    // Only used on the mixer thread
+    private final List<Playback> mixing = new ArrayList<>();
+    private final List<Playback> draining = new ArrayList<>();
+    private boolean sinkOpen;
+    private boolean sinkStarted;
+    private long framesWritten;
+
+    private final AtomicLong underrunCount = new AtomicLong();
+
+    public AudioMixer() {
+        this(new LineSink());
+    }
+
+    public AudioMixer(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Starts playing the source alongside anything already playing.
+     */
+    public synchronized Playback play(MixerSource source, Priority priority) {
+        Playback playback = new Playback(source, priority);
+        if (shutdown) {
+            playback.finish();
+            return playback;
+        }
+        playing.add(playback);
+        if (thread == null) {
+            thread = new Thread(this::run, "AudioMixer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        return playback;
+    }
+
+    /**
+     * Stops every source that is playing.
+     *
+     * @return The number of sources stopped.
+     */
+    public synchronized int stopAll() {
+        int count = 0;
+        for (Playback playback : playing) {
+            if (!playback.isDone() && !playback.stopped) {
+                playback.stop();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops every source and the mixer thread. The line is closed by the mixer thread.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        stopAll();
+        notifyAll();
+    }
+
+    /**
+     * @return The number of times the line ran out of audio while sources were playing.
+     */
+    public long getUnderrunCount() {
+        return underrunCount.get();
+    }
+
+    /**
+     * @return How long audio written now takes to be heard, in milliseconds.
+     */
+    public long getOutputLatencyMs() {
+        if (!sinkOpen) {
+            return 0;
+        }
+        long queuedBytes = sink.getBufferSize() - sink.available();
+        return (long) (queuedBytes / OUTPUT_FORMAT.getFrameSize() * 1000
+                / OUTPUT_FORMAT.getFrameRate());
+    }
+
+    private void run() {
+        try {
+            while (nextBuffer()) {
+                mixBuffer();
+            }
+        } finally {
+            mixing.clear();
+            synchronized (this) {
+                mixing.addAll(playing);
+                playing.clear();
+            }
+            mixing.forEach(Playback::finish);
+            draining.forEach(Playback::finish);
+            if (sinkOpen) {
+                sink.stop();
+            }
+        }
+    }
+
+    /**
+     * Waits until there is something to play, and collects the sources to mix next.
+     *
+     * @return false once the mixer has been shut down.
+     */
+    private boolean nextBuffer() {
+        boolean stopped;
+        boolean empty;
+        synchronized (this) {
+            stopped = removeStopped();
+            empty = playing.isEmpty();
+        }
+        if (empty) {
+            idle(stopped);
+        }
+        synchronized (this) {
+            while (playing.isEmpty() && !shutdown) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            if (shutdown) {
+                return false;
+            }
+            mixing.clear();
+            mixing.addAll(playing);
+        }
+        if (!sinkOpen) {
+            try {
+                sink.open(OUTPUT_FORMAT,
+                        LINE_BUFFERS * FRAMES_PER_BUFFER * OUTPUT_FORMAT.getFrameSize());
+                sinkOpen = true;
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                log.error("An error occurred while opening the audio output", e);
+                synchronized (this) {
+                    playing.removeAll(mixing);
+                }
+                mixing.forEach(Playback::finish);
+                mixing.clear();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called once nothing is left to play. The line is flushed rather than drained if a source was
+     * just stopped, so that it is not heard any longer.
+     */
+    private void idle(boolean stopped) {
+        if (sinkStarted) {
+            if (stopped) {
+                sink.stop();
+                sink.flush();
+                // The flushed frames are never played
+                framesWritten = sink.getFramePosition();
+            } else {
+                if (!draining.isEmpty()) {
+                    sink.drain();
+                }
+                sink.stop();
+            }
+            sinkStarted = false;
+        }
+        draining.forEach(Playback::finish);
+        draining.clear();
+    }
+
+    /**
+     * Called with this held. Stopped sources end at once.
+     *
+     * @return true if any source was stopped.
+     */
+    private boolean removeStopped() {
+        boolean removed = false;
+        for (int i = playing.size() - 1; i >= 0; i--) {
+            Playback playback = playing.get(i);
+            if (playback.stopped) {
+                playing.remove(i);
+                playback.finish();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    private void mixBuffer() {
+        if (mixing.isEmpty()) {
+            return;
+        }
+        Priority highest = Priority.ALERT;
+        for (Playback playback : mixing) {
+            if (playback.priority.compareTo(highest) > 0) {
+                highest = playback.priority;
+            }
+        }
+
+        Arrays.fill(mix, 0);
+        int frames = 0;
+        for (Playback playback : mixing) {
+            float gain = playback.gain;
+            if (playback.priority != highest) {
+                gain *= DUCKED_GAIN;
+            }
+            int mixed;
+            try {
+                mixed = playback.source.mixInto(mix, FRAMES_PER_BUFFER, channels, gain);
+            } catch (RuntimeException e) {
+                log.error("An error occurred while trying to play audio", e);
+                mixed = 0;
+            }
+            playback.framesMixed += mixed;
+            frames = Math.max(frames, mixed);
+            if (mixed < FRAMES_PER_BUFFER) {
+                playback.endFrame = framesWritten + mixed;
+                synchronized (this) {
+                    playing.remove(playback);
+                }
+                draining.add(playback);
+            }
+        }
+        if (frames == 0) {
+            finishPlayed();
+            return;
+        }
+
+        for (int i = 0; i < frames * channels; i++) {
+            int sample = Math.round(mix[i]);
+            if (sample > Short.MAX_VALUE) {
+                sample = Short.MAX_VALUE;
+            } else if (sample < Short.MIN_VALUE) {
+                sample = Short.MIN_VALUE;
+            }
+            output[2 * i] = (byte) sample;
+            output[2 * i + 1] = (byte) (sample >> 8);
+        }
+
+        if (!sinkStarted) {
+            sink.start();
+            sinkStarted = true;
+        } else if (sink.available() >= sink.getBufferSize()) {
+            underrunCount.incrementAndGet();
+            log.debug("Audio output underrun");
+        }
+        sink.write(output, 0, frames * OUTPUT_FORMAT.getFrameSize());
+        framesWritten += frames;
+        finishPlayed();
+    }
+
+    /**
+     * Completes the sources whose last frame the line has played.
+     */
+    private void finishPlayed() {
+        if (draining.isEmpty()) {
+            return;
+        }
+        long position = sink.getFramePosition();
+        for (int i = draining.size() - 1; i >= 0; i--) {
+            Playback playback = draining.get(i);
+            if (position >= playback.endFrame || playback.stopped) {
+                draining.remove(i);
+                playback.finish();
+            }
+        }
+    }
+}
@@ -10,97 +10,199 @@ package com.amazon.alexa.avs;
 
 import com.amazon.alexa.avs.message.response.ProgressReport;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
+/**
+ * Sends the progress report events of a stream when its playback position, rather than the wall
+ * clock, passes the requested delay and each multiple of the requested interval. Time spent
+ * buffering or paused therefore does not count. The position of every active reporter is checked
+ * on one shared timer thread, so any number of streams can be tracked without a thread each.
+ */
 public class AudioPlayerProgressReporter {
-    private final ScheduledExecutorService eventScheduler = Executors.newScheduledThreadPool(1);
+    private static final Logger log = LoggerFactory.getLogger(AudioPlayerProgressReporter.class);
 
-    private ScheduledFuture<?> progressReportDelayFuture;
-    private ScheduledFuture<?> progressReportIntervalFuture;
+    // How often playback positions are checked, which bounds how late an event is sent
+    private static final long TICK_MS = 100;
+
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ProgressReporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final Set<AudioPlayerProgressReporter> ACTIVE = ConcurrentHashMap.newKeySet();
+    // Guarded by ACTIVE
+    private static ScheduledFuture<?> tickFuture;
 
     private final Runnable progressReportDelayRunnable;
     private final Runnable progressReportIntervalRunnable;
+    private final LongSupplier playbackPositionMs;
 
+    // All fields below are guarded by this
     private long progressReportDelay;
     private long progressReportInterval;
+    private boolean delayPending;
+    private long nextIntervalMs;
+    private long lastPositionMs;
 
-    private long activeTimestampMs;
-    private long totalActiveTimeElapsedMs;
-
+    /**
+     * @param playbackPositionMs
+     *            The position in milliseconds of the stream being played. Called from the timer
+     *            thread, so it must not block.
+     */
     public AudioPlayerProgressReporter(Runnable progressReportDelayRunnable,
-            Runnable progressReportIntervalRunnable) {
+            Runnable progressReportIntervalRunnable, LongSupplier playbackPositionMs) {
         this.progressReportDelayRunnable = progressReportDelayRunnable;
         this.progressReportIntervalRunnable = progressReportIntervalRunnable;
+        this.playbackPositionMs = playbackPositionMs;
+    }
+
+    public void start(ProgressReport progressReport) {
+        start(progressReport, 0);
     }
 
-    public synchronized void start(ProgressReport progressReport) {
+    /**
+     * @param startOffsetMs
+     *            Where in the stream playback starts. Events for positions before it are not sent.
+     */
+    public void start(ProgressReport progressReport, long startOffsetMs) {
         if (progressReport == null) {
             throw new IllegalArgumentException("ProgressReport must not be null.");
         }
 
-        progressReportDelay = progressReport.getProgressReportDelayInMilliseconds();
-        progressReportInterval = progressReport.getProgressReportIntervalInMilliseconds();
+        synchronized (this) {
+            progressReportDelay = progressReport.getProgressReportDelayInMilliseconds();
+            progressReportInterval = progressReport.getProgressReportIntervalInMilliseconds();
+            delayPending = progressReportDelay > startOffsetMs;
+            nextIntervalMs = progressReportInterval == 0 ? 0
+                    : (startOffsetMs / progressReportInterval + 1) * progressReportInterval;
+            lastPositionMs = startOffsetMs;
+        }
+        activate();
+    }
 
-        scheduleBothEvents(progressReportDelay, 0, progressReportInterval);
+    public void resume() {
+        boolean pending;
+        synchronized (this) {
+            pending = hasPendingEvents();
+        }
+        if (pending) {
+            activate();
+        }
     }
 
-    public synchronized void resume() {
-        long remainingDelay = Math.max(0, progressReportDelay - totalActiveTimeElapsedMs);
-        long remainingIntervalDelay = progressReportInterval == 0 ? 0
-                : progressReportInterval - totalActiveTimeElapsedMs % progressReportInterval;
-        scheduleBothEvents(remainingDelay, remainingIntervalDelay, progressReportInterval);
+    public void stop() {
+        deactivate();
+        synchronized (this) {
+            delayPending = false;
+            progressReportInterval = 0;
+        }
     }
 
     /**
-     * Schedules both events.
-     *
-     * @param delay
-     *            Delay in ms for the progress report delay event.
-     * @param intervalDelay
-     *            Delay in ms for the progress report interval event.
-     * @param interval
-     *            Period in ms of the progress report interval event.
+     * Nothing is sent while paused. The playback position does not move either, so this only
+     * saves checking it.
      */
-    private void scheduleBothEvents(long delay, long intervalDelay, long interval) {
-        if (delay != 0) {
-            progressReportDelayFuture = eventScheduler.schedule(progressReportDelayRunnable, delay,
-                    TimeUnit.MILLISECONDS);
-        }
+    public void pause() {
+        deactivate();
+    }
 
-        if (interval != 0) {
-            progressReportIntervalFuture = eventScheduler.scheduleAtFixedRate(
-                    progressReportIntervalRunnable, intervalDelay, interval, TimeUnit.MILLISECONDS);
-        }
+    /**
+     * @return The number of reporters whose streams are being tracked.
+     */
+    public static int getActiveCount() {
+        return ACTIVE.size();
+    }
 
-        if (isStarted()) {
-            activeTimestampMs = System.currentTimeMillis();
-        }
+    private boolean hasPendingEvents() {
+        return delayPending || progressReportInterval > 0;
     }
 
-    private boolean isStarted() {
-        return progressReportDelayFuture != null || progressReportIntervalFuture != null;
+    private void activate() {
+        synchronized (ACTIVE) {
+            ACTIVE.add(this);
+            if (tickFuture == null) {
+                tickFuture = SCHEDULER.scheduleAtFixedRate(AudioPlayerProgressReporter::tickAll,
+                        TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
-    public synchronized void stop() {
-        cancelEvents();
-        totalActiveTimeElapsedMs = 0;
+    private void deactivate() {
+        synchronized (ACTIVE) {
+            ACTIVE.remove(this);
+            if (ACTIVE.isEmpty() && tickFuture != null) {
+                tickFuture.cancel(false);
+                tickFuture = null;
+            }
+        }
     }
 
-    public synchronized void pause() {
-        cancelEvents();
-        totalActiveTimeElapsedMs += System.currentTimeMillis() - activeTimestampMs;
+    /**
+     * Stops tracking the stream unless it was restarted in the meantime.
+     */
+    private void deactivateIfDone() {
+        synchronized (ACTIVE) {
+            synchronized (this) {
+                if (hasPendingEvents()) {
+                    return;
+                }
+            }
+            deactivate();
+        }
     }
 
-    private void cancelEvents() {
-        if (progressReportDelayFuture != null && !progressReportDelayFuture.isDone()) {
-            progressReportDelayFuture.cancel(false);
+    private static void tickAll() {
+        for (AudioPlayerProgressReporter reporter : ACTIVE) {
+            try {
+                reporter.tick();
+            } catch (RuntimeException e) {
+                log.error("Failed to report playback progress", e);
+            }
         }
+    }
 
-        if (progressReportIntervalFuture != null && !progressReportIntervalFuture.isDone()) {
-            progressReportIntervalFuture.cancel(false);
+    /**
+     * Sends the events whose position has been reached. The events are sent without holding this,
+     * since sending them may stop or restart the reporter.
+     */
+    private void tick() {
+        boolean sendDelay = false;
+        boolean sendInterval = false;
+        boolean done;
+        synchronized (this) {
+            // The position only moves forward while a stream plays
+            long position = Math.max(lastPositionMs, playbackPositionMs.getAsLong());
+            lastPositionMs = position;
+
+            if (delayPending && position >= progressReportDelay) {
+                delayPending = false;
+                sendDelay = true;
+            }
+            if (progressReportInterval > 0 && position >= nextIntervalMs) {
+                // Skip intervals that were passed at once, such as after a seek
+                nextIntervalMs = (position / progressReportInterval + 1) * progressReportInterval;
+                sendInterval = true;
+            }
+            done = !hasPendingEvents();
+        }
+        if (done) {
+            deactivateIfDone();
+        }
+        if (sendDelay) {
+            progressReportDelayRunnable.run();
+        }
+        if (sendInterval) {
+            progressReportIntervalRunnable.run();
         }
     }
 }
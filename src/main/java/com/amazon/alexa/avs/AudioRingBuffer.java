@@ -0,0 +1,250 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated single-producer/single-consumer byte ring buffer that hands audio from the capture
+ * thread to the thread streaming it to AVS. The producer never blocks: bytes that do not fit are
+ * dropped and counted as an overrun. The consumer reads through {@link #getInputStream()} and is
+ * unparked by the producer as soon as new bytes are published.
+ */
+public class AudioRingBuffer {
+    // upper bound on a single park, in case the consumer is never unparked
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final byte[] buffer;
+    private final int mask;
+
+    // written only by the producer
+    private final AtomicLong writePosition = new AtomicLong();
+    // written only by the consumer
+    private final AtomicLong readPosition = new AtomicLong();
+
+    private volatile boolean closed;
+    private volatile boolean readerClosed;
+    private volatile Thread waitingReader;
+
+    private final AtomicLong overrunCount = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong underrunCount = new AtomicLong();
+
+    private final InputStream inputStream = new RingBufferInputStream();
+
+    /**
+     * @param minimumCapacity
+     *            Minimum number of bytes the buffer can hold. The capacity is rounded up to a power
+     *            of two.
+     */
+    public AudioRingBuffer(int minimumCapacity) {
+        if (minimumCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        int capacity = Integer.highestOneBit(minimumCapacity);
+        if (capacity < minimumCapacity) {
+            capacity <<= 1;
+        }
+        buffer = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Copies as many bytes as fit into the buffer. Must only be called from the producer thread.
+     *
+     * @return The number of bytes written.
+     * @throws IOException
+     *             If the consumer has closed its stream.
+     */
+    public int write(byte[] b, int off, int len) throws IOException {
+        int count = reserve(len);
+        if (count > 0) {
+            long write = writePosition.get();
+            int start = (int) (write & mask);
+            int firstPart = Math.min(count, buffer.length - start);
+            System.arraycopy(b, off, buffer, start, firstPart);
+            System.arraycopy(b, off + firstPart, buffer, 0, count - firstPart);
+            publish(write + count);
+        }
+        return count;
+    }
+
+    /**
+     * Copies as many of the remaining bytes of the given buffer as fit into the ring buffer and
+     * advances its position past them. Must only be called from the producer thread.
+     *
+     * @return The number of bytes written.
+     * @throws IOException
+     *             If the consumer has closed its stream.
+     */
+    public int write(ByteBuffer src) throws IOException {
+        int count = reserve(src.remaining());
+        if (count > 0) {
+            long write = writePosition.get();
+            int start = (int) (write & mask);
+            int firstPart = Math.min(count, buffer.length - start);
+            src.get(buffer, start, firstPart);
+            src.get(buffer, 0, count - firstPart);
+            publish(write + count);
+        }
+        return count;
+    }
+
+    /**
+     * @return How many of the given number of bytes fit in the buffer, counting an overrun if not
+     *         all of them do.
+     */
+    private int reserve(int len) throws IOException {
+        if (readerClosed) {
+            throw new IOException("Audio stream closed by reader");
+        }
+        if (closed) {
+            return 0;
+        }
+
+        int free = buffer.length - (int) (writePosition.get() - readPosition.get());
+        int count = Math.min(len, free);
+        if (count < len) {
+            overrunCount.incrementAndGet();
+            droppedBytes.addAndGet(len - count);
+        }
+        return count;
+    }
+
+    private void publish(long newWritePosition) {
+        writePosition.set(newWritePosition);
+        wakeReader();
+    }
+
+    /**
+     * Marks the end of the stream. The consumer reads the remaining bytes and then sees EOF.
+     */
+    public void close() {
+        closed = true;
+        wakeReader();
+    }
+
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * @return The number of writes that did not fit in the buffer.
+     */
+    public long getOverrunCount() {
+        return overrunCount.get();
+    }
+
+    /**
+     * @return The number of bytes dropped because the buffer was full.
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * @return The number of reads that found the buffer empty and had to wait for the producer.
+     */
+    public long getUnderrunCount() {
+        return underrunCount.get();
+    }
+
+    private void wakeReader() {
+        Thread reader = waitingReader;
+        if (reader != null) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        int available = awaitBytes();
+        if (available == 0) {
+            return -1;
+        }
+
+        long read = readPosition.get();
+        int count = Math.min(len, available);
+        int start = (int) (read & mask);
+        int firstPart = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, b, off, firstPart);
+        System.arraycopy(buffer, 0, b, off + firstPart, count - firstPart);
+        readPosition.set(read + count);
+        return count;
+    }
+
+    /**
+     * Waits until there are bytes to read or the producer has closed the buffer.
+     *
+     * @return The number of readable bytes, or 0 at the end of the stream.
+     */
+    private int awaitBytes() throws InterruptedIOException {
+        int available = available();
+        if (available > 0 || closed) {
+            // closed is written after the last byte, so re-check the position once more
+            return available > 0 ? available : available();
+        }
+
+        underrunCount.incrementAndGet();
+        waitingReader = Thread.currentThread();
+        try {
+            while ((available = available()) == 0 && !closed) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Interrupted while waiting for audio");
+                }
+            }
+        } finally {
+            waitingReader = null;
+        }
+        return available > 0 ? available : available();
+    }
+
+    private class RingBufferInputStream extends InputStream {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return AudioRingBuffer.this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return AudioRingBuffer.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return AudioRingBuffer.this.available();
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            AudioRingBuffer.this.close();
+        }
+    }
+}
@@ -8,41 +8,59 @@
  */
 package com.amazon.alexa.avs;
 
+import com.amazon.alexa.avs.trace.LatencyStage;
+import com.amazon.alexa.avs.trace.LatencyTracer;
+
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.OutputStream;
+
+import javax.sound.sampled.AudioFormat;
 
 /**
- * A PipedOutputStream that call the appropriate listeners when the bytes from the audio source are
- * written and updates decibel values. This output stream should be connected to a input stream with
- * a large buffer to avoid dropping audio bytes while waiting for a connection to AVS
+ * An OutputStream that writes the bytes from the audio source into an {@link AudioRingBuffer}, calls
+ * the appropriate listeners and updates decibel values. The ring buffer should be large enough to
+ * avoid dropping audio bytes while waiting for a connection to AVS
  */
-public class AudioStateOutputStream extends PipedOutputStream {
+public class AudioStateOutputStream extends OutputStream {
+    private final AudioRingBuffer ringBuffer;
+    private final byte[] single = new byte[1];
     private RecordingStateListener stateListener;
     private RecordingRMSListener rmsListener;
+    private final AudioLevelMeter levelMeter;
+    private boolean firstFrameWritten;
 
-    protected AudioStateOutputStream(PipedInputStream inputStream,
-            RecordingStateListener stateListener, final RecordingRMSListener rmsListener)
-                    throws IOException {
-        super(inputStream);
+    protected AudioStateOutputStream(AudioRingBuffer ringBuffer, AudioFormat audioFormat,
+            int levelPublishIntervalMs, RecordingStateListener stateListener,
+            final RecordingRMSListener rmsListener) {
+        this.ringBuffer = ringBuffer;
         this.stateListener = stateListener;
         this.rmsListener = rmsListener;
+        levelMeter = new AudioLevelMeter(audioFormat, levelPublishIntervalMs, rmsListener);
         notifyRecordingStarted();
 
     }
 
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        super.write(b, off, len);
-        calculateDB(b, len);
+        if (!firstFrameWritten && len > 0) {
+            firstFrameWritten = true;
+            LatencyTracer.getInstance().mark(LatencyStage.FIRST_AUDIO_CAPTURED);
+        }
+        ringBuffer.write(b, off, len);
+        levelMeter.process(b, off, len);
     }
 
     @Override
     public void close() throws IOException {
-        super.close();
+        ringBuffer.close();
         notifyRecordingCompleted();
+        levelMeter.reset();
         clearRMS();
     }
 
@@ -64,32 +82,4 @@ public class AudioStateOutputStream extends PipedOutputStream {
         }
     }
 
-    // rmsListener is the AudioRMSListener callback for audio visualizer(optional - can be null)
-    // assuming 16bit samples, 1 channel, little endian
-    private void calculateDB(byte[] data, int cnt) {
-        if ((rmsListener == null) || (cnt < 2)) {
-            return;
-        }
-
-        final int bytesPerSample = 2;
-        int len = cnt / bytesPerSample;
-        double avg = 0;
-
-        for (int i = 0; i < cnt; i += bytesPerSample) {
-            ByteBuffer bb = ByteBuffer.allocate(bytesPerSample);
-            bb.order(ByteOrder.LITTLE_ENDIAN);
-            bb.put(data[i]);
-            bb.put(data[i + 1]);
-            // generate the signed 16 bit number from the 2 bytes
-            double dVal = java.lang.Math.abs(bb.getShort(0));
-            // scale it from 1 to 100. Use max/2 as values tend to be low
-            dVal = ((100 * dVal) / (Short.MAX_VALUE / 2.0)) + 1;
-            avg += dVal * dVal; // add the square to the running average
-        }
-        avg /= len;
-        avg = java.lang.Math.sqrt(avg);
-        // update the AudioRMSListener callback with the scaled root-mean-squared power value
-        rmsListener.rmsChanged((int) avg);
-    }
-
 }
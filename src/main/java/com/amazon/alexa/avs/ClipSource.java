@@ -0,0 +1,59 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.AudioClipCache.CachedClip;
+
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.function.BooleanSupplier;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Plays a {@link CachedClip} from its memory mapped PCM data, optionally over and over without
+ * gaps for alerts.
+ */
+public class ClipSource extends MixerSource {
+    private static final int BLOCK_FRAMES = 1024;
+
+    private final AudioFormat format;
+    private final AudioFormat output;
+    private final ShortBuffer pcm;
+    private final BooleanSupplier loopWhile;
+    private final short[] block;
+
+    /**
+     * @param output
+     *            The format of the mixer the clip is played through.
+     * @param loopWhile
+     *            If not null, the clip is repeated for as long as this holds.
+     */
+    public ClipSource(CachedClip clip, AudioFormat output, BooleanSupplier loopWhile) {
+        this.format = clip.getFormat();
+        this.output = output;
+        this.loopWhile = loopWhile;
+        pcm = clip.getData().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        block = new short[BLOCK_FRAMES * format.getChannels()];
+    }
+
+    @Override
+    protected boolean nextBlock() {
+        if (!pcm.hasRemaining()) {
+            if (loopWhile == null || !loopWhile.getAsBoolean() || pcm.limit() == 0) {
+                return false;
+            }
+            pcm.rewind();
+        }
+        int count = Math.min(block.length, pcm.remaining());
+        pcm.get(block, 0, count);
+        setBlock(block, count, (int) format.getSampleRate(), format.getChannels(), output);
+        return true;
+    }
+}
@@ -4,13 +4,23 @@ import com.amazon.alexa.avs.http.MultipartParser.MultipartParserConsumer;
 import com.amazon.alexa.avs.message.Payload;
 import com.amazon.alexa.avs.message.response.AttachedContentPayload;
 import com.amazon.alexa.avs.message.response.Directive;
+import com.amazon.alexa.avs.trace.LatencyStage;
+import com.amazon.alexa.avs.trace.LatencyTracer;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The DirectiveEnqueuer takes parts parsed from a multipart parser, combines directves with their
@@ -20,8 +30,27 @@ import java.util.Queue;
  * Any directive with the current dialogRequestID is dependent on all the directives with that id
  * which came before it. These directives are added to the dependent directive queue. Any directive
  * with no dialogRequestId is dependent on nothing and is added to the independent directive queue.
+ *
+ * Directives waiting for an attachment and attachments waiting for a directive are both indexed by
+ * content id, so each part is matched in constant time. Attachments arrive as soon as their
+ * headers have been parsed, so a directive is released while its attachment is still downloading.
+ * Attachments that no directive claims are closed after a while on a timer, so they stop
+ * buffering and no longer hold up the parser of their response.
  */
 public class DirectiveEnqueuer implements MultipartParserConsumer {
+    private static final Logger log = LoggerFactory.getLogger(DirectiveEnqueuer.class);
+
+    // How long an attachment may wait for its directive
+    private static final long ORPHAN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    // How many attachments may wait for their directives at once
+    private static final int MAX_ORPHANS = 16;
+
+    private static final ScheduledExecutorService EXPIRY_TIMER =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "OrphanAttachmentExpiry");
+                thread.setDaemon(true);
+                return thread;
+            });
 
     // The authority for the current dialogRequestId.
     private final DialogRequestIdAuthority dialogRequestIdAuthority;
@@ -32,72 +61,110 @@ public class DirectiveEnqueuer implements MultipartParserConsumer {
     // Queue made up of all directives without a dialogRequestId
     private final Queue<Directive> independentQueue;
 
-    // Queue for incomplete directives. A directive is incomplete if it still needs some attached
-    // content to be associated with it.
+    // Queue for incomplete directives, in the order they arrived. A directive is incomplete if it
+    // still needs some attached content to be associated with it, and blocks the ones behind it.
     private final Queue<Directive> incompleteDirectiveQueue;
 
-    // Map of all attachments which have not yet been matched with directives.
-    private final Map<String, InputStream> attachments;
+    // Payloads of incomplete directives, by the content id they are waiting for.
+    private final Map<String, AttachedContentPayload> waitingDirectives;
+
+    // All attachments which have not yet been matched with directives, oldest first.
+    private final LinkedHashMap<String, Orphan> attachments;
+
+    private static class Orphan {
+        private final InputStream content;
+        private final long receivedAt;
+
+        Orphan(InputStream content, long receivedAt) {
+            this.content = content;
+            this.receivedAt = receivedAt;
+        }
+    }
 
     public DirectiveEnqueuer(DialogRequestIdAuthority dialogRequestIdAuthority,
             Queue<Directive> dependentQueue, Queue<Directive> independentQueue) {
         this.dialogRequestIdAuthority = dialogRequestIdAuthority;
         this.dependentQueue = dependentQueue;
         this.independentQueue = independentQueue;
-        incompleteDirectiveQueue = new LinkedList<>();
-        attachments = new HashMap<>();
+        incompleteDirectiveQueue = new ArrayDeque<>();
+        waitingDirectives = new HashMap<>();
+        attachments = new LinkedHashMap<>();
     }
 
     @Override
     public synchronized void onDirective(Directive directive) {
+        Payload payload = directive.getPayload();
+        if (payload instanceof AttachedContentPayload) {
+            AttachedContentPayload attachedContentPayload = (AttachedContentPayload) payload;
+            if (attachedContentPayload.requiresAttachedContent()) {
+                String contentId = attachedContentPayload.getAttachedContentId();
+                Orphan orphan = attachments.remove(contentId);
+                if (orphan != null) {
+                    attachedContentPayload.setAttachedContent(contentId, orphan.content);
+                } else {
+                    waitingDirectives.put(contentId, attachedContentPayload);
+                }
+            }
+        }
         incompleteDirectiveQueue.add(directive);
-        matchAttachementsWithDirectives();
+        findCompleteDirectives();
     }
 
     @Override
     public synchronized void onDirectiveAttachment(String contentId,
             InputStream attachmentContent) {
-        attachments.put(contentId, attachmentContent);
-        matchAttachementsWithDirectives();
+        AttachedContentPayload attachedContentPayload = waitingDirectives.remove(contentId);
+        if (attachedContentPayload != null) {
+            attachedContentPayload.setAttachedContent(contentId, attachmentContent);
+            findCompleteDirectives();
+        } else {
+            expireOrphans(System.currentTimeMillis());
+            Orphan replaced = attachments.put(contentId,
+                    new Orphan(attachmentContent, System.currentTimeMillis()));
+            if (replaced != null) {
+                IOUtils.closeQuietly(replaced.content);
+            }
+            // Expire it even if nothing else arrives
+            EXPIRY_TIMER.schedule(this::onExpiryTimer, ORPHAN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
-    private void matchAttachementsWithDirectives() {
-        for (Directive directive : incompleteDirectiveQueue) {
+    /**
+     * Enqueues the directives at the front of the queue which are complete, stopping at the first
+     * one that still waits for its attachment.
+     */
+    private void findCompleteDirectives() {
+        Directive directive;
+        while ((directive = incompleteDirectiveQueue.peek()) != null) {
             Payload payload = directive.getPayload();
-            if (payload instanceof AttachedContentPayload) {
-                AttachedContentPayload attachedContentPayload = (AttachedContentPayload) payload;
-                String contentId = attachedContentPayload.getAttachedContentId();
-
-                InputStream attachment = attachments.remove(contentId);
-                if (attachment != null) {
-                    attachedContentPayload.setAttachedContent(contentId, attachment);
-                }
+            if (payload instanceof AttachedContentPayload
+                    && ((AttachedContentPayload) payload).requiresAttachedContent()) {
+                break;
             }
+            incompleteDirectiveQueue.remove();
+            enqueueDirective(directive);
         }
+    }
 
-        findCompleteDirectives();
+    private synchronized void onExpiryTimer() {
+        expireOrphans(System.currentTimeMillis());
     }
 
-    private void findCompleteDirectives() {
-        Iterator<Directive> iterator = incompleteDirectiveQueue.iterator();
+    /**
+     * Closes the attachments that have waited too long for their directive, and the oldest ones if
+     * too many are waiting.
+     */
+    private void expireOrphans(long now) {
+        Iterator<Map.Entry<String, Orphan>> iterator = attachments.entrySet().iterator();
         while (iterator.hasNext()) {
-            Directive directive = iterator.next();
-            Payload payload = directive.getPayload();
-            if (payload instanceof AttachedContentPayload) {
-                AttachedContentPayload attachedContentPayload = (AttachedContentPayload) payload;
-
-                if (!attachedContentPayload.requiresAttachedContent()) {
-                    // The front most directive IS complete.
-                    enqueueDirective(directive);
-                    iterator.remove();
-                } else {
-                    break;
-                }
-            } else {
-                // Immediately enqueue any directive which does not contain audio content
-                enqueueDirective(directive);
-                iterator.remove();
+            Map.Entry<String, Orphan> eldest = iterator.next();
+            if (attachments.size() < MAX_ORPHANS
+                    && now - eldest.getValue().receivedAt < ORPHAN_TIMEOUT_MS) {
+                break;
             }
+            log.warn("Dropping attachment {} which no directive refers to", eldest.getKey());
+            IOUtils.closeQuietly(eldest.getValue().content);
+            iterator.remove();
         }
     }
 
@@ -106,6 +173,8 @@ public class DirectiveEnqueuer implements MultipartParserConsumer {
         if (dialogRequestId == null) {
             independentQueue.add(directive);
         } else if (dialogRequestIdAuthority.isCurrentDialogRequestId(dialogRequestId)) {
+            LatencyTracer.getInstance().mark(dialogRequestId,
+                    LatencyStage.FIRST_DIRECTIVE_ENQUEUED);
             dependentQueue.add(directive);
         }
     }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.message.response.Directive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches the directives of one namespace in order, one at a time, on its own thread. Each lane
+ * also keeps track of how long its directives wait to be dispatched and how long they take.
+ */
+public class DirectiveLane {
+    private static final Logger log = LoggerFactory.getLogger(DirectiveLane.class);
+
+    private final String name;
+    private final ExecutorService executor;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong totalDispatchLatencyMs = new AtomicLong();
+    private final AtomicLong maxDispatchLatencyMs = new AtomicLong();
+    private final AtomicLong totalDurationMs = new AtomicLong();
+    private final AtomicLong maxDurationMs = new AtomicLong();
+
+    DirectiveLane(String name) {
+        this.name = name;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DirectiveLane-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a directive behind the ones already in this lane.
+     *
+     * @return Completes once the directive has been dispatched, or could not be.
+     */
+    CompletableFuture<Void> submit(Directive directive, DirectiveDispatcher dispatcher) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        long enqueuedAt = System.currentTimeMillis();
+        queueDepth.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                long startedAt = System.currentTimeMillis();
+                int depth = queueDepth.decrementAndGet();
+                try {
+                    dispatcher.dispatch(directive);
+                } catch (RuntimeException e) {
+                    // Already reported to AVS, keep the lane running for the next directive
+                    log.error("Failed to dispatch {}.{}", directive.getNamespace(),
+                            directive.getName(), e);
+                } finally {
+                    long finishedAt = System.currentTimeMillis();
+                    record(startedAt - enqueuedAt, finishedAt - startedAt);
+                    log.debug("{} directive waited {} ms and took {} ms, {} still queued", name,
+                            startedAt - enqueuedAt, finishedAt - startedAt, depth);
+                    done.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queueDepth.decrementAndGet();
+            log.error("Dropping {} directive, the lane has been shut down", name);
+            done.complete(null);
+        }
+        return done;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void record(long dispatchLatencyMs, long durationMs) {
+        completedCount.incrementAndGet();
+        totalDispatchLatencyMs.addAndGet(dispatchLatencyMs);
+        totalDurationMs.addAndGet(durationMs);
+        maxDispatchLatencyMs.accumulateAndGet(dispatchLatencyMs, Math::max);
+        maxDurationMs.accumulateAndGet(durationMs, Math::max);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of directives waiting for the ones ahead of them in this lane.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * @return The average time, in milliseconds, from queueing a directive to dispatching it.
+     */
+    public long getAverageDispatchLatencyMs() {
+        long count = completedCount.get();
+        return count == 0 ? 0 : totalDispatchLatencyMs.get() / count;
+    }
+
+    public long getMaxDispatchLatencyMs() {
+        return maxDispatchLatencyMs.get();
+    }
+
+    public long getAverageDurationMs() {
+        long count = completedCount.get();
+        return count == 0 ? 0 : totalDurationMs.get() / count;
+    }
+
+    public long getMaxDurationMs() {
+        return maxDurationMs.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%1$s: %2$d queued, %3$d dispatched, latency avg/max %4$d/%5$d ms, "
+                        + "duration avg/max %6$d/%7$d ms",
+                name, getQueueDepth(), getCompletedCount(), getAverageDispatchLatencyMs(),
+                getMaxDispatchLatencyMs(), getAverageDurationMs(), getMaxDurationMs());
+    }
+}
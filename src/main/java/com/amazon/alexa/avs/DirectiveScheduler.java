@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.message.response.Directive;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Spreads directives over one {@link DirectiveLane} per namespace, so that a slow directive only
+ * holds up the directives of its own namespace.
+ *
+ * Directives without a dialogRequestId do not depend on each other, so this returns as soon as
+ * they are queued and the lanes run them concurrently. A directive with a dialogRequestId depends
+ * on the ones from the same dialog that came before it, so this waits until it has been dispatched
+ * before returning and the next one is taken from the dependent queue.
+ */
+public class DirectiveScheduler implements DirectiveDispatcher {
+    private final DirectiveDispatcher dispatcher;
+    private final Map<String, DirectiveLane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * @param dispatcher
+     *            Dispatches each directive on the thread of its lane.
+     */
+    public DirectiveScheduler(DirectiveDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void dispatch(Directive directive) {
+        DirectiveLane lane = lanes.computeIfAbsent(directive.getNamespace(), DirectiveLane::new);
+        if (directive.getDialogRequestId() == null) {
+            lane.submit(directive, dispatcher);
+            return;
+        }
+        try {
+            lane.submit(directive, dispatcher).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Never completed exceptionally
+        }
+    }
+
+    /**
+     * @return The lanes created so far, for monitoring.
+     */
+    public Collection<DirectiveLane> getLanes() {
+        return Collections.unmodifiableCollection(lanes.values());
+    }
+
+    public void shutdown() {
+        lanes.values().forEach(DirectiveLane::shutdown);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import uk.co.caprica.vlcj.component.AudioMediaPlayerComponent;
+import uk.co.caprica.vlcj.player.MediaPlayerEventListener;
+
+/**
+ * A small, fixed set of VLC media players that are reused from one stream to the next. Creating a
+ * player starts a new libvlc instance, which is slow and holds on to native memory, so players are
+ * created on first use and never more than the pool allows.
+ */
+public class MediaPlayerPool {
+    private static final Logger log = LoggerFactory.getLogger(MediaPlayerPool.class);
+
+    private final int maxSize;
+    private final MediaPlayerEventListener listener;
+    private final List<AudioMediaPlayerComponent> players = new ArrayList<>();
+    private final Deque<AudioMediaPlayerComponent> idle = new ArrayDeque<>();
+
+    /**
+     * @param maxSize
+     *            The most players that may exist at once.
+     * @param listener
+     *            Added to every player the pool creates.
+     */
+    public MediaPlayerPool(int maxSize, MediaPlayerEventListener listener) {
+        this.maxSize = maxSize;
+        this.listener = listener;
+    }
+
+    /**
+     * @return An idle player, created if the pool is not full yet.
+     * @throws IllegalStateException
+     *             if every player is in use.
+     */
+    public synchronized AudioMediaPlayerComponent acquire() {
+        AudioMediaPlayerComponent player = idle.poll();
+        if (player != null) {
+            return player;
+        }
+        if (players.size() >= maxSize) {
+            throw new IllegalStateException("All " + maxSize + " media players are in use");
+        }
+        player = new AudioMediaPlayerComponent();
+        player.getMediaPlayer().addMediaPlayerEventListener(listener);
+        players.add(player);
+        log.info("Created media player {} of {}", players.size(), maxSize);
+        return player;
+    }
+
+    /**
+     * Stops the player and makes it available again. Does nothing if it is null or already idle.
+     */
+    public synchronized void release(AudioMediaPlayerComponent player) {
+        if (player == null || idle.contains(player)) {
+            return;
+        }
+        player.getMediaPlayer().stop();
+        idle.push(player);
+    }
+
+    /**
+     * Frees the native resources of every player. The pool must not be used afterwards.
+     */
+    public synchronized void shutdown() {
+        players.forEach(AudioMediaPlayerComponent::release);
+        players.clear();
+        idle.clear();
+    }
+
+    /**
+     * @return The number of players created so far.
+     */
+    public synchronized int getCreatedCount() {
+        return players.size();
+    }
+}
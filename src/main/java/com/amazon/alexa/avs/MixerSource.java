@@ -0,0 +1,114 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Audio that can be played through the {@link AudioMixer}. Subclasses hand over blocks of 16 bit
+ * PCM in whatever sample rate and channel count they have, and this class converts them to the
+ * mixer's output format while adding them to the mix.
+ */
+public abstract class MixerSource {
+    private static final int MAX_OUTPUT_CHANNELS = 2;
+
+    // The block being played, owned by the subclass until the next call to nextBlock
+    private short[] samples;
+    private int blockFrames;
+    private int blockChannels = 1;
+    // The last frame of the previous block, for interpolating across blocks
+    private final float[] previous = new float[MAX_OUTPUT_CHANNELS];
+    // Position in frames of the block; between -1 and 0 it lies between previous and the block
+    private double position;
+    private double step;
+    private boolean ended;
+
+    /**
+     * Called by the mixer thread when the current block has been played. Implementations call
+     * {@link #setBlock} with the next block of audio.
+     *
+     * @return false at the end of the audio.
+     */
+    protected abstract boolean nextBlock();
+
+    /**
+     * Frees any resources held by the source. Called by the mixer thread once it stops playing it.
+     */
+    protected void close() {
+    }
+
+    /**
+     * @param samples
+     *            Interleaved samples. The array is not copied, so it must not be changed until the
+     *            next call to {@link #nextBlock}.
+     * @param sampleCount
+     *            Number of samples in the array to play.
+     */
+    protected final void setBlock(short[] samples, int sampleCount, int sampleRate, int channels,
+            AudioFormat output) {
+        this.samples = samples;
+        blockChannels = channels;
+        blockFrames = sampleCount / channels;
+        step = sampleRate / (double) output.getSampleRate();
+    }
+
+    /**
+     * Adds the next frames of this source to the mix, converted to the output format.
+     *
+     * @param mix
+     *            Interleaved output samples, scaled to the range of a short.
+     * @return The number of frames added, which is less than asked for at the end of the audio.
+     */
+    final int mixInto(float[] mix, int frames, int outputChannels, float gain) {
+        int produced = 0;
+        while (produced < frames) {
+            int index = (int) Math.floor(position);
+            if (index + 1 >= blockFrames && !ended) {
+                if (blockFrames > 0) {
+                    for (int channel = 0; channel < outputChannels; channel++) {
+                        previous[channel] = sample(blockFrames - 1, channel);
+                    }
+                    position -= blockFrames;
+                    blockFrames = 0;
+                }
+                if (!nextBlock()) {
+                    ended = true;
+                }
+                continue;
+            }
+            if (ended) {
+                // The last frame has nothing after it to interpolate towards, so it is held
+                if (position >= 0) {
+                    break;
+                }
+                int offset = produced * outputChannels;
+                for (int channel = 0; channel < outputChannels; channel++) {
+                    mix[offset + channel] += gain * previous[channel];
+                }
+                produced++;
+                position += step;
+                continue;
+            }
+            float fraction = (float) (position - index);
+            int offset = produced * outputChannels;
+            for (int channel = 0; channel < outputChannels; channel++) {
+                float from = index < 0 ? previous[channel] : sample(index, channel);
+                float to = sample(index + 1, channel);
+                mix[offset + channel] += gain * (from + (to - from) * fraction);
+            }
+            produced++;
+            position += step;
+        }
+        return produced;
+    }
+
+    private float sample(int frame, int channel) {
+        return samples[frame * blockChannels + Math.min(channel, blockChannels - 1)];
+    }
+}
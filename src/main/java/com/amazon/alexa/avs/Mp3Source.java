@@ -0,0 +1,284 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Plays an MP3 stream. Frames are decoded ahead of playback on a worker thread into a ring of PCM
+ * frames that are allocated up front, so the mixer thread only hands over decoded PCM and a slow
+ * frame never holds up the audio output. If the ring runs dry, silence is played until the decoder
+ * catches up. The decoded PCM can also be copied into an {@link AudioClipCache}, and is kept only
+ * if the stream is played to its end.
+ */
+public class Mp3Source extends MixerSource {
+    private static final Logger log = LoggerFactory.getLogger(Mp3Source.class);
+
+    // About 0.4 seconds of 44.1 kHz audio, or 0.8 seconds of 22 kHz speech
+    private static final int RING_FRAMES = 16;
+    // An MPEG-1 layer 3 frame holds 1152 samples per channel
+    private static final int MAX_FRAME_SAMPLES = 1152 * 2;
+    private static final short[] SILENCE = new short[AudioMixer.FRAMES_PER_BUFFER];
+
+    private static final ExecutorService DECODE_EXECUTOR =
+            Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "Mp3Decoder");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static final AtomicLong decodedFrameCount = new AtomicLong();
+    private static final AtomicLong decodeNanos = new AtomicLong();
+    private static final AtomicLong maxDecodeNanos = new AtomicLong();
+    private static final AtomicLong underrunCount = new AtomicLong();
+
+    private final InputStream mp3;
+    private final AudioFormat output;
+    private final Runnable onFirstFrame;
+    private final AudioClipCache.ClipWriter copy;
+
+    // The ring, all guarded by this. The slot at readIndex is held by the mixer while it plays it.
+    private final short[][] slots = new short[RING_FRAMES][MAX_FRAME_SAMPLES];
+    private final int[] slotLengths = new int[RING_FRAMES];
+    private final int[] slotRates = new int[RING_FRAMES];
+    private final int[] slotChannels = new int[RING_FRAMES];
+    private int readIndex;
+    private int writeIndex;
+    private int filled;
+    private boolean holding;
+    private boolean started;
+    private boolean decodeDone;
+    // Set when the decoder reached the end of the stream, rather than an error
+    private boolean endOfStream;
+    private boolean closed;
+    private int lowestFill = RING_FRAMES;
+
+    /**
+     * Starts decoding the stream right away.
+     *
+     * @param output
+     *            The format of the mixer the stream is played through.
+     */
+    public Mp3Source(InputStream mp3, AudioFormat output) {
+        this(mp3, output, null);
+    }
+
+    /**
+     * Starts decoding the stream right away.
+     *
+     * @param output
+     *            The format of the mixer the stream is played through.
+     * @param onFirstFrame
+     *            If not null, run on the mixer thread when the first decoded frame is handed to the
+     *            mixer, so it must not block.
+     */
+    public Mp3Source(InputStream mp3, AudioFormat output, Runnable onFirstFrame) {
+        this(mp3, output, onFirstFrame, null);
+    }
+
+    /**
+     * Starts decoding the stream right away.
+     *
+     * @param output
+     *            The format of the mixer the stream is played through.
+     * @param onFirstFrame
+     *            If not null, run on the mixer thread when the first decoded frame is handed to the
+     *            mixer, so it must not block.
+     * @param copy
+     *            If not null, given the decoded PCM, and committed once the whole stream has been
+     *            played or aborted otherwise.
+     */
+    public Mp3Source(InputStream mp3, AudioFormat output, Runnable onFirstFrame,
+            AudioClipCache.ClipWriter copy) {
+        this.mp3 = mp3;
+        this.output = output;
+        this.onFirstFrame = onFirstFrame;
+        this.copy = copy;
+        DECODE_EXECUTOR.execute(this::decode);
+    }
+
+    @Override
+    protected synchronized boolean nextBlock() {
+        if (holding) {
+            holding = false;
+            readIndex = (readIndex + 1) % RING_FRAMES;
+            filled--;
+            notifyAll();
+        }
+        if (filled == 0) {
+            if (decodeDone) {
+                return false;
+            }
+            if (started) {
+                underrunCount.incrementAndGet();
+                log.debug("Decoding fell behind playback");
+            }
+            setBlock(SILENCE, SILENCE.length, (int) output.getSampleRate(), 1, output);
+            return true;
+        }
+        if (!started) {
+            started = true;
+            if (onFirstFrame != null) {
+                onFirstFrame.run();
+            }
+        }
+        lowestFill = Math.min(lowestFill, filled);
+        holding = true;
+        setBlock(slots[readIndex], slotLengths[readIndex], slotRates[readIndex],
+                slotChannels[readIndex], output);
+        return true;
+    }
+
+    @Override
+    protected synchronized void close() {
+        if (copy != null && !closed) {
+            if (endOfStream && filled == 0) {
+                copy.commit();
+            } else {
+                copy.abort();
+            }
+        }
+        closed = true;
+        notifyAll();
+        if (started) {
+            log.debug("Decode ahead ring fell to {} of {} frames", lowestFill, RING_FRAMES);
+        }
+    }
+
+    /**
+     * @return The number of decoded frames waiting to be played.
+     */
+    public synchronized int getRingFillLevel() {
+        return filled;
+    }
+
+    /**
+     * @return The number of MP3 frames decoded so far by all sources.
+     */
+    public static long getDecodedFrameCount() {
+        return decodedFrameCount.get();
+    }
+
+    /**
+     * @return The average time to decode a frame, in microseconds.
+     */
+    public static long getAverageDecodeMicros() {
+        long frames = decodedFrameCount.get();
+        return frames == 0 ? 0 : decodeNanos.get() / frames / 1000;
+    }
+
+    /**
+     * @return The longest time any frame took to decode, in microseconds.
+     */
+    public static long getMaxDecodeMicros() {
+        return maxDecodeNanos.get() / 1000;
+    }
+
+    /**
+     * @return The number of times playback found no decoded frame waiting.
+     */
+    public static long getUnderrunCount() {
+        return underrunCount.get();
+    }
+
+    /**
+     * Runs on a decode thread until the stream ends or the source is closed.
+     */
+    private void decode() {
+        if (mp3 == null) {
+            log.error("No audio to play");
+            finishDecoding();
+            return;
+        }
+        Bitstream bitstream = new Bitstream(new BufferedInputStream(mp3));
+        Decoder decoder = new Decoder();
+        try {
+            while (true) {
+                int slot;
+                synchronized (this) {
+                    while (filled == RING_FRAMES && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        break;
+                    }
+                    slot = writeIndex;
+                }
+
+                long start = System.nanoTime();
+                Header frame = bitstream.readFrame();
+                if (frame == null) {
+                    synchronized (this) {
+                        endOfStream = true;
+                    }
+                    break;
+                }
+                SampleBuffer samples = (SampleBuffer) decoder.decodeFrame(frame, bitstream);
+                bitstream.closeFrame();
+                int length = Math.min(samples.getBufferLength(), MAX_FRAME_SAMPLES);
+                System.arraycopy(samples.getBuffer(), 0, slots[slot], 0, length);
+                recordDecodeTime(System.nanoTime() - start);
+                if (copy != null) {
+                    copy.write(slots[slot], length, samples.getSampleFrequency(),
+                            samples.getChannelCount());
+                }
+
+                synchronized (this) {
+                    slotLengths[slot] = length;
+                    slotRates[slot] = samples.getSampleFrequency();
+                    slotChannels[slot] = samples.getChannelCount();
+                    writeIndex = (writeIndex + 1) % RING_FRAMES;
+                    filled++;
+                }
+            }
+        } catch (JavaLayerException e) {
+            log.error("An error occurred while decoding audio", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finishDecoding();
+            try {
+                bitstream.close();
+            } catch (JavaLayerException e) {
+            }
+        }
+    }
+
+    private synchronized void finishDecoding() {
+        decodeDone = true;
+        IOUtils.closeQuietly(mp3);
+    }
+
+    private static void recordDecodeTime(long nanos) {
+        decodedFrameCount.incrementAndGet();
+        decodeNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxDecodeNanos.get())) {
+            if (maxDecodeNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+}
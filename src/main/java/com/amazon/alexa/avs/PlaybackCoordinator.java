@@ -0,0 +1,131 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs actions once the audio path reaches a given state, such as "no speech is playing" or "the
+ * microphone is idle", without any thread polling for it. Whoever changes that state calls
+ * {@link #signal} afterwards, and the waiting conditions are checked again on a single mailbox
+ * thread. Actions whose condition holds are then run on a separate thread, so that a slow action
+ * does not hold up the others.
+ */
+public class PlaybackCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(PlaybackCoordinator.class);
+
+    private final ExecutorService mailbox;
+    private final ExecutorService actionExecutor;
+    // Only used on the mailbox thread
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    private static class Waiter {
+        private final String name;
+        private final BooleanSupplier condition;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+
+        Waiter(String name, BooleanSupplier condition) {
+            this.name = name;
+            this.condition = condition;
+        }
+    }
+
+    public PlaybackCoordinator() {
+        mailbox = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PlaybackCoordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        actionExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "PlaybackCoordinatorAction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs the action once the condition holds, which may be right away.
+     *
+     * @param name
+     *            What is being waited for, for logging.
+     * @return Completes with the number of nanoseconds spent waiting, once the action has run.
+     */
+    public CompletableFuture<Long> when(String name, BooleanSupplier condition, Runnable action) {
+        Waiter waiter = new Waiter(name, condition);
+        CompletableFuture<Long> done = waiter.future.thenApplyAsync(waitedNanos -> {
+            action.run();
+            return waitedNanos;
+        }, actionExecutor);
+        done.exceptionally(e -> {
+            log.error("Failed to run {}", name, e);
+            return null;
+        });
+        post(() -> {
+            waiters.add(waiter);
+            check();
+        });
+        return done;
+    }
+
+    /**
+     * Tells the coordinator that the state of the audio path may have changed: speech or media
+     * finished, an event was sent, or recording started or stopped.
+     */
+    public void signal() {
+        post(this::check);
+    }
+
+    /**
+     * Drops every waiting action.
+     */
+    public void shutdown() {
+        mailbox.shutdownNow();
+        actionExecutor.shutdownNow();
+    }
+
+    private void post(Runnable task) {
+        try {
+            mailbox.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("Playback coordinator has been shut down");
+        }
+    }
+
+    private void check() {
+        Iterator<Waiter> iterator = waiters.iterator();
+        while (iterator.hasNext()) {
+            Waiter waiter = iterator.next();
+            boolean ready;
+            try {
+                ready = waiter.condition.getAsBoolean();
+            } catch (RuntimeException e) {
+                iterator.remove();
+                waiter.future.completeExceptionally(e);
+                continue;
+            }
+            if (ready) {
+                iterator.remove();
+                long waitedNanos = System.nanoTime() - waiter.startNanos;
+                log.debug("{} ready after {} us", waiter.name, waitedNanos / 1000);
+                waiter.future.complete(waitedNanos);
+            }
+        }
+    }
+}
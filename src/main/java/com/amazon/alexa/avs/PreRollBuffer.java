@@ -0,0 +1,109 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A fixed size, off-heap circular history of the most recently captured PCM audio. It is filled
+ * continuously while the microphone is kept open so that a speech request can start with the
+ * audio captured just before the user triggered it. Instances are not thread safe.
+ */
+public class PreRollBuffer {
+    private final ByteBuffer history;
+    private final ByteBuffer view;
+    private final int frameSize;
+    private long totalBytesWritten;
+
+    /**
+     * @param audioFormat
+     *            Format of the captured audio.
+     * @param lengthMs
+     *            Amount of audio to keep, in milliseconds.
+     */
+    public PreRollBuffer(AudioFormat audioFormat, int lengthMs) {
+        frameSize = audioFormat.getFrameSize();
+        int capacity = millisecondsToBytes(audioFormat, lengthMs);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pre-roll length must be positive.");
+        }
+        history = ByteBuffer.allocateDirect(capacity);
+        view = history.duplicate();
+    }
+
+    /**
+     * @return The number of bytes of audio in the given number of milliseconds, rounded down to a
+     *         whole frame.
+     */
+    public static int millisecondsToBytes(AudioFormat audioFormat, int milliseconds) {
+        int frameSize = audioFormat.getFrameSize();
+        long bytes = (long) (audioFormat.getFrameRate() * milliseconds / 1000) * frameSize;
+        return (int) Math.min(bytes, Integer.MAX_VALUE - frameSize);
+    }
+
+    public int getCapacity() {
+        return history.capacity();
+    }
+
+    /**
+     * Appends audio to the history, overwriting the oldest audio once the buffer is full.
+     */
+    public void write(byte[] data, int off, int len) {
+        int capacity = history.capacity();
+        if (len > capacity) {
+            off += len - capacity;
+            totalBytesWritten += len - capacity;
+            len = capacity;
+        }
+
+        int start = (int) (totalBytesWritten % capacity);
+        int firstPart = Math.min(len, capacity - start);
+        history.position(start);
+        history.put(data, off, firstPart);
+        history.position(0);
+        history.put(data, off + firstPart, len - firstPart);
+        totalBytesWritten += len;
+    }
+
+    /**
+     * Copies the most recent audio, oldest first, into the given ring buffer.
+     *
+     * @param target
+     *            Ring buffer to copy into.
+     * @param maxBytes
+     *            Maximum number of bytes to copy. Rounded down to a whole frame.
+     * @return The number of bytes copied.
+     */
+    public int copyLatestTo(AudioRingBuffer target, int maxBytes) throws IOException {
+        int capacity = history.capacity();
+        int count = (int) Math.min(Math.min(maxBytes, capacity), totalBytesWritten);
+        count -= count % frameSize;
+        if (count <= 0) {
+            return 0;
+        }
+
+        int start = (int) ((totalBytesWritten - count) % capacity);
+        int firstPart = Math.min(count, capacity - start);
+        view.limit(start + firstPart).position(start);
+        target.write(view);
+        view.limit(count - firstPart).position(0);
+        target.write(view);
+        return count;
+    }
+
+    /**
+     * Discards all buffered audio.
+     */
+    public void clear() {
+        totalBytesWritten = 0;
+    }
+}
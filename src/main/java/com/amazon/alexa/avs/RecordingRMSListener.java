@@ -10,4 +10,17 @@ package com.amazon.alexa.avs;
 
 public interface RecordingRMSListener {
     void rmsChanged(int rms);
+
+    /**
+     * Called once per metering window with the unscaled levels of that window.
+     *
+     * @param rms
+     *            Root-mean-squared sample magnitude, from 0 to 32768.
+     * @param peak
+     *            Largest sample magnitude, from 0 to 32768.
+     * @param dbfs
+     *            Root-mean-squared level relative to full scale.
+     */
+    default void levelChanged(int rms, int peak, double dbfs) {
+    }
 }
@@ -13,10 +13,23 @@ import java.io.InputStream;
 public class SpeakItem {
     private final String token;
     private final InputStream audio;
+    private final String dialogRequestId;
+    private final String contentId;
 
     public SpeakItem(String token, InputStream audio) {
+        this(token, audio, null);
+    }
+
+    public SpeakItem(String token, InputStream audio, String dialogRequestId) {
+        this(token, audio, dialogRequestId, null);
+    }
+
+    public SpeakItem(String token, InputStream audio, String dialogRequestId,
+            String contentId) {
         this.token = token;
         this.audio = audio;
+        this.dialogRequestId = dialogRequestId;
+        this.contentId = contentId;
     }
 
     public String getToken() {
@@ -26,4 +39,18 @@ public class SpeakItem {
     public InputStream getAudio() {
         return audio;
     }
+
+    /**
+     * @return The dialogRequestId of the Speak directive, or null if it had none.
+     */
+    public String getDialogRequestId() {
+        return dialogRequestId;
+    }
+
+    /**
+     * @return The Content-ID of the speech attachment, or null if it is not known.
+     */
+    public String getContentId() {
+        return contentId;
+    }
 }
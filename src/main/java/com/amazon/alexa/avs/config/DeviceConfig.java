@@ -31,6 +31,7 @@ public class DeviceConfig {
     public static final String COMPANION_SERVICE = "companionService";
     public static final String PROVISIONING_METHOD = "provisioningMethod";
     public static final String AVS_HOST = "avsHost";
+    public static final String PRE_ROLL_MILLISECONDS = "preRollMilliseconds";
 
     /*
      * Required parameters from the config file.
@@ -45,6 +46,7 @@ public class DeviceConfig {
      */
     private CompanionAppInformation companionAppInfo;
     private CompanionServiceInformation companionServiceInfo;
+    private int preRollMilliseconds;
 
     @SuppressWarnings("javadoc")
     public enum ProvisioningMethod {
@@ -197,6 +199,25 @@ public class DeviceConfig {
         this.companionServiceInfo = companionServiceInfo;
     }
 
+    /**
+     * @return preRollMilliseconds. If positive, the microphone is kept open and each speech request
+     *         starts with this much audio from before the request was made.
+     */
+    public int getPreRollMilliseconds() {
+        return preRollMilliseconds;
+    }
+
+    /**
+     * @param preRollMilliseconds
+     */
+    public void setPreRollMilliseconds(int preRollMilliseconds) {
+        if (preRollMilliseconds < 0) {
+            throw new MalformedConfigException(
+                    PRE_ROLL_MILLISECONDS + " must not be negative in your config file.");
+        }
+        this.preRollMilliseconds = preRollMilliseconds;
+    }
+
     /**
      * Save this file back to disk.
      */
@@ -225,6 +246,10 @@ public class DeviceConfig {
             builder.add(COMPANION_SERVICE, companionServiceInfo.toJson());
         }
 
+        if (preRollMilliseconds > 0) {
+            builder.add(PRE_ROLL_MILLISECONDS, preRollMilliseconds);
+        }
+
         return builder.build();
     }
 
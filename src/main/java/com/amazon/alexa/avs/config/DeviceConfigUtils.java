@@ -110,6 +110,8 @@ public final class DeviceConfigUtils {
 
             DeviceConfig deviceConfig = new DeviceConfig(productId, dsn, provisioningMethod,
                     companionAppInfo, companionServiceInfo, avsHost);
+            deviceConfig.setPreRollMilliseconds(
+                    configObject.getInt(DeviceConfig.PRE_ROLL_MILLISECONDS, 0));
 
             return deviceConfig;
         } catch (FileNotFoundException e) {
@@ -10,7 +10,32 @@ package com.amazon.alexa.avs.exception;
 
 @SuppressWarnings("serial")
 public class AVSException extends Exception {
+    private final int statusCode;
+
     public AVSException(String message) {
+        this(message, -1);
+    }
+
+    /**
+     * @param statusCode
+     *            HTTP status of the response that reported the error.
+     */
+    public AVSException(String message, int statusCode) {
         super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return The HTTP status of the response that reported the error, or -1 if there was none.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return Whether AVS rejected the request itself, so sending it again would fail the same way.
+     */
+    public boolean isClientError() {
+        return statusCode >= 400 && statusCode < 500;
     }
 }
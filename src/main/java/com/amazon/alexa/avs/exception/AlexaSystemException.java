@@ -16,7 +16,11 @@ public class AlexaSystemException extends AVSException {
     private final String code;
 
     public AlexaSystemException(String code, String description) {
-        super(description);
+        this(code, description, -1);
+    }
+
+    public AlexaSystemException(String code, String description, int statusCode) {
+        super(description, statusCode);
         this.code = code;
     }
 
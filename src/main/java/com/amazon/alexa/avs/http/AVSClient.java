@@ -15,6 +15,7 @@ import com.amazon.alexa.avs.config.ObjectMapperFactory;
 import com.amazon.alexa.avs.exception.AVSException;
 import com.amazon.alexa.avs.exception.AVSJsonProcessingException;
 import com.amazon.alexa.avs.exception.AlexaSystemException;
+import com.amazon.alexa.avs.http.ConnectionSupervisor.ConnectionState;
 import com.amazon.alexa.avs.http.MultipartParser.MultipartParserConsumer;
 import com.amazon.alexa.avs.http.jetty.InputStreamResponseListener;
 import com.amazon.alexa.avs.http.jetty.PingSendingHttpClientTransportOverHTTP2;
@@ -46,14 +47,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 
@@ -61,8 +67,18 @@ public class AVSClient implements ConnectionListener {
     private static final Logger log = LoggerFactory.getLogger(AVSClient.class);
 
     private static final int REQUEST_TIMEOUT_IN_S = 10;
+    // Limit on a whole event exchange that does not stream audio
+    private static final long EVENT_TIMEOUT_MS = 30 * 1000;
+    // Limit on how long an event stream may go without sending or receiving anything
+    private static final long EVENT_IDLE_TIMEOUT_MS = 30 * 1000;
     private static final int REQUEST_ATTEMPTS = 3;
     private static final long REQUEST_RETRY_DELAY_MS = 1000;
+    // How long an event stays worth sending, however many times it has to be retried
+    private static final long EVENT_DEADLINE_MS = 60 * 1000;
+    // Maximum number of received but unread bytes per response stream
+    private static final int STREAM_BYTE_BUDGET = 512 * 1024;
+    // How long a playback event is held back in case the next one cancels it out
+    private static final long EVENT_COALESCING_WINDOW_MS = 250;
 
     private static final String EVENTS_ENDPOINT = "/v20160207/events";
     private static final String DIRECTIVES_ENDPOINT = "/v20160207/directives";
@@ -98,8 +114,16 @@ public class AVSClient implements ConnectionListener {
     private String accessToken = "";
     private DownchannelRequestThread downchannelThread;
     private RequestThread requestThread;
-    private MultipartParser requestResponseParser;
+    private final ConcurrentMap<String, RequestLane> requestLanes = new ConcurrentHashMap<>();
+    private final RetryScheduler retryScheduler = new RetryScheduler();
+    private final LaneSender laneSender = new LaneSender();
+    private MultipartParserConsumer multipartParserConsumer;
     private MultipartParser downchannelParser;
+    private final EventCoalescer eventCoalescer =
+            new EventCoalescer(this::enqueueEvent, EVENT_COALESCING_WINDOW_MS);
+    private final ConnectionSupervisor connectionSupervisor = new ConnectionSupervisor();
+    private final OfflineEventQueue offlineEventQueue = new OfflineEventQueue(this::enqueueMetadata,
+            () -> connectionSupervisor.getState() == ConnectionState.CONNECTED);
     private HTTP2Client http2Client;
     private ParsingFailedHandler parsingFailedHandler;
 
@@ -123,14 +147,23 @@ public class AVSClient implements ConnectionListener {
             SslContextFactory sslContextFactory, ParsingFailedHandler parsingFailedHandler)
                     throws Exception {
         http2Client = new HTTP2Client();
+        // Flow control keeps the server from sending more than a stream's budget ahead of reads
+        http2Client.setInitialStreamRecvWindow(STREAM_BYTE_BUDGET);
 
         this.host = host;
         this.sslContextFactory = sslContextFactory;
 
-        requestResponseParser = new MultipartParser(multipartParserConsumer);
+        this.multipartParserConsumer = multipartParserConsumer;
         downchannelParser = new MultipartParser(multipartParserConsumer);
 
         this.parsingFailedHandler = parsingFailedHandler;
+        connectionSupervisor.setReconnectAction(() -> {
+            DownchannelRequestThread thread = downchannelThread;
+            if (thread != null) {
+                thread.reconnectNow();
+            }
+        });
+        connectionSupervisor.setConnectedAction(offlineEventQueue::onConnected);
 
         createNewHttpClient();
 
@@ -148,8 +181,8 @@ public class AVSClient implements ConnectionListener {
         }
 
         // Sets up an HttpClient that sends HTTP/1.1 requests over an HTTP/2 transport
-        httpClient = new HttpClient(new PingSendingHttpClientTransportOverHTTP2(http2Client, this),
-                sslContextFactory);
+        httpClient = new HttpClient(new PingSendingHttpClientTransportOverHTTP2(http2Client, this,
+                connectionSupervisor), sslContextFactory);
         httpClient.addLifeCycleListener(new Listener() {
 
             @Override
@@ -185,17 +218,28 @@ public class AVSClient implements ConnectionListener {
         httpClient.start();
     }
 
-    private Request createRequest(Resource resource, ContentProvider content) throws Exception {
-        if (!httpClient.isStarted()) {
-            log.error("HttpClient is stopped when it should be started");
-            createNewHttpClient();
+    private Request createRequest(AVSRequest avsRequest) throws Exception {
+        synchronized (this) {
+            if (!httpClient.isStarted()) {
+                log.error("HttpClient is stopped when it should be started");
+                createNewHttpClient();
+            }
         }
+        Resource resource = avsRequest.getResource();
         Request request = httpClient
                 .newRequest(host.toString() + resource.getPath())
                 .method(resource.getMethod());
 
-        if (content != null) {
-            request = request.content(content);
+        if (avsRequest.getContentProvider() != null) {
+            request = request.content(avsRequest.getContentProvider());
+        }
+
+        // The downchannel stays open indefinitely, so only events are held to a deadline
+        if (resource == Resource.EVENTS) {
+            request = request.idleTimeout(EVENT_IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        if (avsRequest.getTimeoutMs() > 0) {
+            request = request.timeout(avsRequest.getTimeoutMs(), TimeUnit.MILLISECONDS);
         }
 
         return request;
@@ -207,10 +251,13 @@ public class AVSClient implements ConnectionListener {
      * @param request
      */
     private void doRequest(AVSRequest avsRequest) {
+        if (avsRequest.getResource() == Resource.EVENTS) {
+            connectionSupervisor.onActivity();
+        }
         Callable<Void> task = new Callable<Void>() {
             @Override
             public Void call() throws Exception {
-                Request request = createRequest(avsRequest.getResource(), avsRequest.getContentProvider());
+                Request request = createRequest(avsRequest);
                 doRequestActual(request, avsRequest.getMultipartParser());
                 return null;
             }
@@ -218,16 +265,73 @@ public class AVSClient implements ConnectionListener {
 
         try {
             avsRequest.getRetryPolicy().tryCall(task, RequestException.class);
-        } catch (MultipartStream.MalformedStreamException e) {
+        } catch (Exception e) {
+            onRequestFailed(avsRequest, e);
+        } finally {
+            releaseContent(avsRequest);
+        }
+    }
+
+    /**
+     * Sends the requests of the lanes. Retries are left to the {@link RetryScheduler}, so the
+     * lanes' threads never sleep.
+     */
+    private class LaneSender implements RequestLane.Sender {
+        @Override
+        public long send(AVSRequest avsRequest, int attempt) {
+            if (avsRequest.getResource() == Resource.EVENTS) {
+                connectionSupervisor.onActivity();
+            }
+            try {
+                doRequestActual(createRequest(avsRequest), avsRequest.getMultipartParser());
+                retryScheduler.onSuccess();
+            } catch (RequestException e) {
+                long retryDelayMs = retryScheduler.onFailure(avsRequest, attempt);
+                if (retryDelayMs >= 0) {
+                    log.warn("Attempt {} at sending the request failed: {}", attempt,
+                            e.getMessage());
+                    return retryDelayMs;
+                }
+                onRequestFailed(avsRequest, e);
+            } catch (Exception e) {
+                onRequestFailed(avsRequest, e);
+            }
+            finish(avsRequest);
+            return -1;
+        }
+
+        @Override
+        public void drop(AVSRequest avsRequest, Exception cause) {
+            avsRequest.getRequestListener().ifPresent(l -> l.onRequestError(cause));
+            finish(avsRequest);
+        }
+
+        private void finish(AVSRequest avsRequest) {
+            releaseContent(avsRequest);
+            avsRequest.getRequestListener().ifPresent(l -> l.onRequestSuccess());
+        }
+    }
+
+    private void onRequestFailed(AVSRequest avsRequest, Exception e) {
+        if (e instanceof MultipartStream.MalformedStreamException) {
             if (!e.getMessage().equals("Stream ended unexpectedly")) {
                 log.error("Malformed stream exception", e);
             }
-        } catch (Exception e) {
+        } else {
             log.error("There was a problem with the request.", e);
             avsRequest.getRequestListener().ifPresent(l -> l.onRequestError(e));
         }
     }
 
+    /**
+     * No more attempts will be made, so any content kept around for them can go.
+     */
+    private static void releaseContent(AVSRequest avsRequest) {
+        if (avsRequest.getContentProvider() instanceof Closeable) {
+            IOUtils.closeQuietly((Closeable) avsRequest.getContentProvider());
+        }
+    }
+
     /**
      * Execute the actual request to the server, wait for the response, and handle it.
      *
@@ -245,20 +349,16 @@ public class AVSClient implements ConnectionListener {
             throws AVSException, IOException {
         request.header(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
 
-        InputStreamResponseListener responseListener = new InputStreamResponseListener();
+        InputStreamResponseListener responseListener =
+                new InputStreamResponseListener(STREAM_BYTE_BUDGET);
         Response response;
         InputStream inputStream;
 
         try {
-            // We have a request queue that maintains correct sequencing of events to appease the
-            // server needing no events to happen in parallel. However, Downchannel requests don't
-            // happen on that queue, they happen separately. By synchronizing here we can ensure
-            // that no requests on the request queue will happen in parallel with the downchannel
-            // requests.
-            synchronized (this) {
-                request.send(responseListener);
-                response = responseListener.get(REQUEST_TIMEOUT_IN_S, TimeUnit.SECONDS);
-            }
+            // Each request is its own stream on the shared HTTP/2 connection, so requests from
+            // different lanes and the downchannel are multiplexed rather than sent one by one.
+            request.send(responseListener);
+            response = responseListener.get(REQUEST_TIMEOUT_IN_S, TimeUnit.SECONDS);
             inputStream = responseListener.getInputStream();
         } catch (Exception e) {
             throw new RequestException(e);
@@ -281,10 +381,14 @@ public class AVSClient implements ConnectionListener {
             if (!boundary.isPresent()) {
                 // This code assumes that System.Exception is only sent as a non-multipart response
                 // This should throw an exception
-                parseException(inputStream, multipartParser);
+                parseException(inputStream, multipartParser, statusCode);
 
                 // If the above doesn't throw the expected exception,
                 // throw this exception instead
+                if (statusCode >= HttpStatus.BAD_REQUEST_400) {
+                    throw new AVSException("Request failed with status " + statusCode,
+                            statusCode);
+                }
                 throw new MalformedStreamException(
                         "A boundary is missing from the response headers. "
                                 + "Unable to parse multipart stream.");
@@ -302,16 +406,18 @@ public class AVSClient implements ConnectionListener {
     /**
      * Parses an exception in the given byte array
      *
+     * @param statusCode
+     *            HTTP status of the response, kept in the thrown exception.
      * @throws AlexaSystemException
      *             Special case when the server message is itself an Exception.
      */
-    public void parseException(InputStream inputStream, MessageParser parser)
+    public void parseException(InputStream inputStream, MessageParser parser, int statusCode)
             throws IOException, AlexaSystemException {
         ByteArrayOutputStream data = new ByteArrayOutputStream();
         IOUtils.copy(inputStream, data);
         Message message = parser.parseServerMessage(data.toByteArray());
         if (message instanceof AlexaExceptionResponse) {
-            ((AlexaExceptionResponse) message).throwException();
+            ((AlexaExceptionResponse) message).throwException(statusCode);
         }
     }
 
@@ -339,11 +445,39 @@ public class AVSClient implements ConnectionListener {
      */
     public void sendEvent(RequestBody body, RequestListener listener)
             throws JsonGenerationException, JsonMappingException, IOException {
+        eventCoalescer.submit(body, listener);
+    }
+
+    private void enqueueEvent(RequestBody body, RequestListener listener)
+            throws JsonGenerationException, JsonMappingException, IOException {
+        if (OfflineEventQueue.isDurable(body)) {
+            offlineEventQueue.add(body, listener);
+            return;
+        }
         MultipartContentProvider multipartContent = new MultipartContentProvider();
         multipartContent.addPart(METADATA_NAME, createMetadataContent(body));
 
-        enqueueRequest(
-                new AVSRequest(Resource.EVENTS, multipartContent, new LinearRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS), requestResponseParser, listener));
+        enqueueRequest(new AVSRequest(Resource.EVENTS, multipartContent,
+                new LinearRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS),
+                new MultipartParser(multipartParserConsumer), listener, getLane(body),
+                EVENT_TIMEOUT_MS, AVSRequest.Priority.NORMAL,
+                System.currentTimeMillis() + EVENT_DEADLINE_MS));
+    }
+
+    /**
+     * Sends an event stored by the {@link OfflineEventQueue}.
+     */
+    private void enqueueMetadata(String namespace, String metadata, RequestListener listener) {
+        log.info("Request metadata: \n{}", metadata);
+        MultipartContentProvider multipartContent = new MultipartContentProvider();
+        multipartContent.addPart(METADATA_NAME,
+                new StringContentProvider(ContentTypes.JSON, metadata, StandardCharsets.UTF_8));
+
+        enqueueRequest(new AVSRequest(Resource.EVENTS, multipartContent,
+                new LinearRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS),
+                new MultipartParser(multipartParserConsumer), listener, namespace,
+                EVENT_TIMEOUT_MS, AVSRequest.Priority.NORMAL,
+                System.currentTimeMillis() + EVENT_DEADLINE_MS));
     }
 
     /**
@@ -368,8 +502,13 @@ public class AVSClient implements ConnectionListener {
         multipartContent.addPart(METADATA_NAME, createMetadataContent(body));
         multipartContent.addPart(AUDIO_NAME, cachableContent);
 
-        enqueueRequest(
-                new AVSRequest(Resource.EVENTS, multipartContent, new LinearRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS), requestResponseParser, listener));
+        // Audio is streamed for as long as the user speaks, so only the idle timeout applies.
+        // The user is waiting on this one, so it is sent even while the circuit breaker holds
+        // back other requests.
+        enqueueRequest(new AVSRequest(Resource.EVENTS, multipartContent,
+                new LinearRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS),
+                new MultipartParser(multipartParserConsumer), listener, getLane(body), 0,
+                AVSRequest.Priority.HIGH, 0));
     }
 
     private StringContentProvider createMetadataContent(RequestBody body)
@@ -383,6 +522,15 @@ public class AVSClient implements ConnectionListener {
         return metadataContent;
     }
 
+    /**
+     * Events of the same namespace have to reach AVS in the order they happened, for example the
+     * PlaybackStarted, ProgressReport and PlaybackFinished events of a stream. Events of different
+     * namespaces do not depend on each other.
+     */
+    private static String getLane(RequestBody body) {
+        return body.getEvent().getNamespace();
+    }
+
     private void enqueueRequest(AVSRequest request) {
         if (!requestQueue.offer(request)) {
             log.error("Failed to enqueue request");
@@ -417,6 +565,56 @@ public class AVSClient implements ConnectionListener {
         startDownchannelThread();
     }
 
+    /**
+     * @return The number of events sent, not counting speech recognition events.
+     */
+    public long getSentEventCount() {
+        return eventCoalescer.getSentCount();
+    }
+
+    /**
+     * @return The number of playback events dropped because a later event cancelled them out.
+     */
+    public long getSuppressedEventCount() {
+        return eventCoalescer.getSuppressedCount();
+    }
+
+    /**
+     * @return The queue depth and latency metrics of every lane that has been used so far.
+     */
+    public List<RequestLane> getRequestLanes() {
+        return new ArrayList<>(requestLanes.values());
+    }
+
+    /**
+     * @return The metrics of the events kept until they are delivered.
+     */
+    public OfflineEventQueue getOfflineEventQueue() {
+        return offlineEventQueue;
+    }
+
+    /**
+     * @return The retry, drop and circuit breaker metrics of requests sent from lanes.
+     */
+    public RetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    /**
+     * Checks, without blocking, that the connection to AVS is alive and replaces it if it is not,
+     * so that it is ready for a speech request about to be sent.
+     */
+    public void warmUp() {
+        connectionSupervisor.warmUp();
+    }
+
+    /**
+     * @return The state and metrics of the connection to AVS.
+     */
+    public ConnectionSupervisor getConnectionSupervisor() {
+        return connectionSupervisor;
+    }
+
     void startRequestThread() {
         if (!requestThread.isAlive()) {
             requestThread.start();
@@ -438,6 +636,11 @@ public class AVSClient implements ConnectionListener {
     public void shutdown() {
         try {
             downchannelThread.shutdownGracefully();
+            eventCoalescer.shutdown();
+            requestLanes.values().forEach(RequestLane::shutdown);
+            retryScheduler.shutdown();
+            offlineEventQueue.shutdown();
+            connectionSupervisor.shutdown();
             httpClient.stop();
         } catch (Exception e) {
         }
@@ -448,7 +651,10 @@ public class AVSClient implements ConnectionListener {
      * of directives.
      */
     private class DownchannelRequestThread extends Thread {
-        private boolean running = true;
+        private volatile boolean running = true;
+        // Guarded by this. Set until the next attempt, so a request made before the wait starts
+        // is not lost.
+        private boolean reconnectRequested;
 
         public DownchannelRequestThread() {
             setName(this.getClass().getSimpleName());
@@ -456,7 +662,19 @@ public class AVSClient implements ConnectionListener {
 
         public void shutdownGracefully() {
             downchannelParser.shutdownGracefully();
-            running = false;
+            synchronized (this) {
+                running = false;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Ends the wait before the downchannel is reopened, or skips the next one if the
+         * downchannel is still open.
+         */
+        public synchronized void reconnectNow() {
+            reconnectRequested = true;
+            notifyAll();
         }
 
         @Override
@@ -466,15 +684,51 @@ public class AVSClient implements ConnectionListener {
 
         private void openConnection() {
             while (running) {
+                synchronized (this) {
+                    // This attempt is the one that was asked for
+                    reconnectRequested = false;
+                }
                 log.info("Establishing downchannel");
-                AVSRequest avsRequest =
-                        new AVSRequest(Resource.DIRECTIVES, null, new ExponentialRetryPolicy(REQUEST_RETRY_DELAY_MS, REQUEST_ATTEMPTS), downchannelParser);
+                connectionSupervisor.onDownchannelOpening();
+                long openedAt = System.currentTimeMillis();
+                // A single attempt, the supervisor decides when to try again
+                AVSRequest avsRequest = new AVSRequest(Resource.DIRECTIVES, null,
+                        new ExponentialRetryPolicy(REQUEST_RETRY_DELAY_MS, 1), downchannelParser);
                 doRequest(avsRequest);
                 log.info("Finishing downchannel");
+                if (!running) {
+                    break;
+                }
+
+                long backoffMs = connectionSupervisor
+                        .onDownchannelClosed(System.currentTimeMillis() - openedAt);
+                try {
+                    waitToReconnect(backoffMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Waits out the backoff, unless a reconnect is requested or the thread is shut down first.
+         * Spurious wake-ups do not cut the backoff short.
+         */
+        private synchronized void waitToReconnect(long backoffMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+            while (running && !reconnectRequested) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    break;
+                }
+                wait(remainingMs);
             }
         }
     }
 
+    /**
+     * Takes requests off the queue as soon as they are enqueued and hands them to their lane.
+     */
     private class RequestThread extends Thread {
         private BlockingQueue<AVSRequest> queue;
 
@@ -488,8 +742,10 @@ public class AVSClient implements ConnectionListener {
             while (true) {
                 try {
                     AVSRequest request = queue.take();
-                    doRequest(request);
-                    request.getRequestListener().ifPresent(l -> l.onRequestSuccess());
+                    requestLanes
+                            .computeIfAbsent(request.getLane(),
+                                    name -> new RequestLane(name, retryScheduler))
+                            .submit(request, laneSender);
                 } catch (InterruptedException e) {
                     log.error("Exception in the request thread", e);
                 }
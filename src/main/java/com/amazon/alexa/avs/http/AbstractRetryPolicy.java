@@ -40,6 +40,14 @@ public abstract class AbstractRetryPolicy implements RetryPolicy {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRetryDelay(int failedAttempts) {
+        return failedAttempts < maxAttempts ? getDelay(failedAttempts) : -1;
+    }
+
     /**
      * Get the expected delay in milliseconds.
      *
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * An {@link InputStream} over the body of a multipart attachment that is still being received. The
+ * {@link MultipartParser} appends body bytes as they arrive, and readers block only when they have
+ * caught up with the download. At most a fixed number of unread bytes are held. Beyond that,
+ * appending blocks until the reader catches up or closes the stream. This pushes back through the
+ * parser onto the HTTP/2 flow control window of the response.
+ */
+public class AttachmentInputStream extends InputStream {
+    public static final int DEFAULT_MAX_UNREAD_BYTES = 256 * 1024;
+
+    private static final byte[] EOF = new byte[0];
+
+    private final int maxUnreadBytes;
+
+    // Guarded by this
+    private final Deque<byte[]> chunks = new ArrayDeque<>();
+    private int unreadBytes;
+    private IOException failure;
+    private boolean closed;
+
+    // Only used by the reader. Closing the stream from another thread leaves them alone; the reader
+    // sees the stream is closed the next time it looks for a chunk.
+    private byte[] current;
+    private int index;
+
+    public AttachmentInputStream() {
+        this(DEFAULT_MAX_UNREAD_BYTES);
+    }
+
+    /**
+     * @param maxUnreadBytes
+     *            Number of received bytes to hold for the reader before appending blocks.
+     */
+    public AttachmentInputStream(int maxUnreadBytes) {
+        this.maxUnreadBytes = maxUnreadBytes;
+    }
+
+    /**
+     * Copies the given bytes for the reader, blocking while the reader is too far behind.
+     */
+    synchronized void append(byte[] data, int offset, int length) throws InterruptedIOException {
+        if (length <= 0) {
+            return;
+        }
+        while (!closed && unreadBytes > 0 && unreadBytes + length > maxUnreadBytes) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+        if (!closed) {
+            chunks.add(Arrays.copyOfRange(data, offset, offset + length));
+            unreadBytes += length;
+            notifyAll();
+        }
+    }
+
+    synchronized void complete() {
+        chunks.add(EOF);
+        notifyAll();
+    }
+
+    synchronized void fail(IOException failure) {
+        this.failure = failure;
+        chunks.add(EOF);
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (buffer == null) {
+            throw new NullPointerException();
+        } else if ((offset < 0) || (length < 0) || (length > (buffer.length - offset))) {
+            throw new IndexOutOfBoundsException();
+        } else if (length == 0) {
+            return 0;
+        }
+
+        if (!nextChunk(true)) {
+            return endOfStream();
+        }
+
+        int bytesRead = 0;
+        while (bytesRead < length) {
+            int count = Math.min(length - bytesRead, current.length - index);
+            System.arraycopy(current, index, buffer, offset + bytesRead, count);
+            index += count;
+            bytesRead += count;
+
+            // Only block for the first byte, then return whatever has already arrived
+            if (bytesRead < length && !nextChunk(false)) {
+                break;
+            }
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current == EOF ? 0 : current.length - index;
+    }
+
+    /**
+     * Discards the unread bytes. Anything appended afterwards is dropped without blocking.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        chunks.clear();
+        unreadBytes = 0;
+        notifyAll();
+    }
+
+    /**
+     * Makes sure {@link #current} has unread bytes.
+     *
+     * @param block
+     *            Whether to wait for more bytes to arrive.
+     * @return False at the end of the stream, or if no bytes are available without blocking.
+     */
+    private synchronized boolean nextChunk(boolean block) throws IOException {
+        while (true) {
+            if (closed) {
+                current = EOF;
+                return false;
+            }
+            if (current != null && (current == EOF || index < current.length)) {
+                return current != EOF;
+            }
+            if (chunks.isEmpty()) {
+                if (!block) {
+                    return false;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                continue;
+            }
+            current = chunks.poll();
+            index = 0;
+            unreadBytes -= current.length;
+            // Let the parser append again
+            notifyAll();
+        }
+    }
+
+    private int endOfStream() throws IOException {
+        IOException error;
+        synchronized (this) {
+            error = closed ? null : failure;
+        }
+        if (error != null) {
+            throw error;
+        }
+        return -1;
+    }
+}
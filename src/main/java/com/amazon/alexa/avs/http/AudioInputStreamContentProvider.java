@@ -9,11 +9,14 @@
 package com.amazon.alexa.avs.http;
 
 import com.amazon.alexa.avs.AudioInputFormat;
+import com.amazon.alexa.avs.trace.LatencyStage;
+import com.amazon.alexa.avs.trace.LatencyTracer;
 
 import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.util.InputStreamContentProvider;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A {@link ContentProvider} that streams an InputStream in chunks with size provided by
@@ -21,6 +24,7 @@ import java.io.InputStream;
  */
 public class AudioInputStreamContentProvider extends InputStreamContentProvider implements
         ContentProvider.Typed {
+    private volatile boolean firstByteSent;
 
     public AudioInputStreamContentProvider(AudioInputFormat audioType, InputStream stream) {
         super(stream, audioType.getChunkSizeBytes());
@@ -30,4 +34,13 @@ public class AudioInputStreamContentProvider extends InputStreamContentProvider
     public String getContentType() {
         return ContentTypes.AUDIO;
     }
+
+    @Override
+    protected ByteBuffer onRead(byte[] buffer, int offset, int length) {
+        if (!firstByteSent && length > 0) {
+            firstByteSent = true;
+            LatencyTracer.getInstance().mark(LatencyStage.FIRST_BYTE_SENT);
+        }
+        return super.onRead(buffer, offset, length);
+    }
 }
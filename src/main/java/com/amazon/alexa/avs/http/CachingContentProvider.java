@@ -10,20 +10,35 @@ package com.amazon.alexa.avs.http;
 
 import org.eclipse.jetty.client.api.ContentProvider;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
  * Decorates a {@link ContentProvider} and adds caching behavior to allow for HTTP request retries.
+ * The content is kept in a {@link ReplayBuffer}, so only a bounded amount of it stays in memory.
+ * A retry sends the cached content again and then carries on with the rest of the original content.
+ * Closing the provider releases the cache.
  */
-public class CachingContentProvider implements ContentProvider.Typed {
+public class CachingContentProvider implements ContentProvider.Typed, Closeable {
     private ContentProvider contentProvider;
+    private final ReplayBuffer cache;
     private CachingIterator cachingIterator;
 
     public CachingContentProvider(ContentProvider contentProvider) {
+        this(contentProvider, ReplayBuffer.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget
+     *            Number of bytes of content to keep in memory before spilling to disk.
+     */
+    public CachingContentProvider(ContentProvider contentProvider, long memoryBudget) {
         this.contentProvider = contentProvider;
+        cache = new ReplayBuffer(memoryBudget);
     }
 
     @Override
@@ -32,12 +47,16 @@ public class CachingContentProvider implements ContentProvider.Typed {
     }
 
     @Override
-    public Iterator<ByteBuffer> iterator() {
+    public synchronized Iterator<ByteBuffer> iterator() {
         if (cachingIterator == null) {
-            cachingIterator = new CachingIterator(contentProvider.iterator());
+            cachingIterator = new CachingIterator(contentProvider.iterator(), cache);
             return cachingIterator;
         } else {
-            return cachingIterator.cache.iterator();
+            try {
+                return new ReplayIterator(cache.replay(), cachingIterator);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
         }
     }
 
@@ -49,15 +68,21 @@ public class CachingContentProvider implements ContentProvider.Typed {
         return null;
     }
 
+    @Override
+    public void close() {
+        cache.close();
+    }
+
     /**
-     * Keeps a cache of ByteBuffers that come from the original iterator.
+     * Copies the ByteBuffers that come from the original iterator into the cache.
      */
     public static class CachingIterator implements Iterator<ByteBuffer> {
         private Iterator<ByteBuffer> originalIterator;
-        private List<ByteBuffer> cache = new LinkedList<ByteBuffer>();
+        private ReplayBuffer cache;
 
-        public CachingIterator(Iterator<ByteBuffer> originalIterator) {
+        public CachingIterator(Iterator<ByteBuffer> originalIterator, ReplayBuffer cache) {
             this.originalIterator = originalIterator;
+            this.cache = cache;
         }
 
         @Override
@@ -68,8 +93,35 @@ public class CachingContentProvider implements ContentProvider.Typed {
         @Override
         public ByteBuffer next() {
             ByteBuffer byteBuffer = originalIterator.next();
-            cache.add(byteBuffer.duplicate());
+            try {
+                cache.append(byteBuffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
             return byteBuffer;
         }
     }
+
+    /**
+     * Replays the cached ByteBuffers, then continues with the content not read yet.
+     */
+    private static class ReplayIterator implements Iterator<ByteBuffer> {
+        private final Iterator<ByteBuffer> cached;
+        private final CachingIterator remaining;
+
+        private ReplayIterator(List<ByteBuffer> cached, CachingIterator remaining) {
+            this.cached = cached.iterator();
+            this.remaining = remaining;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cached.hasNext() || remaining.hasNext();
+        }
+
+        @Override
+        public ByteBuffer next() {
+            return cached.hasNext() ? cached.next() : remaining.next();
+        }
+    }
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops background requests from being sent to an endpoint that keeps failing. After a number of
+ * failures in a row the breaker opens, and requests are held back until a cool-down has passed.
+ * Then a single request is let through as a probe: if it succeeds the breaker closes again,
+ * otherwise it opens for twice as long, up to a limit.
+ */
+public class CircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long minOpenMs;
+    private final long maxOpenMs;
+
+    // All fields below are guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMs;
+    private long openUntil;
+    private boolean probing;
+    private long probeStartedAt;
+    private long openCount;
+
+    /**
+     * @param failureThreshold
+     *            Number of failures in a row that open the breaker.
+     * @param minOpenMs
+     *            How long the breaker stays open the first time.
+     * @param maxOpenMs
+     *            The longest the breaker stays open.
+     */
+    public CircuitBreaker(int failureThreshold, long minOpenMs, long maxOpenMs) {
+        this.failureThreshold = failureThreshold;
+        this.minOpenMs = minOpenMs;
+        this.maxOpenMs = maxOpenMs;
+        openMs = minOpenMs;
+    }
+
+    /**
+     * @param urgent
+     *            Requests the user is waiting on are always let through.
+     * @return 0 if the request may be sent now, otherwise how many milliseconds to hold it back.
+     */
+    public synchronized long allowRequest(boolean urgent, long now) {
+        if (state == State.OPEN && now >= openUntil) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (urgent || state == State.CLOSED) {
+            return 0;
+        }
+        // A probe that never reported back, for example because it was dropped, is replaced
+        if (state == State.HALF_OPEN && (!probing || now - probeStartedAt >= maxOpenMs)) {
+            probing = true;
+            probeStartedAt = now;
+            return 0;
+        }
+        // Wait for the probe, or for the cool-down to end
+        return Math.max(openUntil - now, minOpenMs);
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("Requests are succeeding again, closing the circuit breaker");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMs = minOpenMs;
+        probing = false;
+    }
+
+    public synchronized void onFailure(long now) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(openMs * 2, maxOpenMs);
+            open(now);
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open(now);
+        }
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openUntil = now + openMs;
+        probing = false;
+        openCount++;
+        log.warn("{} requests failed in a row, holding back requests for {} ms",
+                consecutiveFailures, openMs);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return The number of times the breaker has opened.
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+}
@@ -0,0 +1,481 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import com.amazon.alexa.avs.http.jetty.PingSendingHttpClientTransportOverHTTP2.SessionListener;
+
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.frames.PingFrame;
+import org.eclipse.jetty.util.Callback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks after the HTTP/2 connection to AVS. It decides how long to wait before reopening the
+ * downchannel, using capped exponential backoff with full jitter so that many devices do not
+ * reconnect in lockstep after an outage.
+ *
+ * It also keeps one PING task per session. PINGs are sent more often while the connection is in
+ * use or slow, and less often as it sits idle, up to the five minutes AVS asks for. A PING that is
+ * not answered in time means the connection is half open, so the session is closed and the
+ * downchannel reconnects before the next voice request would have failed on it.
+ *
+ * When the user starts speaking, {@link #warmUp()} checks the connection with a PING on a short
+ * deadline while the microphone opens. A connection that misses the short deadline is only suspect:
+ * the PING is given the usual deadline before the connection is closed. If it turns out to be dead
+ * it is replaced right away, skipping the backoff, so the handshake overlaps the start of recording
+ * rather than delaying the speech request.
+ */
+public class ConnectionSupervisor implements SessionListener {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionSupervisor.class);
+
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(2);
+    // A downchannel that stayed open this long was healthy, so the backoff starts over
+    private static final long STABLE_CONNECTION_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long MIN_PING_INTERVAL_MS = TimeUnit.SECONDS.toMillis(60);
+    private static final long MAX_PING_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    // Round trip time above which the connection is pinged as if it were in use
+    private static final long SLOW_RTT_MS = 1000;
+    private static final long MIN_PING_TIMEOUT_MS = 5000;
+    private static final long MAX_PING_TIMEOUT_MS = 20000;
+    // Weight of the latest sample in the smoothed round trip time
+    private static final double RTT_SMOOTHING = 0.125;
+    private static final long MIN_WARM_UP_PING_TIMEOUT_MS = 300;
+    private static final long MAX_WARM_UP_PING_TIMEOUT_MS = 1500;
+
+    public enum ConnectionState {
+        DISCONNECTED, CONNECTING, CONNECTED, BACKING_OFF
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private Runnable reconnectAction = () -> {
+    };
+    private Runnable connectedAction = () -> {
+    };
+
+    // All fields below are guarded by this
+    private ConnectionState state = ConnectionState.DISCONNECTED;
+    private long stateSinceMs = System.currentTimeMillis();
+    private int failedAttempts;
+    private Session session;
+    private ScheduledFuture<?> pingTask;
+    private ScheduledFuture<?> pingTimeoutTask;
+    private long outstandingPing;
+    private long lastActivityMs = System.currentTimeMillis();
+    private long smoothedRttMs = -1;
+    private long lastRttMs = -1;
+    private long pingIntervalMs = MIN_PING_INTERVAL_MS;
+    // Set while a warm-up is waiting for a PING reply
+    private boolean warmUpPing;
+    // Set when a warm-up PING missed its short deadline and is waiting out the usual one
+    private boolean suspect;
+    // When a warm-up started replacing the connection, or 0
+    private long warmUpReconnectStartedMs;
+    // When the replacement connection was opened, or 0
+    private long warmUpReconnectOpenedMs;
+
+    private long connectCount;
+    private long disconnectCount;
+    private long halfOpenCount;
+    private long pingsSent;
+    private long pingsAnswered;
+    private long warmUpCount;
+    private long suspectCount;
+    private long warmUpReconnectCount;
+    private long warmUpSavedMs;
+
+    public ConnectionSupervisor() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConnectionSupervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param reconnectAction
+     *            Ends the wait before the downchannel is reopened.
+     */
+    public synchronized void setReconnectAction(Runnable reconnectAction) {
+        this.reconnectAction = reconnectAction;
+    }
+
+    /**
+     * @param connectedAction
+     *            Run, without blocking, whenever a new connection has been opened.
+     */
+    public synchronized void setConnectedAction(Runnable connectedAction) {
+        this.connectedAction = connectedAction;
+    }
+
+    /**
+     * Called before the downchannel is opened.
+     */
+    public synchronized void onDownchannelOpening() {
+        setState(ConnectionState.CONNECTING);
+    }
+
+    /**
+     * Called when the downchannel has closed, for whatever reason.
+     *
+     * @param openMs
+     *            How long the downchannel was open.
+     * @return How long to wait before opening it again, in milliseconds.
+     */
+    public synchronized long onDownchannelClosed(long openMs) {
+        if (openMs >= STABLE_CONNECTION_MS) {
+            failedAttempts = 0;
+        }
+        if (warmUpReconnectStartedMs != 0 && warmUpReconnectOpenedMs == 0) {
+            // Someone is waiting to speak
+            setState(ConnectionState.CONNECTING);
+            return 0;
+        }
+        // Full jitter: anywhere between no wait and the capped exponential backoff
+        long ceiling = Math.min(MAX_BACKOFF_MS,
+                INITIAL_BACKOFF_MS << Math.min(failedAttempts, 20));
+        failedAttempts++;
+        long backoffMs = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        setState(ConnectionState.BACKING_OFF);
+        log.info("Downchannel closed after {} ms, reconnecting in {} ms (attempt {})", openMs,
+                backoffMs, failedAttempts);
+        return backoffMs;
+    }
+
+    /**
+     * Called whenever a request is sent, so the connection is pinged more often while it is in use.
+     */
+    public synchronized void onActivity() {
+        long now = System.currentTimeMillis();
+        if (warmUpReconnectStartedMs != 0) {
+            // The handshake, or the part of it done before this request, was hidden by the warm-up
+            long handshakeDoneMs = warmUpReconnectOpenedMs != 0 ? warmUpReconnectOpenedMs : now;
+            warmUpSavedMs += Math.min(now, handshakeDoneMs) - warmUpReconnectStartedMs;
+            warmUpReconnectStartedMs = 0;
+            warmUpReconnectOpenedMs = 0;
+        }
+        long idleMs = now - lastActivityMs;
+        lastActivityMs = now;
+        // After a long idle spell the next PING may be minutes away, bring it forward
+        if (idleMs > MIN_PING_INTERVAL_MS && session != null && outstandingPing == 0) {
+            schedulePing(MIN_PING_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Sends a PING right away, unless one is already waiting for its reply. Useful before a
+     * request that should not be sent on a dead connection.
+     */
+    public synchronized void pingNow() {
+        if (session != null && outstandingPing == 0) {
+            schedulePing(0);
+        }
+    }
+
+    /**
+     * Makes sure the connection is usable by the time the first audio of a speech request is
+     * ready. Does not block.
+     */
+    public synchronized void warmUp() {
+        warmUpCount++;
+        switch (state) {
+            case CONNECTED:
+                if (suspect) {
+                    // Already waiting out the usual deadline of a missed warm-up PING
+                    break;
+                }
+                warmUpPing = true;
+                // Without a round trip time yet, the first reply gets the longest deadline
+                long timeoutMs = smoothedRttMs < 0 ? MAX_WARM_UP_PING_TIMEOUT_MS
+                        : Math.max(MIN_WARM_UP_PING_TIMEOUT_MS,
+                                Math.min(MAX_WARM_UP_PING_TIMEOUT_MS, 3 * smoothedRttMs));
+                if (outstandingPing == 0) {
+                    schedulePing(0, timeoutMs);
+                } else {
+                    // Hold the PING already in flight to the shorter deadline
+                    schedulePingTimeout(session, outstandingPing, timeoutMs);
+                }
+                break;
+            case DISCONNECTED:
+            case BACKING_OFF:
+                reconnectForWarmUp();
+                break;
+            case CONNECTING:
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public synchronized void onSessionOpened(Session session) {
+        cancelPings();
+        this.session = session;
+        connectCount++;
+        if (warmUpReconnectStartedMs != 0 && warmUpReconnectOpenedMs == 0) {
+            warmUpReconnectOpenedMs = System.currentTimeMillis();
+        }
+        setState(ConnectionState.CONNECTED);
+        schedulePing(nextPingInterval());
+        connectedAction.run();
+    }
+
+    @Override
+    public synchronized void onPingReply(Session session, PingFrame frame) {
+        if (session != this.session || frame.getPayloadAsLong() != outstandingPing) {
+            return;
+        }
+        lastRttMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - outstandingPing);
+        smoothedRttMs = smoothedRttMs < 0 ? lastRttMs
+                : Math.round(smoothedRttMs + RTT_SMOOTHING * (lastRttMs - smoothedRttMs));
+        outstandingPing = 0;
+        warmUpPing = false;
+        suspect = false;
+        pingsAnswered++;
+        if (pingTimeoutTask != null) {
+            pingTimeoutTask.cancel(false);
+            pingTimeoutTask = null;
+        }
+        schedulePing(nextPingInterval());
+    }
+
+    @Override
+    public synchronized void onSessionClosed(Session session) {
+        if (session != this.session) {
+            return;
+        }
+        cancelPings();
+        this.session = null;
+        disconnectCount++;
+        if (state == ConnectionState.CONNECTED) {
+            setState(ConnectionState.DISCONNECTED);
+        }
+    }
+
+    public synchronized void shutdown() {
+        cancelPings();
+        scheduler.shutdownNow();
+    }
+
+    private long nextPingInterval() {
+        long idleMs = System.currentTimeMillis() - lastActivityMs;
+        // Idle connections are pinged less often, the longer they have been idle
+        long interval = Math.max(MIN_PING_INTERVAL_MS, Math.min(MAX_PING_INTERVAL_MS, idleMs / 2));
+        if (smoothedRttMs > SLOW_RTT_MS) {
+            interval = MIN_PING_INTERVAL_MS;
+        }
+        pingIntervalMs = interval;
+        return interval;
+    }
+
+    private long pingTimeout() {
+        return smoothedRttMs < 0 ? MAX_PING_TIMEOUT_MS
+                : Math.max(MIN_PING_TIMEOUT_MS, Math.min(MAX_PING_TIMEOUT_MS, 4 * smoothedRttMs));
+    }
+
+    private void schedulePing(long delayMs) {
+        schedulePing(delayMs, -1);
+    }
+
+    /**
+     * @param timeoutMs
+     *            How long to wait for the reply, or -1 to go by the round trip time.
+     */
+    private void schedulePing(long delayMs, long timeoutMs) {
+        if (pingTask != null) {
+            pingTask.cancel(false);
+        }
+        Session pinged = session;
+        pingTask = scheduler.schedule(() -> sendPing(pinged, timeoutMs), delayMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void sendPing(Session pinged, long timeoutMs) {
+        if (pinged != session || pinged.isClosed()) {
+            return;
+        }
+        long payload = System.nanoTime();
+        outstandingPing = payload;
+        pingsSent++;
+        pinged.ping(new PingFrame(payload, false), Callback.NOOP);
+        schedulePingTimeout(pinged, payload, timeoutMs < 0 ? pingTimeout() : timeoutMs);
+    }
+
+    private void schedulePingTimeout(Session pinged, long payload, long timeoutMs) {
+        if (pingTimeoutTask != null) {
+            pingTimeoutTask.cancel(false);
+        }
+        pingTimeoutTask = scheduler.schedule(() -> onPingTimeout(pinged, payload, timeoutMs),
+                timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onPingTimeout(Session pinged, long payload, long timeoutMs) {
+        if (pinged != session || payload != outstandingPing) {
+            return;
+        }
+        if (warmUpPing && !suspect) {
+            // Slow rather than dead, perhaps. Give the PING the rest of the usual deadline.
+            suspect = true;
+            suspectCount++;
+            long sentAgoMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - payload);
+            long remainingMs = Math.max(0, pingTimeout() - sentAgoMs);
+            log.info("No reply to the warm-up PING within {} ms, waiting up to {} ms more",
+                    timeoutMs, remainingMs);
+            long totalMs = sentAgoMs + remainingMs;
+            pingTimeoutTask = scheduler.schedule(() -> onPingTimeout(pinged, payload, totalMs),
+                    remainingMs, TimeUnit.MILLISECONDS);
+            return;
+        }
+        halfOpenCount++;
+        log.warn("No reply to PING within {} ms, closing the half open connection", timeoutMs);
+        cancelPings();
+        session = null;
+        disconnectCount++;
+        setState(ConnectionState.DISCONNECTED);
+        if (warmUpPing) {
+            warmUpPing = false;
+            reconnectForWarmUp();
+        }
+        // Fails the streams on the session, which makes the downchannel reconnect
+        pinged.close(ErrorCode.NO_ERROR.code, "ping timeout", Callback.NOOP);
+    }
+
+    private void reconnectForWarmUp() {
+        if (warmUpReconnectStartedMs == 0) {
+            warmUpReconnectCount++;
+            warmUpReconnectStartedMs = System.currentTimeMillis();
+            warmUpReconnectOpenedMs = 0;
+        }
+        log.info("Reconnecting ahead of a speech request");
+        reconnectAction.run();
+    }
+
+    private void cancelPings() {
+        if (pingTask != null) {
+            pingTask.cancel(false);
+            pingTask = null;
+        }
+        if (pingTimeoutTask != null) {
+            pingTimeoutTask.cancel(false);
+            pingTimeoutTask = null;
+        }
+        outstandingPing = 0;
+        suspect = false;
+    }
+
+    private void setState(ConnectionState newState) {
+        if (state != newState) {
+            log.debug("Connection {} -> {}", state, newState);
+            state = newState;
+            stateSinceMs = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized ConnectionState getState() {
+        return state;
+    }
+
+    /**
+     * @return How long the connection has been in its current state, in milliseconds.
+     */
+    public synchronized long getTimeInStateMs() {
+        return System.currentTimeMillis() - stateSinceMs;
+    }
+
+    /**
+     * @return The number of reconnect attempts since the connection was last stable.
+     */
+    public synchronized int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public synchronized long getConnectCount() {
+        return connectCount;
+    }
+
+    public synchronized long getDisconnectCount() {
+        return disconnectCount;
+    }
+
+    /**
+     * @return The number of connections closed because they stopped answering PINGs.
+     */
+    public synchronized long getHalfOpenCount() {
+        return halfOpenCount;
+    }
+
+    public synchronized long getPingsSent() {
+        return pingsSent;
+    }
+
+    public synchronized long getPingsAnswered() {
+        return pingsAnswered;
+    }
+
+    /**
+     * @return The smoothed PING round trip time in milliseconds, or -1 before the first reply.
+     */
+    public synchronized long getSmoothedRttMs() {
+        return smoothedRttMs;
+    }
+
+    public synchronized long getLastRttMs() {
+        return lastRttMs;
+    }
+
+    public synchronized long getPingIntervalMs() {
+        return pingIntervalMs;
+    }
+
+    public synchronized long getWarmUpCount() {
+        return warmUpCount;
+    }
+
+    /**
+     * @return The number of warm-up PINGs that missed their short deadline.
+     */
+    public synchronized long getSuspectCount() {
+        return suspectCount;
+    }
+
+    /**
+     * @return The number of warm-ups that found the connection dead and replaced it ahead of the
+     *         speech request.
+     */
+    public synchronized long getWarmUpReconnectCount() {
+        return warmUpReconnectCount;
+    }
+
+    /**
+     * @return The total time, in milliseconds, that reconnecting overlapped with starting to
+     *         record instead of delaying the speech request.
+     */
+    public synchronized long getWarmUpSavedMs() {
+        return warmUpSavedMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "%1$s for %2$d ms, %3$d connects, %4$d disconnects, %5$d half open, "
+                        + "%6$d/%7$d pings answered, rtt %8$d ms, ping every %9$d ms, "
+                        + "%10$d/%11$d warm-ups reconnected saving %12$d ms",
+                state, getTimeInStateMs(), connectCount, disconnectCount, halfOpenCount,
+                pingsAnswered, pingsSent, smoothedRttMs, pingIntervalMs, warmUpReconnectCount,
+                warmUpCount, warmUpSavedMs);
+    }
+}
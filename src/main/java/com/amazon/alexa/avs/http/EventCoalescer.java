@@ -0,0 +1,217 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import com.amazon.alexa.avs.AVSAPIConstants;
+import com.amazon.alexa.avs.RequestListener;
+import com.amazon.alexa.avs.message.Payload;
+import com.amazon.alexa.avs.message.request.Event;
+import com.amazon.alexa.avs.message.request.RequestBody;
+import com.amazon.alexa.avs.message.request.audioplayer.AudioPlayerPayload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops AudioPlayer events that are superseded shortly after they happen. A PlaybackStutterStarted
+ * or PlaybackPaused event is held back for a short window; if the matching PlaybackStutterFinished
+ * or PlaybackResumed event for the same stream arrives within it, neither is sent. Any other event
+ * of the namespace releases the held events first, so the server still sees the events that are
+ * sent in the order they happened. Events of other namespaces pass straight through.
+ */
+public class EventCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(EventCoalescer.class);
+
+    private static final String PLAYBACK_STUTTER_STARTED =
+            AVSAPIConstants.AudioPlayer.Events.PlaybackStutterStarted.NAME;
+    private static final String PLAYBACK_STUTTER_FINISHED =
+            AVSAPIConstants.AudioPlayer.Events.PlaybackStutterFinished.NAME;
+    private static final String PLAYBACK_PAUSED =
+            AVSAPIConstants.AudioPlayer.Events.PlaybackPaused.NAME;
+    private static final String PLAYBACK_RESUMED =
+            AVSAPIConstants.AudioPlayer.Events.PlaybackResumed.NAME;
+
+    private final EventSender sender;
+    private final long windowMs;
+    private final ScheduledExecutorService flushExecutor;
+
+    private final LinkedList<HeldEvent> heldEvents = new LinkedList<>(); // guarded by this
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    /**
+     * Sends an event that made it through the coalescer.
+     */
+    public interface EventSender {
+        void send(RequestBody body, RequestListener listener) throws IOException;
+    }
+
+    /**
+     * @param sender
+     *            Where to send the events that are not suppressed.
+     * @param windowMs
+     *            How long to hold back an event that may be cancelled out.
+     */
+    public EventCoalescer(EventSender sender, long windowMs) {
+        this.sender = sender;
+        this.windowMs = windowMs;
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EventCoalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void submit(RequestBody body, RequestListener listener) {
+        Event event = body.getEvent();
+        if (!AVSAPIConstants.AudioPlayer.NAMESPACE.equals(event.getNamespace())) {
+            send(body, listener);
+            return;
+        }
+
+        String name = event.getName();
+        String token = getToken(event.getPayload());
+        if (PLAYBACK_STUTTER_FINISHED.equals(name)
+                && cancel(PLAYBACK_STUTTER_STARTED, token, body, listener)) {
+            return;
+        }
+        if (PLAYBACK_RESUMED.equals(name) && cancel(PLAYBACK_PAUSED, token, body, listener)) {
+            return;
+        }
+
+        if (PLAYBACK_STUTTER_STARTED.equals(name) || PLAYBACK_PAUSED.equals(name)) {
+            if (find(name, token) != null) {
+                // The same transition is already waiting to be sent
+                suppress(listener);
+                return;
+            }
+            heldEvents.add(new HeldEvent(body, listener, name, token));
+            flushExecutor.schedule(this::flushExpired, windowMs, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        flushAll();
+        send(body, listener);
+    }
+
+    /**
+     * @return The number of events passed on to be sent.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return The number of events dropped because they were cancelled out or repeated.
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    public synchronized void shutdown() {
+        flushAll();
+        flushExecutor.shutdownNow();
+    }
+
+    /**
+     * Drops the held event the given event undoes, along with the given event itself.
+     *
+     * @return Whether there was a held event to cancel.
+     */
+    private boolean cancel(String heldName, String token, RequestBody body,
+            RequestListener listener) {
+        HeldEvent held = find(heldName, token);
+        if (held == null) {
+            return false;
+        }
+        heldEvents.remove(held);
+        suppress(held.listener);
+        suppress(listener);
+        log.debug("Suppressed {} and {} for stream {}", heldName, body.getEvent().getName(),
+                token);
+        return true;
+    }
+
+    private HeldEvent find(String name, String token) {
+        for (HeldEvent held : heldEvents) {
+            if (held.name.equals(name) && Objects.equals(held.token, token)) {
+                return held;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void flushExpired() {
+        long now = System.currentTimeMillis();
+        // Release in order, so an expired event never overtakes one held before it
+        while (!heldEvents.isEmpty() && heldEvents.getFirst().releaseAt <= now) {
+            HeldEvent held = heldEvents.removeFirst();
+            send(held.body, held.listener);
+        }
+    }
+
+    private void flushAll() {
+        Iterator<HeldEvent> iterator = heldEvents.iterator();
+        while (iterator.hasNext()) {
+            HeldEvent held = iterator.next();
+            iterator.remove();
+            send(held.body, held.listener);
+        }
+    }
+
+    private void send(RequestBody body, RequestListener listener) {
+        sentCount.incrementAndGet();
+        try {
+            sender.send(body, listener);
+        } catch (IOException e) {
+            log.error("Failed to send event " + body.getEvent().getName(), e);
+            if (listener != null) {
+                listener.onRequestError(e);
+            }
+        }
+    }
+
+    private void suppress(RequestListener listener) {
+        suppressedCount.incrementAndGet();
+        if (listener != null) {
+            listener.onRequestSuccess();
+        }
+    }
+
+    private static String getToken(Payload payload) {
+        return payload instanceof AudioPlayerPayload ? ((AudioPlayerPayload) payload).getToken()
+                : null;
+    }
+
+    private class HeldEvent {
+        private final RequestBody body;
+        private final RequestListener listener;
+        private final String name;
+        private final String token;
+        private final long releaseAt;
+
+        public HeldEvent(RequestBody body, RequestListener listener, String name, String token) {
+            this.body = body;
+            this.listener = listener;
+            this.name = name;
+            this.token = token;
+            releaseAt = System.currentTimeMillis() + windowMs;
+        }
+    }
+}
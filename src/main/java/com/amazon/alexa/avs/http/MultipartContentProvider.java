@@ -10,6 +10,8 @@ package com.amazon.alexa.avs.http;
 
 import org.eclipse.jetty.client.api.ContentProvider;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -20,9 +22,10 @@ import java.util.stream.Stream;
 
 /**
  * A {@link ContentProvider} that formats other {@link ContentProvider}s to conform to RFC 2388
- * [https://www.ietf.org/rfc/rfc2388.txt] on multipart/form-data.
+ * [https://www.ietf.org/rfc/rfc2388.txt] on multipart/form-data. Closing it closes the parts that
+ * can be closed.
  */
-public class MultipartContentProvider implements ContentProvider.Typed {
+public class MultipartContentProvider implements ContentProvider.Typed, Closeable {
     static final String BOUNDARY = "__BOUNDARY__";
     static final String NEWLINE = "\r\n";
     static final String TWO_DASHES = "--";
@@ -83,6 +86,15 @@ public class MultipartContentProvider implements ContentProvider.Typed {
         return contentType;
     }
 
+    @Override
+    public void close() throws IOException {
+        for (PartContentProvider part : parts) {
+            if (part.contentProvider instanceof Closeable) {
+                ((Closeable) part.contentProvider).close();
+            }
+        }
+    }
+
     private static class PartContentProvider implements ContentProvider {
         private final ContentProvider contentProvider;
         private final String contentType;
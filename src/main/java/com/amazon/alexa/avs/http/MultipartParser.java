@@ -11,103 +11,375 @@ package com.amazon.alexa.avs.http;
 import com.amazon.alexa.avs.http.jetty.PingSendingHttpClientTransportOverHTTP2.ConnectionListener;
 import com.amazon.alexa.avs.message.response.Directive;
 import com.amazon.alexa.avs.message.response.ResponseBody;
+import com.amazon.alexa.avs.trace.LatencyStage;
+import com.amazon.alexa.avs.trace.LatencyTracer;
 
-import org.apache.commons.fileupload.MultipartStream;
+import org.apache.commons.fileupload.MultipartStream.MalformedStreamException;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * An incremental parser for the multipart responses sent by AVS. {@link #parseStream} reads the
+ * response as it arrives from the network and feeds each read to the parser, which keeps its state
+ * between reads. JSON parts are parsed into directives as soon as they are complete, directly from
+ * the read buffer when the whole part is inside it. Attachments are handed to the consumer as an
+ * {@link AttachmentInputStream} as soon as their headers arrive, so they can be played while the
+ * rest of the part is still downloading.
+ *
+ * A parser handles one response at a time and must only be fed from one thread at a time.
+ */
 public class MultipartParser extends MessageParser implements ConnectionListener {
     private static final Logger log = LoggerFactory.getLogger(MultipartParser.class);
-    private static final int MULTIPART_BUFFER_SIZE = 512;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_HEADER_SIZE = 10 * 1024;
+    private static final int INITIAL_HEADER_BUFFER_SIZE = 256;
+    private static final int INITIAL_METADATA_BUFFER_SIZE = 4 * 1024;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte DASH = '-';
+    private static final String DELIMITER_PREFIX = "\r\n--";
+    private static final String UNEXPECTED_AFTER_BOUNDARY = "Unexpected characters after boundary";
+
+    private enum State {
+        PREAMBLE, DELIMITER_SUFFIX, CLOSE_DELIMITER, DELIMITER_LF, HEADERS, BODY, EPILOGUE
+    }
 
     private final MultipartParserConsumer consumer;
     private final AtomicBoolean shutdown;
-    private MultipartStream multipartStream;
+
+    private byte[] delimiter;
+    private State state;
+    // Number of delimiter bytes matched so far
+    private int matched;
+    // Number of the matched delimiter bytes that were fed in an earlier buffer and not yet emitted
+    private int carried;
+
+    private byte[] headerBuffer = new byte[INITIAL_HEADER_BUFFER_SIZE];
+    private int headerLength;
     private Map<String, String> headers;
 
+    private boolean partIsMetadata;
+    private AttachmentInputStream attachment;
+
+    // Metadata that spans more than one fed buffer is accumulated here
+    private byte[] metadataBuffer = new byte[INITIAL_METADATA_BUFFER_SIZE];
+    private int metadataLength;
+
+    // Metadata that so far lies within the buffer being fed, which is parsed in place if the part
+    // also ends within it
+    private byte[] metadataSlice;
+    private int metadataSliceOffset;
+    private int metadataSliceLength;
+
     public MultipartParser(MultipartParserConsumer consumer) {
         this.consumer = consumer;
         this.shutdown = new AtomicBoolean(false);
     }
 
+    /**
+     * Parses a whole multipart stream, blocking until it ends.
+     */
     public void parseStream(InputStream inputStream, String boundary) throws IOException {
         shutdown.set(false);
-        multipartStream =
-                new MultipartStream(inputStream, boundary.getBytes(), MULTIPART_BUFFER_SIZE, null);
-        headers = null;
+        begin(boundary);
 
-        loopStream();
+        byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+        try {
+            int read;
+            while (!isComplete() && (read = inputStream.read(readBuffer)) != -1) {
+                feed(readBuffer, 0, read);
+            }
+            end();
+        } catch (IOException e) {
+            failAttachment(e);
+            if (!shutdown.get()) {
+                throw e;
+            }
+        } catch (RuntimeException e) {
+            // The reader of the attachment would otherwise wait for bytes that never arrive
+            failAttachment(new IOException("Failed to parse the multipart stream", e));
+            throw e;
+        }
     }
 
     public void shutdownGracefully() {
         shutdown.set(false);
     }
 
-    private ResponseBody parseResponseBody(byte[] bytes) throws IOException {
-        return parse(bytes, ResponseBody.class);
+    /**
+     * Prepares the parser for a new multipart stream with the given boundary.
+     */
+    public void begin(String boundary) {
+        delimiter = (DELIMITER_PREFIX + boundary).getBytes(StandardCharsets.US_ASCII);
+        state = State.PREAMBLE;
+        // The first boundary is not preceded by a line break, so treat it as already matched
+        matched = 2;
+        carried = 2;
+        headers = null;
+        attachment = null;
+        resetMetadata();
     }
 
-    private void loopStream() throws IOException {
+    /**
+     * Parses a range of the given array. The array is not referenced after this method returns.
+     */
+    public void feed(byte[] data, int offset, int length) throws IOException {
+        int i = offset;
+        int end = offset + length;
         try {
-            boolean hasNextPart = multipartStream.skipPreamble();
-            while (hasNextPart) {
-                handlePart();
-                hasNextPart = multipartStream.readBoundary();
+            while (i < end && state != State.EPILOGUE) {
+                switch (state) {
+                    case PREAMBLE:
+                    case BODY:
+                        i = scanBody(data, i, end);
+                        break;
+                    case DELIMITER_SUFFIX:
+                        byte b = data[i++];
+                        if (b == DASH) {
+                            state = State.CLOSE_DELIMITER;
+                        } else if (b == CR) {
+                            state = State.DELIMITER_LF;
+                        } else if (b != ' ' && b != '\t') {
+                            throw new MalformedStreamException(UNEXPECTED_AFTER_BOUNDARY);
+                        }
+                        break;
+                    case CLOSE_DELIMITER:
+                        expect(data[i++], DASH);
+                        state = State.EPILOGUE;
+                        break;
+                    case DELIMITER_LF:
+                        expect(data[i++], LF);
+                        headerLength = 0;
+                        state = State.HEADERS;
+                        break;
+                    case HEADERS:
+                        i = readHeaders(data, i, end);
+                        break;
+                    default:
+                        break;
+                }
             }
-        } catch (IOException e) {
-            if (!shutdown.get()) {
-                throw e;
+        } finally {
+            spillMetadataSlice();
+        }
+    }
+
+    /**
+     * Signals the end of the multipart stream.
+     *
+     * @throws MalformedStreamException
+     *             If the stream ended before its closing boundary.
+     */
+    public void end() throws IOException {
+        if (!isComplete()) {
+            throw new MalformedStreamException("Stream ended unexpectedly");
+        }
+    }
+
+    /**
+     * @return Whether the closing boundary has been parsed.
+     */
+    public boolean isComplete() {
+        return state == State.EPILOGUE;
+    }
+
+    /**
+     * Fails the attachment currently being received, if there is one, so that its reader does not
+     * wait for bytes that will never arrive.
+     */
+    public void failAttachment(IOException cause) {
+        if (attachment != null) {
+            attachment.fail(cause);
+            attachment = null;
+        }
+    }
+
+    /**
+     * Looks for the next delimiter, passing the bytes before it to the current part.
+     *
+     * @return The index after the last byte processed.
+     */
+    private int scanBody(byte[] data, int start, int end) throws IOException {
+        int runStart = start;
+        int matchStart = start;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if (matched > 0) {
+                if (b == delimiter[matched]) {
+                    if (++matched == delimiter.length) {
+                        if (carried == 0) {
+                            emitBody(data, runStart, matchStart - runStart);
+                        }
+                        matched = 0;
+                        carried = 0;
+                        endPart();
+                        state = State.DELIMITER_SUFFIX;
+                        return i + 1;
+                    }
+                    continue;
+                }
+
+                // The partial match was part of the body. A boundary cannot contain a CR, so the
+                // only place a new match can start is the current byte.
+                if (carried > 0) {
+                    emitBody(delimiter, 0, carried);
+                    carried = 0;
+                }
+                matched = 0;
+            }
+
+            if (b == CR) {
+                matched = 1;
+                matchStart = i;
+            }
+        }
+
+        if (matched > 0) {
+            // Hold back a possible delimiter until the next buffer shows whether it is one
+            if (carried == 0) {
+                emitBody(data, runStart, matchStart - runStart);
+            }
+            carried = matched;
+        } else {
+            emitBody(data, runStart, end - runStart);
+        }
+        return end;
+    }
+
+    private int readHeaders(byte[] data, int start, int end) throws IOException {
+        int i = start;
+        while (i < end) {
+            byte b = data[i++];
+            if (headerLength == headerBuffer.length) {
+                if (headerLength >= MAX_HEADER_SIZE) {
+                    throw new MalformedStreamException("Part headers exceed " + MAX_HEADER_SIZE
+                            + " bytes");
+                }
+                headerBuffer = Arrays.copyOf(headerBuffer, headerLength * 2);
+            }
+            headerBuffer[headerLength++] = b;
+
+            if (b == LF && endsWithBlankLine()) {
+                startPart();
+                break;
             }
         }
+        return i;
+    }
+
+    private boolean endsWithBlankLine() {
+        if (headerLength == 2) {
+            return headerBuffer[0] == CR;
+        }
+        return headerLength >= 4 && headerBuffer[headerLength - 2] == CR
+                && headerBuffer[headerLength - 3] == LF && headerBuffer[headerLength - 4] == CR;
+    }
+
+    private void startPart() {
+        headers = getPartHeaders(
+                new String(headerBuffer, 0, headerLength, StandardCharsets.ISO_8859_1));
+        partIsMetadata = isPartJSON(headers);
+        state = State.BODY;
+
+        if (!partIsMetadata) {
+            attachment = new AttachmentInputStream();
+            consumer.onDirectiveAttachment(getMultipartContentId(headers), attachment);
+        }
+    }
+
+    private void emitBody(byte[] data, int offset, int length) throws IOException {
+        if (length <= 0 || state != State.BODY) {
+            return;
+        }
+
+        if (!partIsMetadata) {
+            attachment.append(data, offset, length);
+        } else if (metadataLength == 0 && metadataSlice == null) {
+            metadataSlice = data;
+            metadataSliceOffset = offset;
+            metadataSliceLength = length;
+        } else {
+            spillMetadataSlice();
+            appendMetadata(data, offset, length);
+        }
     }
 
-    private void handlePart() throws IOException {
-        headers = getPartHeaders();
-        byte[] partBytes = getPartBytes();
-        boolean isMetadata = isPartJSON(headers);
+    private void endPart() throws IOException {
+        if (state != State.BODY) {
+            return;
+        }
 
-        if (isMetadata) {
-            handleMetadata(partBytes);
+        if (partIsMetadata) {
+            try {
+                if (metadataSlice != null) {
+                    handleMetadata(metadataSlice, metadataSliceOffset, metadataSliceLength);
+                } else {
+                    handleMetadata(metadataBuffer, 0, metadataLength);
+                }
+            } finally {
+                resetMetadata();
+            }
         } else {
-            handleAudio(partBytes);
+            attachment.complete();
+            attachment = null;
         }
     }
 
-    private void handleMetadata(byte[] partBytes) throws IOException {
-        Directive directive = parseResponseBody(partBytes).getDirective();
+    private void handleMetadata(byte[] bytes, int offset, int length) throws IOException {
+        Directive directive = parse(bytes, offset, length, ResponseBody.class).getDirective();
         if (directive != null) {
+            LatencyTracer.getInstance().mark(directive.getDialogRequestId(),
+                    LatencyStage.FIRST_DIRECTIVE_PARSED);
             consumer.onDirective(directive);
         } else {
             log.error("Failed to parse a directive.");
         }
     }
 
-    private void handleAudio(byte[] partBytes) {
-        String contentId = getMultipartContentId(headers);
-        InputStream attachmentContent = new ByteArrayInputStream(partBytes);
+    /**
+     * Copies metadata that is still referenced in place, before the buffer it lies in is reused.
+     */
+    private void spillMetadataSlice() {
+        if (metadataSlice != null) {
+            byte[] slice = metadataSlice;
+            metadataSlice = null;
+            appendMetadata(slice, metadataSliceOffset, metadataSliceLength);
+        }
+    }
 
-        consumer.onDirectiveAttachment(contentId, attachmentContent);
+    private void appendMetadata(byte[] data, int offset, int length) {
+        if (metadataLength + length > metadataBuffer.length) {
+            metadataBuffer = Arrays.copyOf(metadataBuffer,
+                    Math.max(metadataBuffer.length * 2, metadataLength + length));
+        }
+        System.arraycopy(data, offset, metadataBuffer, metadataLength, length);
+        metadataLength += length;
+    }
+
+    private void resetMetadata() {
+        metadataSlice = null;
+        metadataLength = 0;
     }
 
-    private byte[] getPartBytes() throws IOException {
-        ByteArrayOutputStream data = new ByteArrayOutputStream();
-        multipartStream.readBodyData(data);
-        return data.toByteArray();
+    private void expect(byte actual, byte expected) throws MalformedStreamException {
+        if (actual != expected) {
+            throw new MalformedStreamException(UNEXPECTED_AFTER_BOUNDARY);
+        }
     }
 
-    private Map<String, String> getPartHeaders() throws IOException {
-        String headers = multipartStream.readHeaders();
+    private Map<String, String> getPartHeaders(String headers) {
         BufferedReader reader = new BufferedReader(new StringReader(headers));
         Map<String, String> headerMap = new HashMap<>();
         try {
@@ -144,6 +416,10 @@ public class MultipartParser extends MessageParser implements ConnectionListener
     public interface MultipartParserConsumer {
         void onDirective(Directive directive);
 
+        /**
+         * Called as soon as the headers of an attachment have been parsed. The content may still
+         * be downloading and reads from it block until more of it arrives.
+         */
         void onDirectiveAttachment(String contentId, InputStream attachmentContent);
     }
 
@@ -0,0 +1,504 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import com.amazon.alexa.avs.AVSAPIConstants;
+import com.amazon.alexa.avs.RequestListener;
+import com.amazon.alexa.avs.config.ObjectMapperFactory;
+import com.amazon.alexa.avs.exception.AVSException;
+import com.amazon.alexa.avs.message.Payload;
+import com.amazon.alexa.avs.message.request.Event;
+import com.amazon.alexa.avs.message.request.RequestBody;
+import com.amazon.alexa.avs.message.request.alerts.AlertPayload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the events AVS has to receive eventually, such as those of the Alerts namespace, in a
+ * memory mapped file until they have been delivered, so that alerts which go off while the network
+ * is down, or just before a restart, are still reported. Events are sent one at a time in the
+ * order they happened, no faster than a fixed rate, and only while connected. An event that is
+ * made meaningless by a later one, like an alert entering the background before it is stopped, is
+ * dropped if it has not been sent yet. An event that AVS rejects, or that keeps failing, is given
+ * up on so that it does not hold back the events after it.
+ *
+ * Each record in the file is its length, its state and the event. Records are appended, and
+ * marked delivered in place; once the file is full, the undelivered records are copied to a new
+ * file which replaces it atomically.
+ */
+public class OfflineEventQueue {
+    private static final Logger log = LoggerFactory.getLogger(OfflineEventQueue.class);
+
+    private static final String QUEUE_FILE = "events.queue";
+    private static final int CAPACITY = 256 * 1024;
+    // Length and state of a record
+    private static final int HEADER_SIZE = 5;
+    private static final byte PENDING = 1;
+    private static final byte DELIVERED = 2;
+    private static final long MIN_SEND_INTERVAL_MS = 200;
+    private static final long RETRY_DELAY_MS = 5 * 1000;
+    // Sends of an event that may fail, while connected, before it is dropped
+    private static final int MAX_ATTEMPTS = 12;
+    // How long to wait for the outcome of an event before sending it again
+    private static final long IN_FLIGHT_TIMEOUT_MS = 2 * 60 * 1000;
+
+    private static final Set<String> FOCUS_EVENTS = new HashSet<>(
+            Arrays.asList(AVSAPIConstants.Alerts.Events.AlertEnteredForeground.NAME,
+                    AVSAPIConstants.Alerts.Events.AlertEnteredBackground.NAME));
+    private static final Set<String> END_EVENTS =
+            new HashSet<>(Arrays.asList(AVSAPIConstants.Alerts.Events.AlertStopped.NAME,
+                    AVSAPIConstants.Alerts.Events.DeleteAlertSucceeded.NAME));
+
+    /**
+     * Sends an event which has already been serialized.
+     */
+    public interface EventSender {
+        void send(String namespace, String metadata, RequestListener listener) throws IOException;
+    }
+
+    private final File file;
+    private final EventSender sender;
+    private final BooleanSupplier connected;
+    private final ScheduledExecutorService executor;
+
+    // Accessed only on executor
+    private MappedByteBuffer buffer;
+    private final LinkedList<Record> pending = new LinkedList<>();
+    private Record inFlight;
+    private long lastSentAt;
+    private boolean drainScheduled;
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong collapsedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong recoveredCount = new AtomicLong();
+
+    private static class Record {
+        private final String namespace;
+        private final String name;
+        private final String token;
+        private final String metadata;
+        private final byte[] data;
+        private final RequestListener listener;
+        // Position in the file, or -1 if the record could not be stored
+        private int offset = -1;
+        // Failed sends since the queue was loaded
+        private int attempts;
+
+        Record(String namespace, String name, String token, String metadata,
+                RequestListener listener) {
+            this.namespace = namespace;
+            this.name = name;
+            this.token = token;
+            this.metadata = metadata;
+            this.listener = listener;
+            data = String.join("\n", namespace, name, token, metadata)
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+
+        static Record parse(byte[] data) {
+            String[] fields = new String(data, StandardCharsets.UTF_8).split("\n", 4);
+            return new Record(fields[0], fields[1], fields[2], fields[3], null);
+        }
+    }
+
+    /**
+     * @param sender
+     *            Sends the events.
+     * @param connected
+     *            Whether there is a connection to AVS right now.
+     */
+    public OfflineEventQueue(EventSender sender, BooleanSupplier connected) {
+        this(new File(QUEUE_FILE), sender, connected);
+    }
+
+    public OfflineEventQueue(File file, EventSender sender, BooleanSupplier connected) {
+        this.file = file;
+        this.sender = sender;
+        this.connected = connected;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OfflineEventQueue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::load);
+    }
+
+    /**
+     * @return Whether the event has to reach AVS even if it cannot be sent right now.
+     */
+    public static boolean isDurable(RequestBody body) {
+        return AVSAPIConstants.Alerts.NAMESPACE.equals(body.getEvent().getNamespace());
+    }
+
+    /**
+     * Stores the event and sends it as soon as the events before it have been delivered.
+     *
+     * @param listener
+     *            Told when the event has been delivered. May be null.
+     */
+    public void add(RequestBody body, RequestListener listener) throws IOException {
+        Event event = body.getEvent();
+        Payload payload = event.getPayload();
+        String token =
+                payload instanceof AlertPayload ? ((AlertPayload) payload).getToken() : null;
+        String metadata = ObjectMapperFactory.getObjectWriter().writeValueAsString(body);
+        Record record = new Record(event.getNamespace(), event.getName(),
+                token == null ? "" : token, metadata, listener);
+        executor.execute(() -> {
+            collapse(record);
+            append(record);
+            drain();
+        });
+    }
+
+    /**
+     * Starts sending the stored events again.
+     */
+    public void onConnected() {
+        executor.execute(this::drain);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The number of events waiting to be delivered.
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return The number of events dropped because a later event made them meaningless.
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    /**
+     * @return The number of events dropped because the queue was full, AVS rejected them, or they
+     *         failed too many times.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return The number of undelivered events found in the file on startup.
+     */
+    public long getRecoveredCount() {
+        return recoveredCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%1$d pending, %2$d delivered, %3$d collapsed, %4$d dropped, "
+                + "%5$d recovered", getPendingCount(), getDeliveredCount(), getCollapsedCount(),
+                getDroppedCount(), getRecoveredCount());
+    }
+
+    private void load() {
+        try {
+            map();
+            int position = 0;
+            while (position + HEADER_SIZE <= CAPACITY) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER_SIZE + length > CAPACITY) {
+                    break;
+                }
+                if (buffer.get(position + 4) == PENDING) {
+                    byte[] data = new byte[length];
+                    ByteBuffer view = buffer.duplicate();
+                    view.position(position + HEADER_SIZE);
+                    view.get(data);
+                    pending.add(Record.parse(data));
+                }
+                position += HEADER_SIZE + length;
+            }
+            recoveredCount.set(pending.size());
+            pendingCount.set(pending.size());
+            if (!pending.isEmpty()) {
+                log.info("Recovered {} undelivered events", pending.size());
+            }
+            // Start from a file that holds only the undelivered events
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to load the offline event queue, starting with an empty one", e);
+            pending.clear();
+            pendingCount.set(0);
+            try {
+                Files.deleteIfExists(file.toPath());
+                map();
+            } catch (IOException e1) {
+                log.error("Events will not be kept while offline", e1);
+            }
+        }
+    }
+
+    /**
+     * Drops the events that have not been sent yet and that the given one makes meaningless.
+     */
+    private void collapse(Record record) {
+        if (!FOCUS_EVENTS.contains(record.name) && !END_EVENTS.contains(record.name)) {
+            return;
+        }
+        Iterator<Record> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            Record older = iterator.next();
+            if (older != inFlight && FOCUS_EVENTS.contains(older.name)
+                    && older.token.equals(record.token)) {
+                iterator.remove();
+                markDelivered(older);
+                collapsedCount.incrementAndGet();
+                notifySuccess(older);
+            }
+        }
+        pendingCount.set(pending.size());
+    }
+
+    private void append(Record record) {
+        if (buffer != null) {
+            if (buffer.remaining() < HEADER_SIZE + record.data.length + 4) {
+                makeRoom(record);
+            }
+            if (buffer.remaining() >= HEADER_SIZE + record.data.length + 4) {
+                write(buffer, record);
+                buffer.force();
+            } else {
+                log.warn("Event {} is too large to be kept while offline", record.name);
+            }
+        }
+        pending.add(record);
+        pendingCount.set(pending.size());
+    }
+
+    /**
+     * Writes the record at the position of the given buffer. The length is written last, so a
+     * record torn by a crash is never read back.
+     */
+    private static void write(ByteBuffer target, Record record) {
+        int position = target.position();
+        target.put(position + 4, PENDING);
+        ByteBuffer payload = target.duplicate();
+        payload.position(position + HEADER_SIZE);
+        payload.put(record.data);
+        // Marks the end of the records
+        payload.putInt(0);
+        target.putInt(position, record.data.length);
+        target.position(position + HEADER_SIZE + record.data.length);
+        record.offset = position;
+    }
+
+    /**
+     * Compacts the file, first dropping the oldest events if the undelivered ones alone leave no
+     * room. Enough of them are dropped at once that the next events do not each need a compaction.
+     */
+    private void makeRoom(Record record) {
+        int needed = HEADER_SIZE + record.data.length + 4;
+        int liveBytes = 0;
+        for (Record older : pending) {
+            liveBytes += HEADER_SIZE + older.data.length;
+        }
+        if (liveBytes + needed > CAPACITY) {
+            while (liveBytes + needed > CAPACITY * 3 / 4 && !pending.isEmpty()
+                    && pending.getFirst() != inFlight) {
+                Record oldest = pending.removeFirst();
+                liveBytes -= HEADER_SIZE + oldest.data.length;
+                droppedCount.incrementAndGet();
+                log.warn("Offline event queue is full, dropping {}", oldest.name);
+                if (oldest.listener != null) {
+                    oldest.listener.onRequestError(new IOException("Offline event queue is full"));
+                }
+            }
+            pendingCount.set(pending.size());
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            log.error("Failed to compact the offline event queue", e);
+        }
+    }
+
+    /**
+     * Copies the undelivered records to a new file and replaces the old one with it.
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer target = channel.map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY);
+            for (Record record : pending) {
+                if (target.remaining() >= HEADER_SIZE + record.data.length + 4) {
+                    write(target, record);
+                } else {
+                    record.offset = -1;
+                }
+            }
+            target.force();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        map();
+    }
+
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY);
+        }
+        int end = 0;
+        for (Record record : pending) {
+            if (record.offset >= 0) {
+                end = Math.max(end, record.offset + HEADER_SIZE + record.data.length);
+            }
+        }
+        buffer.position(end);
+    }
+
+    private void markDelivered(Record record) {
+        if (record.offset >= 0 && buffer != null) {
+            buffer.put(record.offset + 4, DELIVERED);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Sends the oldest undelivered event, if nothing else is being sent and the rate allows it.
+     */
+    private void drain() {
+        drainScheduled = false;
+        if (inFlight != null || pending.isEmpty() || !connected.getAsBoolean()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long waitMs = lastSentAt + MIN_SEND_INTERVAL_MS - now;
+        if (waitMs > 0) {
+            scheduleDrain(waitMs);
+            return;
+        }
+
+        Record record = pending.getFirst();
+        inFlight = record;
+        lastSentAt = now;
+        executor.schedule(
+                () -> onOutcome(record, new TimeoutException("No outcome for the event")),
+                IN_FLIGHT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        try {
+            sender.send(record.namespace, record.metadata, new RequestListener() {
+                private volatile Throwable failure;
+
+                @Override
+                public void onRequestSuccess() {
+                    // Also called once a failed request is finished
+                    Throwable outcome = failure;
+                    executor.execute(() -> onOutcome(record, outcome));
+                }
+
+                @Override
+                public void onRequestError(Throwable e) {
+                    failure = e;
+                }
+            });
+        } catch (IOException e) {
+            log.error("Failed to send event {}", record.name, e);
+            onOutcome(record, e);
+        }
+    }
+
+    /**
+     * @param failure
+     *            Why the event was not delivered, or null if it was.
+     */
+    private void onOutcome(Record record, Throwable failure) {
+        if (inFlight != record) {
+            // Already timed out, or already resolved
+            return;
+        }
+        inFlight = null;
+        if (failure == null) {
+            remove(record);
+            deliveredCount.incrementAndGet();
+            notifySuccess(record);
+            drain();
+            return;
+        }
+
+        record.attempts++;
+        boolean rejected = failure instanceof AVSException
+                && ((AVSException) failure).isClientError();
+        if (rejected || record.attempts >= MAX_ATTEMPTS) {
+            log.warn("Giving up on event {} after {} attempt(s): {}", record.name,
+                    record.attempts, failure.toString());
+            remove(record);
+            droppedCount.incrementAndGet();
+            if (record.listener != null) {
+                record.listener.onRequestError(failure);
+            }
+            drain();
+        } else {
+            log.info("Event {} was not delivered, trying again in {} ms", record.name,
+                    RETRY_DELAY_MS);
+            scheduleDrain(RETRY_DELAY_MS);
+        }
+    }
+
+    /**
+     * Takes a record that will not be sent again off the queue.
+     */
+    private void remove(Record record) {
+        pending.remove(record);
+        pendingCount.set(pending.size());
+        markDelivered(record);
+    }
+
+    private void scheduleDrain(long delayMs) {
+        if (!drainScheduled) {
+            drainScheduled = true;
+            executor.schedule(this::drain, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void notifySuccess(Record record) {
+        if (record.listener != null) {
+            record.listener.onRequestSuccess();
+        }
+    }
+}
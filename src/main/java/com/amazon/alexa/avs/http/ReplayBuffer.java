@@ -0,0 +1,150 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a copy of the bytes of a request body so that it can be sent again. Bytes are packed into
+ * large direct buffers taken from a shared pool, up to a fixed memory budget. Anything beyond the
+ * budget is appended to a temporary file, which is memory mapped when the bytes are replayed. The
+ * buffers handed out for a replay share memory with the buffer, so nothing is copied.
+ */
+public class ReplayBuffer implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ReplayBuffer.class);
+
+    public static final int CHUNK_SIZE = 32 * 1024;
+    public static final long DEFAULT_MEMORY_BUDGET = 512 * 1024;
+
+    private static final ByteBufferPool POOL = new ArrayByteBufferPool();
+
+    private final long memoryBudget;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private long memoryBytes;
+    private FileChannel spill;
+    private long spillBytes;
+    private boolean closed;
+
+    public ReplayBuffer() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param memoryBudget
+     *            Number of bytes to keep in memory before spilling to disk.
+     */
+    public ReplayBuffer(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Copies the remaining bytes of the given buffer, without changing its position.
+     */
+    public synchronized void append(ByteBuffer buffer) throws IOException {
+        if (closed) {
+            return;
+        }
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining() && spill == null) {
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || !chunk.hasRemaining()) {
+                if (memoryBytes + CHUNK_SIZE > memoryBudget) {
+                    openSpill();
+                    break;
+                }
+                chunk = POOL.acquire(CHUNK_SIZE, true);
+                chunk.clear();
+                chunks.add(chunk);
+                memoryBytes += chunk.capacity();
+            }
+            int length = Math.min(chunk.remaining(), source.remaining());
+            ByteBuffer slice = source.duplicate();
+            slice.limit(slice.position() + length);
+            chunk.put(slice);
+            source.position(source.position() + length);
+        }
+        while (source.hasRemaining()) {
+            spillBytes += spill.write(source, spillBytes);
+        }
+    }
+
+    /**
+     * @return The bytes appended so far, as read only buffers sharing memory with this buffer.
+     */
+    public synchronized List<ByteBuffer> replay() throws IOException {
+        if (closed) {
+            throw new IOException("Replay buffer has been released");
+        }
+        List<ByteBuffer> buffers = new ArrayList<>(chunks.size() + 1);
+        for (ByteBuffer chunk : chunks) {
+            ByteBuffer view = chunk.asReadOnlyBuffer();
+            view.flip();
+            buffers.add(view);
+        }
+        if (spillBytes > 0) {
+            MappedByteBuffer mapped = spill.map(FileChannel.MapMode.READ_ONLY, 0, spillBytes);
+            buffers.add(mapped.asReadOnlyBuffer());
+        }
+        return buffers;
+    }
+
+    /**
+     * @return The number of bytes appended so far.
+     */
+    public synchronized long size() {
+        long size = spillBytes;
+        for (ByteBuffer chunk : chunks) {
+            size += chunk.position();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the memory to the pool and deletes the temporary file.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        chunks.forEach(POOL::release);
+        chunks.clear();
+        memoryBytes = 0;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                log.warn("Failed to delete the replay buffer file", e);
+            }
+            spill = null;
+        }
+    }
+
+    private void openSpill() throws IOException {
+        Path file = Files.createTempFile("avs-replay", ".tmp");
+        spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        log.info("Request body is larger than {} bytes, spilling to {}", memoryBudget, file);
+    }
+}
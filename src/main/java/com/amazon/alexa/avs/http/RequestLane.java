@@ -0,0 +1,240 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import com.amazon.alexa.avs.AVSRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the requests that have to reach AVS in order, one at a time. Requests in different lanes
+ * are independent of each other and are sent concurrently as separate streams on the shared HTTP/2
+ * connection. Each lane also keeps track of how long its requests wait and take.
+ *
+ * A request that has to be tried again keeps its place at the head of the lane, but the lane's
+ * thread does not wait for the retry: the next attempt is put back on the thread by the
+ * {@link RetryScheduler} once it is due.
+ */
+public class RequestLane {
+    private static final Logger log = LoggerFactory.getLogger(RequestLane.class);
+
+    private final String name;
+    private final RetryScheduler retryScheduler;
+    private final ExecutorService executor;
+
+    // Requests behind the one being sent. Both fields are guarded by this.
+    private final Queue<Entry> waiting = new ArrayDeque<>();
+    private Entry current;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong totalQueueWaitMs = new AtomicLong();
+    private final AtomicLong maxQueueWaitMs = new AtomicLong();
+    private final AtomicLong totalDurationMs = new AtomicLong();
+    private final AtomicLong maxDurationMs = new AtomicLong();
+
+    /**
+     * Sends requests for a lane.
+     */
+    interface Sender {
+        /**
+         * Makes one attempt at sending a request.
+         *
+         * @param attempt
+         *            The number of this attempt, starting at 1.
+         * @return How many milliseconds to wait before the next attempt, or -1 if the request is
+         *         finished.
+         */
+        long send(AVSRequest request, int attempt);
+
+        /**
+         * Gives up on a request, either because its deadline passed before it could be sent or
+         * because sending it failed unexpectedly. No further attempt is made.
+         */
+        void drop(AVSRequest request, Exception cause);
+    }
+
+    private static class Entry {
+        private final AVSRequest request;
+        private final Sender sender;
+        private final long enqueuedAt;
+        private long startedAt;
+        private int attempts;
+
+        Entry(AVSRequest request, Sender sender, long enqueuedAt) {
+            this.request = request;
+            this.sender = sender;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    RequestLane(String name, RetryScheduler retryScheduler) {
+        this.name = name;
+        this.retryScheduler = retryScheduler;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RequestLane-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a request behind the ones already in this lane.
+     *
+     * @param request
+     *            The request to send.
+     * @param sender
+     *            Makes each attempt at sending the request and waits for its response to be
+     *            handled.
+     */
+    void submit(AVSRequest request, Sender sender) {
+        Entry entry = new Entry(request, sender, System.currentTimeMillis());
+        queueDepth.incrementAndGet();
+        synchronized (this) {
+            if (current != null) {
+                waiting.add(entry);
+                return;
+            }
+            current = entry;
+        }
+        execute(entry);
+    }
+
+    private void execute(Entry entry) {
+        try {
+            executor.execute(() -> attempt(entry));
+        } catch (RejectedExecutionException e) {
+            log.error("Dropping {} request, the lane has been shut down", name);
+        }
+    }
+
+    private void attempt(Entry entry) {
+        if (entry.attempts == 0) {
+            entry.startedAt = System.currentTimeMillis();
+            queueDepth.decrementAndGet();
+        }
+        long retryDelayMs = -1;
+        boolean dropped = false;
+        try {
+            long holdBackMs = retryScheduler.beforeAttempt(entry.request);
+            if (holdBackMs > 0) {
+                retryScheduler.schedule(() -> execute(entry), holdBackMs);
+                return;
+            } else if (holdBackMs < 0) {
+                dropped = true;
+                entry.sender.drop(entry.request, new TimeoutException("Request deadline passed"));
+            } else {
+                retryDelayMs = entry.sender.send(entry.request, ++entry.attempts);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to send {} request", name, e);
+            if (!dropped) {
+                // The listener still has to hear about it, and the content be released
+                drop(entry, e);
+            }
+        }
+        if (retryDelayMs >= 0) {
+            log.debug("{} request attempt {} failed, trying again in {} ms", name, entry.attempts,
+                    retryDelayMs);
+            retryScheduler.schedule(() -> execute(entry), retryDelayMs);
+            return;
+        }
+
+        long finishedAt = System.currentTimeMillis();
+        record(entry.startedAt - entry.enqueuedAt, finishedAt - entry.startedAt);
+        Entry next;
+        synchronized (this) {
+            next = waiting.poll();
+            current = next;
+        }
+        log.debug("{} request waited {} ms and took {} ms, {} still queued", name,
+                entry.startedAt - entry.enqueuedAt, finishedAt - entry.startedAt,
+                queueDepth.get());
+        if (next != null) {
+            execute(next);
+        }
+    }
+
+    private void drop(Entry entry, Exception cause) {
+        try {
+            entry.sender.drop(entry.request, cause);
+        } catch (RuntimeException e) {
+            log.error("Failed to drop {} request", name, e);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private void record(long queueWaitMs, long durationMs) {
+        completedCount.incrementAndGet();
+        totalQueueWaitMs.addAndGet(queueWaitMs);
+        totalDurationMs.addAndGet(durationMs);
+        maxQueueWaitMs.accumulateAndGet(queueWaitMs, Math::max);
+        maxDurationMs.accumulateAndGet(durationMs, Math::max);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of requests waiting for the ones ahead of them in this lane.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getAverageQueueWaitMs() {
+        long count = completedCount.get();
+        return count == 0 ? 0 : totalQueueWaitMs.get() / count;
+    }
+
+    public long getMaxQueueWaitMs() {
+        return maxQueueWaitMs.get();
+    }
+
+    public long getAverageDurationMs() {
+        long count = completedCount.get();
+        return count == 0 ? 0 : totalDurationMs.get() / count;
+    }
+
+    public long getMaxDurationMs() {
+        return maxDurationMs.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%1$s: %2$d queued, %3$d sent, wait avg/max %4$d/%5$d ms, "
+                        + "duration avg/max %6$d/%7$d ms",
+                name, getQueueDepth(), getCompletedCount(), getAverageQueueWaitMs(),
+                getMaxQueueWaitMs(), getAverageDurationMs(), getMaxDurationMs());
+    }
+}
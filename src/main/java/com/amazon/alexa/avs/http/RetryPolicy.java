@@ -25,4 +25,14 @@ public interface RetryPolicy {
      * @throws Exception
      */
     void tryCall(Callable<Void> callable, Class<? extends Throwable> exception) throws Exception;
+
+    /**
+     * For callers that schedule their own retries instead of blocking in
+     * {@link #tryCall(Callable, Class)}.
+     *
+     * @param failedAttempts
+     *            The number of attempts that have failed so far.
+     * @return The delay in milliseconds before the next attempt, or -1 if there should be none.
+     */
+    long getRetryDelay(int failedAttempts);
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import com.amazon.alexa.avs.AVSRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when requests are sent again after they fail. Retries wait on a timer rather than on the
+ * thread that sends requests, requests whose deadline has passed are dropped instead of retried,
+ * and a {@link CircuitBreaker} holds back background requests while AVS cannot be reached.
+ */
+public class RetryScheduler {
+    private static final Logger log = LoggerFactory.getLogger(RetryScheduler.class);
+
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_MIN_OPEN_MS = 5 * 1000;
+    private static final long BREAKER_MAX_OPEN_MS = 2 * 60 * 1000;
+
+    private final ScheduledExecutorService timer;
+    private final CircuitBreaker circuitBreaker;
+
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    public RetryScheduler() {
+        this(new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_MIN_OPEN_MS,
+                BREAKER_MAX_OPEN_MS));
+    }
+
+    public RetryScheduler(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RetryScheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Called before every attempt at sending a request.
+     *
+     * @return 0 to send the request now, -1 if its deadline has passed, otherwise how many
+     *         milliseconds to hold it back.
+     */
+    long beforeAttempt(AVSRequest request) {
+        long now = System.currentTimeMillis();
+        if (request.isExpired(now)) {
+            expiredCount.incrementAndGet();
+            log.warn("Dropping {} request, its deadline passed {} ms ago", request.getLane(),
+                    now - request.getDeadline());
+            return -1;
+        }
+        long delayMs =
+                circuitBreaker.allowRequest(request.getPriority() == AVSRequest.Priority.HIGH, now);
+        if (delayMs > 0) {
+            deferredCount.incrementAndGet();
+        }
+        return delayMs;
+    }
+
+    /**
+     * Called when an attempt failed in a way that may succeed if tried again.
+     *
+     * @return How many milliseconds to wait before the next attempt, or -1 to give up.
+     */
+    long onFailure(AVSRequest request, int failedAttempts) {
+        long now = System.currentTimeMillis();
+        circuitBreaker.onFailure(now);
+        long delayMs = request.getRetryPolicy().getRetryDelay(failedAttempts);
+        if (delayMs < 0) {
+            exhaustedCount.incrementAndGet();
+            return -1;
+        }
+        if (request.isExpired(now + delayMs)) {
+            expiredCount.incrementAndGet();
+            log.warn("Dropping {} request, its deadline passes before it can be retried",
+                    request.getLane());
+            return -1;
+        }
+        retryCount.incrementAndGet();
+        return delayMs;
+    }
+
+    void onSuccess() {
+        circuitBreaker.onSuccess();
+    }
+
+    /**
+     * Runs the task on the timer thread once the delay has passed.
+     */
+    void schedule(Runnable task, long delayMs) {
+        try {
+            timer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.error("Not retrying, the retry scheduler has been shut down");
+        }
+    }
+
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * @return The number of times a failed request was scheduled to be sent again.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return The number of times a request was held back by the circuit breaker.
+     */
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * @return The number of requests dropped because their deadline passed.
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return The number of requests that failed on every attempt they were allowed.
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%1$d retried, %2$d held back, %3$d expired, %4$d gave up, circuit %5$s "
+                        + "(opened %6$d times)",
+                getRetryCount(), getDeferredCount(), getExpiredCount(), getExhaustedCount(),
+                circuitBreaker.getState(), circuitBreaker.getOpenCount());
+    }
+}
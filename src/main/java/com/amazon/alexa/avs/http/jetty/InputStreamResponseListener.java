@@ -34,6 +34,8 @@ import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Response.Listener;
 import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -43,13 +45,14 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -75,36 +78,50 @@ import java.util.concurrent.atomic.AtomicReference;
  * <p>
  * The {@link HttpClient} implementation (the producer) will feed the input stream
  * asynchronously while the application (the consumer) is reading from it.
- * Chunks of content are maintained in a queue, and it is possible to specify a
- * maximum buffer size for the bytes held in the queue, by default 16384 bytes.
+ * <p>
+ * START AMAZON CHANGES
+ * <p>
+ * Content buffers are queued as they are received from the connection, without
+ * copying, together with the {@link Callback} that releases them. A buffer is
+ * returned to the client's buffer pool, and the HTTP/2 flow control window is
+ * reopened, only once the consumer has read all of it. A slow consumer therefore
+ * throttles the server rather than the network thread, and the number of queued
+ * bytes is bounded by the stream's receive window. As a safety net, a response
+ * that queues more than {@code maxBufferSize} unread bytes is aborted.
+ * <p>
+ * END AMAZON CHANGES
  * <p>
  * If the consumer is faster than the producer, then the consumer will block
  * with the typical {@link InputStream#read()} semantic.
- * If the consumer is slower than the producer, then the producer will block
- * until the client consumes.
  */
 public class InputStreamResponseListener extends Listener.Adapter
 {
     private static final Logger LOG = Log.getLogger(InputStreamResponseListener.class);
-    private static final byte[] EOF = new byte[0];
-    private static final byte[] CLOSED = new byte[0];
-    private static final byte[] FAILURE = new byte[0];
-    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
-    private final AtomicLong length = new AtomicLong();
+    // START AMAZON CHANGES
+    public static final long DEFAULT_MAX_BUFFER_SIZE = 512 * 1024L;
+    private static final Chunk EOF = new Chunk(BufferUtil.EMPTY_BUFFER, Callback.NOOP);
+    private final Object lock = this;
+    private final Deque<Chunk> chunks = new ArrayDeque<>();
+    private long queuedBytes;
+    // END AMAZON CHANGES
     private final CountDownLatch responseLatch = new CountDownLatch(1);
     private final CountDownLatch resultLatch = new CountDownLatch(1);
     private final AtomicReference<InputStream> stream = new AtomicReference<>();
     private final long maxBufferSize;
     private Response response;
     private Result result;
-    private volatile Throwable failure;
-    private volatile boolean closed;
+    private Throwable failure;
+    private boolean closed;
 
     public InputStreamResponseListener()
     {
-        this(16 * 1024L);
+        this(DEFAULT_MAX_BUFFER_SIZE);
     }
 
+    /**
+     * @param maxBufferSize the maximum number of received but unread bytes before the
+     * response is aborted
+     */
     public InputStreamResponseListener(long maxBufferSize)
     {
         this.maxBufferSize = maxBufferSize;
@@ -113,120 +130,131 @@ public class InputStreamResponseListener extends Listener.Adapter
     @Override
     public void onHeaders(Response response)
     {
-        this.response = response;
+        synchronized (lock)
+        {
+            this.response = response;
+        }
         responseLatch.countDown();
     }
 
+    // START AMAZON CHANGES
     @Override
-    public void onContent(Response response, ByteBuffer content)
+    public void onContent(Response response, ByteBuffer content, Callback callback)
     {
-        if (!closed)
+        int remaining = content.remaining();
+        if (remaining == 0)
         {
-            int remaining = content.remaining();
-            if (remaining > 0)
-            {
-
-                byte[] bytes = new byte[remaining];
-                content.get(bytes);
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Queuing {}/{} bytes", bytes, remaining);
-                }
-                queue.offer(bytes);
-
-                long newLength = length.addAndGet(remaining);
-                while (newLength >= maxBufferSize)
-                {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Queued bytes limit {}/{} exceeded, waiting", newLength, maxBufferSize);
-                    }
-                    // Block to avoid infinite buffering
-                    if (!await()) {
-                        break;
-                    }
-                    newLength = length.get();
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Queued bytes limit {}/{} exceeded, woken up", newLength, maxBufferSize);
-                    }
-                }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Queuing skipped, empty content {}", content);
             }
-            else
-            {
+            callback.succeeded();
+            return;
+        }
+
+        boolean overBudget = false;
+        Throwable rejection = null;
+        synchronized (lock)
+        {
+            if (closed) {
+                rejection = new AsynchronousCloseException();
+            } else if (failure != null) {
+                rejection = failure;
+            } else {
+                chunks.add(new Chunk(content, callback));
+                queuedBytes += remaining;
+                overBudget = queuedBytes > maxBufferSize;
                 if (LOG.isDebugEnabled()) {
-                    LOG.debug("Queuing skipped, empty content {}", content);
+                    LOG.debug("Queued {}/{} bytes", remaining, queuedBytes);
                 }
+                lock.notifyAll();
             }
         }
-        else
+
+        if (rejection != null)
+        {
+            LOG.debug("Queuing skipped, stream already closed or failed");
+            callback.failed(rejection);
+        }
+        else if (overBudget)
         {
-            LOG.debug("Queuing skipped, stream already closed");
+            response.abort(new IOException("Queued bytes limit " + maxBufferSize
+                    + " exceeded by an unread response"));
         }
     }
+    // END AMAZON CHANGES
 
     @Override
     public void onSuccess(Response response)
     {
+        synchronized (lock)
+        {
+            if (!closed) {
+                chunks.add(EOF);
+            }
+            lock.notifyAll();
+        }
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Queuing end of content {}{}", EOF, "");
+            LOG.debug("End of content");
         }
-        queue.offer(EOF);
-        signal();
     }
 
     @Override
     public void onFailure(Response response, Throwable failure)
     {
         fail(failure);
-        signal();
     }
 
     @Override
     public void onComplete(Result result)
     {
-        if (result.isFailed() && (failure == null)) {
+        if (result.isFailed()) {
             fail(result.getFailure());
         }
-        this.result = result;
+        synchronized (lock)
+        {
+            this.result = result;
+        }
         resultLatch.countDown();
-        signal();
     }
 
+    // START AMAZON CHANGES
     private void fail(Throwable failure)
     {
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Queuing failure {} {}", FAILURE, failure);
-        }
-        queue.offer(FAILURE);
-        this.failure = failure;
-        responseLatch.countDown();
-    }
-
-    protected boolean await()
-    {
-        try
+        List<Callback> callbacks;
+        synchronized (lock)
         {
-            synchronized (this)
-            {
-                while ((length.get() >= maxBufferSize) && (failure == null) && !closed) {
-                    wait();
-                }
-                // Re-read the values as they may have changed while waiting.
-                return (failure == null) && !closed;
+            if (this.failure != null) {
+                return;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failure {}", failure);
             }
+            this.failure = failure;
+            callbacks = drain();
+            lock.notifyAll();
         }
-        catch (InterruptedException x)
-        {
-            Thread.currentThread().interrupt();
-            return false;
+        responseLatch.countDown();
+        for (Callback callback : callbacks) {
+            callback.failed(failure);
         }
     }
 
-    protected void signal()
+    /**
+     * Removes all queued chunks. Must be called while holding the lock.
+     *
+     * @return the callbacks of the removed chunks, to be completed outside the lock
+     */
+    private List<Callback> drain()
     {
-        synchronized (this)
-        {
-            notifyAll();
+        List<Callback> callbacks = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            callbacks.add(chunk.callback);
         }
+        chunks.clear();
+        queuedBytes = 0;
+        return callbacks;
     }
+    // END AMAZON CHANGES
 
     /**
      * Waits for the given timeout for the response to be available, then returns it.
@@ -247,10 +275,13 @@ public class InputStreamResponseListener extends Listener.Adapter
         if (expired) {
             throw new TimeoutException();
         }
-        if (failure != null) {
-            throw new ExecutionException(failure);
+        synchronized (lock)
+        {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return response;
         }
-        return response;
     }
 
     /**
@@ -271,7 +302,10 @@ public class InputStreamResponseListener extends Listener.Adapter
         if (expired) {
             throw new TimeoutException();
         }
-        return result;
+        synchronized (lock)
+        {
+            return result;
+        }
     }
 
     /**
@@ -290,59 +324,35 @@ public class InputStreamResponseListener extends Listener.Adapter
         return IO.getClosedStream();
     }
 
-    private class Input extends InputStream
+    // START AMAZON CHANGES
+    private static class Chunk
     {
-        private byte[] bytes;
-        private int index;
+        private final ByteBuffer buffer;
+        private final Callback callback;
+
+        private Chunk(ByteBuffer buffer, Callback callback)
+        {
+            this.buffer = buffer;
+            this.callback = callback;
+        }
+    }
 
+    private class Input extends InputStream
+    {
         @Override
         public int read() throws IOException
         {
-            while (true)
-            {
-                if (bytes == EOF)
-                {
-                    // Mark the fact that we saw -1,
-                    // so that in the close case we don't throw
-                    index = -1;
-                    return -1;
-                }
-                else if (bytes == FAILURE)
-                {
-                    throw failure();
-                }
-                else if (bytes == CLOSED)
-                {
-                    if (index < 0) {
-                        return -1;
-                    }
-                    throw new AsynchronousCloseException();
-                }
-                else if (bytes != null)
-                {
-                    int result = bytes[index] & 0xFF;
-                    if (++index == bytes.length)
-                    {
-                        length.addAndGet(-index);
-                        bytes = null;
-                        index = 0;
-                        signal();
-                    }
-                    return result;
-                }
-                else
-                {
-                    bytes = take();
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Dequeued {}/{} bytes", bytes, bytes.length);
-                    }
-                }
+            byte[] tmp = new byte[1];
+            int read = read(tmp, 0, 1);
+            if (read < 0) {
+                return read;
             }
+            return tmp[0] & 0xFF;
         }
 
-        // START AMAZON CHANGES
         @Override
-        public int read(byte buffer[], int offset, int length) throws IOException {
+        public int read(byte buffer[], int offset, int length) throws IOException
+        {
             if (buffer == null) {
                 throw new NullPointerException();
             } else if ((offset < 0) || (length < 0) || (length > (buffer.length - offset))) {
@@ -351,67 +361,94 @@ public class InputStreamResponseListener extends Listener.Adapter
                 return 0;
             }
 
-            // Contract specifies must attempt to read at least one byte. If the stream is at end of file: the value -1 is returned
-            int singleByte = read();
-            if (singleByte == -1) {
-                return -1;
-            }
-            buffer[offset] = (byte)singleByte;
-
-            int bytesWritten = 1;
-            try {
-                while (bytesWritten < length) {
-                    singleByte = read();
-                    if (singleByte == -1) {
-                        break;
+            try
+            {
+                int result;
+                Callback callback = null;
+                synchronized (lock)
+                {
+                    Chunk chunk;
+                    while (true)
+                    {
+                        chunk = chunks.peekFirst();
+                        if (chunk == EOF) {
+                            return -1;
+                        }
+                        if (chunk != null) {
+                            break;
+                        }
+                        if (failure != null) {
+                            throw toIOException(failure);
+                        }
+                        if (closed) {
+                            throw new AsynchronousCloseException();
+                        }
+                        lock.wait();
                     }
-                    buffer[offset + bytesWritten] = (byte)singleByte;
-                    bytesWritten++;
 
-                    if (queue.isEmpty()) {
-                        break;
+                    ByteBuffer content = chunk.buffer;
+                    result = Math.min(content.remaining(), length);
+                    content.get(buffer, offset, result);
+                    queuedBytes -= result;
+                    if (!content.hasRemaining())
+                    {
+                        callback = chunk.callback;
+                        chunks.pollFirst();
                     }
                 }
-            } catch (IOException ee) {
+                // Releases the buffer back to the pool and reopens the flow control window
+                if (callback != null) {
+                    callback.succeeded();
+                }
+                return result;
+            }
+            catch (InterruptedException x)
+            {
+                throw new InterruptedIOException();
             }
-            return bytesWritten;
         }
-        // END AMAZON CHANGES
 
-        private IOException failure()
+        @Override
+        public int available()
         {
-            if (failure instanceof IOException) {
-                return (IOException)failure;
-            } else {
-                return new IOException(failure);
+            synchronized (lock)
+            {
+                Chunk chunk = chunks.peekFirst();
+                return chunk == null ? 0 : chunk.buffer.remaining();
             }
         }
 
-        private byte[] take() throws IOException
+        private IOException toIOException(Throwable failure)
         {
-            try
-            {
-                return queue.take();
-            }
-            catch (InterruptedException x)
-            {
-                throw new InterruptedIOException();
+            if (failure instanceof IOException) {
+                return (IOException)failure;
+            } else {
+                return new IOException(failure);
             }
         }
 
         @Override
         public void close() throws IOException
         {
-            if (!closed)
+            List<Callback> callbacks;
+            synchronized (lock)
             {
-                super.close();
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Queuing close {}{}", CLOSED, "");
+                if (closed) {
+                    return;
                 }
-                queue.offer(CLOSED);
                 closed = true;
-                signal();
+                callbacks = drain();
+                lock.notifyAll();
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("InputStream close");
+            }
+            Throwable failure = new AsynchronousCloseException();
+            for (Callback callback : callbacks) {
+                callback.failed(failure);
             }
+            super.close();
         }
     }
-}
\ No newline at end of file
+    // END AMAZON CHANGES
+}
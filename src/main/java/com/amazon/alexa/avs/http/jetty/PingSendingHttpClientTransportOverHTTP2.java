@@ -13,31 +13,37 @@ import org.eclipse.jetty.client.HttpDestination;
 import org.eclipse.jetty.client.Origin;
 import org.eclipse.jetty.client.api.Connection;
 import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
 import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.HTTP2ClientConnectionFactory;
 import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
 import org.eclipse.jetty.http2.client.http.HttpConnectionOverHTTP2;
 import org.eclipse.jetty.http2.client.http.HttpDestinationOverHTTP2;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
 import org.eclipse.jetty.http2.frames.PingFrame;
-import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.http2.frames.SettingsFrame;
+import org.eclipse.jetty.io.EndPoint;
 
+import java.io.IOException;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
- * Sends an HTTP/2 PING frame every 5 minutes after a connection is opened.
+ * Hands every HTTP/2 session to a {@link SessionListener}, which sends the PING frames that keep
+ * the connection alive, together with the replies to those PINGs and the closing of the session.
  */
 public class PingSendingHttpClientTransportOverHTTP2 extends HttpClientTransportOverHTTP2 {
-    private static final int PING_INTERVAL_IN_MINUTES = 5;
-    private static final int INITIAL_PING_DELAY_IN_MINUTES = PING_INTERVAL_IN_MINUTES;
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     private Optional<ConnectionListener> connectionListener = Optional.empty();
+    private Optional<SessionListener> sessionListener = Optional.empty();
     private HttpClient httpClient;
 
-    public PingSendingHttpClientTransportOverHTTP2(HTTP2Client client, ConnectionListener connectionListener) {
+    public PingSendingHttpClientTransportOverHTTP2(HTTP2Client client, ConnectionListener connectionListener,
+            SessionListener sessionListener) {
         super(client);
         this.connectionListener = Optional.ofNullable(connectionListener);
+        this.sessionListener = Optional.ofNullable(sessionListener);
     }
 
     @Override
@@ -46,10 +52,22 @@ public class PingSendingHttpClientTransportOverHTTP2 extends HttpClientTransport
         httpClient = client;
     }
 
+    @Override
+    public org.eclipse.jetty.io.Connection newConnection(EndPoint endPoint, Map<String, Object> context)
+            throws IOException {
+        // HTTP2Client has put the listener for the new session in the context, wrap it so that the
+        // session's PING replies and closing can be seen
+        Object listener = context.get(HTTP2ClientConnectionFactory.SESSION_LISTENER_CONTEXT_KEY);
+        if (listener instanceof Session.Listener && sessionListener.isPresent()) {
+            context.put(HTTP2ClientConnectionFactory.SESSION_LISTENER_CONTEXT_KEY,
+                    new NotifyingSessionListener((Session.Listener) listener));
+        }
+        return super.newConnection(endPoint, context);
+    }
+
     @Override
     protected HttpConnectionOverHTTP2 newHttpConnection(HttpDestination destination, Session session) {
-        scheduler.scheduleAtFixedRate(new ServerPing(session), INITIAL_PING_DELAY_IN_MINUTES,
-                PING_INTERVAL_IN_MINUTES, TimeUnit.MINUTES);
+        sessionListener.ifPresent(l -> l.onSessionOpened(session));
         return super.newHttpConnection(destination, session);
     }
 
@@ -80,21 +98,59 @@ public class PingSendingHttpClientTransportOverHTTP2 extends HttpClientTransport
     }
 
     /**
-     * Task to send a PING frame over an open HTTP/2 Session.
+     * Passes every session event on to the listener created by {@link HttpClientTransportOverHTTP2},
+     * telling the {@link SessionListener} about PING replies and the session closing.
      */
-    private static class ServerPing implements Runnable {
-        private Session session;
+    private class NotifyingSessionListener implements Session.Listener {
+        private final Session.Listener delegate;
+
+        private NotifyingSessionListener(Session.Listener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Map<Integer, Integer> onPreface(Session session) {
+            return delegate.onPreface(session);
+        }
+
+        @Override
+        public Stream.Listener onNewStream(Stream stream, HeadersFrame frame) {
+            return delegate.onNewStream(stream, frame);
+        }
 
-        private ServerPing(Session session) {
-            this.session = session;
+        @Override
+        public void onSettings(Session session, SettingsFrame frame) {
+            delegate.onSettings(session, frame);
         }
 
         @Override
-        public void run() {
-            if (!session.isClosed()) {
-                PingFrame frame = new PingFrame(false);
-                session.ping(frame, Callback.NOOP);
+        public void onPing(Session session, PingFrame frame) {
+            if (frame.isReply()) {
+                sessionListener.ifPresent(l -> l.onPingReply(session, frame));
             }
+            delegate.onPing(session, frame);
+        }
+
+        @Override
+        public void onReset(Session session, ResetFrame frame) {
+            delegate.onReset(session, frame);
+        }
+
+        @Override
+        public void onClose(Session session, GoAwayFrame frame) {
+            sessionListener.ifPresent(l -> l.onSessionClosed(session));
+            delegate.onClose(session, frame);
+        }
+
+        @Override
+        public boolean onIdleTimeout(Session session) {
+            return delegate.onIdleTimeout(session);
+        }
+
+        @Override
+        public void onFailure(Session session, Throwable failure) {
+            sessionListener.ifPresent(l -> l.onSessionClosed(session));
+            delegate.onFailure(session, failure);
         }
     }
 
@@ -105,4 +161,15 @@ public class PingSendingHttpClientTransportOverHTTP2 extends HttpClientTransport
         void onConnected();
         void onDisconnected();
     }
+
+    /**
+     * Listener for the lifecycle of the HTTP/2 sessions underneath the connections.
+     */
+    public interface SessionListener {
+        void onSessionOpened(Session session);
+
+        void onPingReply(Session session, PingFrame frame);
+
+        void onSessionClosed(Session session);
+    }
 }
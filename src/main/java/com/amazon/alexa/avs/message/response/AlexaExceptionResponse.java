@@ -29,8 +29,17 @@ public class AlexaExceptionResponse extends Message {
      * @throws AlexaSystemException
      */
     public void throwException() throws AlexaSystemException {
+        throwException(-1);
+    }
+
+    /**
+     * @param statusCode
+     *            HTTP status of the response that carried the exception.
+     * @throws AlexaSystemException
+     */
+    public void throwException(int statusCode) throws AlexaSystemException {
         com.amazon.alexa.avs.message.response.system.Exception payload =
                 (com.amazon.alexa.avs.message.response.system.Exception) this.payload;
-        throw new AlexaSystemException(payload.getCode(), payload.getDescription());
+        throw new AlexaSystemException(payload.getCode(), payload.getDescription(), statusCode);
     }
 }
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.trace;
+
+import com.amazon.alexa.avs.config.ObjectMapperFactory;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A Jetty Handler for sending the {@link LatencyTracer} report as JSON.
+ */
+public class LatencyReportHandler extends AbstractHandler {
+    private final LatencyTracer tracer;
+
+    public LatencyReportHandler(LatencyTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request,
+            HttpServletResponse response) throws IOException, ServletException {
+        // Only handle this as a GET request.
+        if (!request.getMethod().equals("GET")) {
+            baseRequest.setHandled(false);
+            return;
+        }
+
+        baseRequest.setHandled(true);
+        response.setContentType("application/json");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().print(
+                ObjectMapperFactory.getObjectWriter().writeValueAsString(tracer.getReport()));
+    }
+}
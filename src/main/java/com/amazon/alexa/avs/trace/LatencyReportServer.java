@@ -0,0 +1,79 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.trace;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Jetty server that serves the {@link LatencyTracer} report at {@code /latency}. It only listens
+ * on the loopback interface, so the report is not exposed to the network.
+ */
+public class LatencyReportServer {
+    private static final Logger log = LoggerFactory.getLogger(LatencyReportServer.class);
+
+    public static final int DEFAULT_PORT = 8096;
+    private static final String LOOPBACK_HOST = "127.0.0.1";
+
+    private final LatencyTracer tracer;
+    private final int port;
+    private Server jettyServer;
+
+    public LatencyReportServer(LatencyTracer tracer, int port) {
+        this.tracer = tracer;
+        this.port = port;
+    }
+
+    /**
+     * Starts the server without blocking. Failing to start, for example because the port is taken,
+     * is logged and otherwise ignored.
+     */
+    public synchronized void startServer() {
+        if (jettyServer != null) {
+            return;
+        }
+        Server server = new Server();
+
+        ContextHandler context = new ContextHandler("/latency");
+        context.setAllowNullPathInfo(true);
+        context.setHandler(new LatencyReportHandler(tracer));
+        server.setHandler(context);
+
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost(LOOPBACK_HOST);
+        connector.setPort(port);
+        server.addConnector(connector);
+
+        try {
+            server.start();
+            jettyServer = server;
+            log.info("Serving voice interaction latency at http://{}:{}/latency", LOOPBACK_HOST,
+                    port);
+        } catch (Exception e) {
+            log.warn("Could not start the latency report server on port {}", port, e);
+            server.destroy();
+        }
+    }
+
+    public synchronized void stopServer() {
+        if (jettyServer == null) {
+            return;
+        }
+        try {
+            jettyServer.stop();
+        } catch (Exception e) {
+            log.warn("Could not stop the latency report server", e);
+        }
+        jettyServer.destroy();
+        jettyServer = null;
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.trace;
+
+/**
+ * The stages of a voice interaction, in the order they normally happen.
+ */
+public enum LatencyStage {
+    /** The push to talk button was pressed. */
+    BUTTON_PRESSED,
+    /** A speech request was started and given its dialogRequestId. */
+    RECORDING_STARTED,
+    /** The first frame was read from the microphone for the request. */
+    FIRST_AUDIO_CAPTURED,
+    /** The first audio bytes were handed to the HTTP client. */
+    FIRST_BYTE_SENT,
+    /** The first directive of the response was parsed. */
+    FIRST_DIRECTIVE_PARSED,
+    /** The first directive was queued for dispatch. */
+    FIRST_DIRECTIVE_ENQUEUED,
+    /** The first directive was dispatched to its handler. */
+    FIRST_DIRECTIVE_DISPATCHED,
+    /** The first Speak audio was handed to the audio line. */
+    FIRST_SPEECH_PLAYED;
+}
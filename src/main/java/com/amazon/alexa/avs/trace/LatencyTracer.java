@@ -0,0 +1,257 @@
+/**
+ * Copyright 2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traces where the time goes in each voice interaction, from the button press to the first audio
+ * played back. Each stage is stamped at most once per dialogRequestId, into one of a fixed number
+ * of preallocated traces that are reused in turn, and its latency since the start of the
+ * interaction is recorded in a {@link LatencyHistogram} for that stage. Stamping a stage takes a
+ * short lock and does not allocate, so it is safe to call from the audio and network threads.
+ */
+public class LatencyTracer {
+    private static final Logger log = LoggerFactory.getLogger(LatencyTracer.class);
+
+    private static final int TRACE_COUNT = 64;
+    // A button press this long before a speech request did not start it
+    private static final long PRESS_TO_RECORDING_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final LatencyStage[] STAGES = LatencyStage.values();
+    private static final double[] REPORTED_PERCENTILES = { 50, 90, 99 };
+
+    private static final LatencyTracer sInstance = new LatencyTracer();
+
+    // Guarded by this
+    private final Trace[] traces = new Trace[TRACE_COUNT];
+    private long startedCount;
+    // Started by a button press, and not yet given a dialogRequestId
+    private Trace pending;
+    // The interaction in progress
+    private Trace current;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+    private ScheduledExecutorService logExecutor;
+
+    private static class Trace {
+        private String dialogRequestId;
+        private final long[] stampNanos = new long[STAGES.length];
+
+        void reset() {
+            dialogRequestId = null;
+            for (int i = 0; i < stampNanos.length; i++) {
+                stampNanos[i] = 0;
+            }
+        }
+
+        long originNanos() {
+            long origin = stampNanos[LatencyStage.BUTTON_PRESSED.ordinal()];
+            return origin != 0 ? origin : stampNanos[LatencyStage.RECORDING_STARTED.ordinal()];
+        }
+    }
+
+    private LatencyTracer() {
+        for (int i = 0; i < TRACE_COUNT; i++) {
+            traces[i] = new Trace();
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static LatencyTracer getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Starts tracing an interaction at a button press. A press that does not start a speech
+     * request is overwritten by the next one.
+     */
+    public void buttonPressed() {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (pending == null) {
+                pending = nextTrace();
+            } else {
+                pending.reset();
+            }
+            pending.stampNanos[LatencyStage.BUTTON_PRESSED.ordinal()] = now;
+        }
+    }
+
+    /**
+     * Gives the interaction started by the last button press, or a new one if there was no press,
+     * its dialogRequestId and makes it the interaction in progress.
+     */
+    public void recordingStarted(String dialogRequestId) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            Trace trace = pending != null ? pending : nextTrace();
+            pending = null;
+            if (now - trace.originNanos() > PRESS_TO_RECORDING_TIMEOUT_NANOS) {
+                trace.reset();
+            }
+            trace.dialogRequestId = dialogRequestId;
+            current = trace;
+            stamp(trace, LatencyStage.RECORDING_STARTED, now);
+        }
+    }
+
+    /**
+     * Stamps a stage of the interaction in progress.
+     */
+    public void mark(LatencyStage stage) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (current != null) {
+                stamp(current, stage, now);
+            }
+        }
+    }
+
+    /**
+     * Stamps a stage of the interaction with the given dialogRequestId, if it is still traced.
+     */
+    public void mark(String dialogRequestId, LatencyStage stage) {
+        if (dialogRequestId == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            Trace trace = find(dialogRequestId);
+            if (trace != null) {
+                stamp(trace, stage, now);
+            }
+        }
+    }
+
+    /**
+     * @return The latency percentiles of every stage, followed by the stages of the most recent
+     *         interactions, as a structure of maps and lists that can be written as JSON.
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (LatencyStage stage : STAGES) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", histogram.getCount());
+            summary.put("meanMs", histogram.getMean());
+            for (double percentile : REPORTED_PERCENTILES) {
+                summary.put("p" + (int) percentile + "Ms", histogram.getPercentile(percentile));
+            }
+            summary.put("maxMs", histogram.getMax());
+            stages.put(stage.name(), summary);
+        }
+
+        List<Object> recent = new ArrayList<>();
+        synchronized (this) {
+            long oldest = Math.max(0, startedCount - TRACE_COUNT);
+            for (long i = startedCount - 1; i >= oldest; i--) {
+                Trace trace = traces[(int) (i % TRACE_COUNT)];
+                if (trace.dialogRequestId == null) {
+                    continue;
+                }
+                Map<String, Object> interaction = new LinkedHashMap<>();
+                interaction.put("dialogRequestId", trace.dialogRequestId);
+                long origin = trace.originNanos();
+                for (LatencyStage stage : STAGES) {
+                    long stamp = trace.stampNanos[stage.ordinal()];
+                    if (stamp != 0) {
+                        interaction.put(stage.name(),
+                                TimeUnit.NANOSECONDS.toMillis(stamp - origin));
+                    }
+                }
+                recent.add(interaction);
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("stages", stages);
+        report.put("recent", recent);
+        return report;
+    }
+
+    /**
+     * Logs a summary of the stage latencies at the given period, whenever there were new
+     * interactions.
+     */
+    public synchronized void startPeriodicLog(long period, TimeUnit unit) {
+        if (logExecutor != null) {
+            return;
+        }
+        logExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LatencyTracerLog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] lastCount = new long[1];
+        logExecutor.scheduleAtFixedRate(() -> {
+            long count = getStartedCount();
+            if (count == lastCount[0]) {
+                return;
+            }
+            lastCount[0] = count;
+            StringBuilder summary = new StringBuilder("Voice interaction latency p50/p90/p99 ms:");
+            for (LatencyStage stage : STAGES) {
+                LatencyHistogram histogram = histograms[stage.ordinal()];
+                if (histogram.getCount() > 0) {
+                    summary.append(String.format(" %s=%d/%d/%d", stage.name(),
+                            histogram.getPercentile(50), histogram.getPercentile(90),
+                            histogram.getPercentile(99)));
+                }
+            }
+            log.info(summary.toString());
+        }, period, period, unit);
+    }
+
+    private synchronized long getStartedCount() {
+        return startedCount;
+    }
+
+    private Trace nextTrace() {
+        Trace trace = traces[(int) (startedCount++ % TRACE_COUNT)];
+        if (trace == current) {
+            current = null;
+        }
+        trace.reset();
+        return trace;
+    }
+
+    private Trace find(String dialogRequestId) {
+        if (current != null && dialogRequestId.equals(current.dialogRequestId)) {
+            return current;
+        }
+        for (Trace trace : traces) {
+            if (dialogRequestId.equals(trace.dialogRequestId)) {
+                return trace;
+            }
+        }
+        return null;
+    }
+
+    private void stamp(Trace trace, LatencyStage stage, long now) {
+        if (trace.stampNanos[stage.ordinal()] != 0) {
+            return;
+        }
+        trace.stampNanos[stage.ordinal()] = now;
+        long origin = trace.originNanos();
+        if (origin != 0 && origin != now) {
+            histograms[stage.ordinal()].record(TimeUnit.NANOSECONDS.toMillis(now - origin));
+        }
+    }
+}
@@ -106,7 +106,8 @@ public class Alexa implements ExpectSpeechListener, RecordingRMSListener,
         this.mainWindow = mainWindow;
         deviceConfig = config;
         controller = new AVSController(this, new AVSAudioPlayerFactory(), new AlertManagerFactory(),
-                getAVSClientFactory(deviceConfig), DialogRequestIdAuthority.getInstance());
+                getAVSClientFactory(deviceConfig), DialogRequestIdAuthority.getInstance(),
+                deviceConfig.getPreRollMilliseconds());
 
         authSetup = new AuthSetup(config, this);
         authSetup.addAccessTokenListener(this);
@@ -208,19 +209,10 @@ public class Alexa implements ExpectSpeechListener, RecordingRMSListener,
      */
     @Override
     public void onExpectSpeechDirective() {
-        Thread thread = new Thread() {
-            @Override
-            public void run() {
-                while (!mainWindow.getPttState().equals(START_LABEL) || controller.isSpeaking()) {
-                    try {
-                        Thread.sleep(500);
-                    } catch (Exception e) {
-                    }
-                }
-                pttPressed();
-            }
-        };
-        thread.start();
+        // listen again once the previous request and any speech have finished
+        controller.getPlaybackCoordinator().when("ExpectSpeech",
+                () -> mainWindow.getPttState().equals(START_LABEL) && !controller.isSpeaking(),
+                this::pttPressed);
 
     }
 
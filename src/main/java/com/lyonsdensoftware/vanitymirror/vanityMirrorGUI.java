@@ -24,6 +24,7 @@ package com.lyonsdensoftware.vanitymirror;
 // IMPORTS
 import com.lyonsdensoftware.config.DeviceConfig;
 import com.lyonsdensoftware.config.DeviceConfigUtils;
+import com.amazon.alexa.avs.trace.LatencyTracer;
 
 //import com.lyonsdensoftware.facerecognition.Train;
 
@@ -483,6 +484,7 @@ class MyButtonListerner implements ActionListener {
     
     @Override
     public void actionPerformed(ActionEvent e) {
+        LatencyTracer.getInstance().buttonPressed();
         // Call the ptt pressed from Alexa
         privateAlexa.pttPressed();
     }
@@ -505,6 +507,7 @@ class MyGpioPinListener implements GpioPinListenerDigital {
         // Only do something when the ptt is down. Makes it so the function doesnt
         // double fire when bttn is released.
         if (event.getState() == PinState.LOW) {
+            LatencyTracer.getInstance().buttonPressed();
             // Call the ptt pressed from Alexa
             privateAlexa.pttPressed();
         }
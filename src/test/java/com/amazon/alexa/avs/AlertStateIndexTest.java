@@ -0,0 +1,163 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.alexa.avs.AlertStateIndex.Snapshot;
+import com.amazon.alexa.avs.message.request.context.AlertsStatePayload;
+import com.amazon.alexa.avs.message.response.alerts.SetAlert.AlertType;
+
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AlertStateIndexTest {
+    private final AlertStateIndex index = new AlertStateIndex();
+
+    @Test
+    public void tracksAllAndActiveAlerts() {
+        Alert timer = alert("timer");
+        Alert alarm = alert("alarm");
+        index.put(timer);
+        index.put(alarm);
+        index.setActive("alarm", true);
+
+        AlertsStatePayload state = index.snapshot().getState();
+        assertEquals(Arrays.asList(timer, alarm), state.getAllAlerts());
+        assertEquals(Collections.singletonList(alarm), state.getActiveAlerts());
+
+        index.remove("alarm");
+        state = index.snapshot().getState();
+        assertEquals(Collections.singletonList(timer), state.getAllAlerts());
+        assertTrue(state.getActiveAlerts().isEmpty());
+        assertTrue(index.snapshot().getActiveTokens().isEmpty());
+    }
+
+    @Test
+    public void publishedSnapshotsNeverChange() {
+        index.put(alert("a"));
+        Snapshot before = index.snapshot();
+        index.put(alert("b"));
+        index.setActive("a", true);
+        index.remove("a");
+
+        assertEquals(1, before.getAllAlerts().size());
+        assertTrue(before.contains("a"));
+        assertFalse(before.contains("b"));
+        assertTrue(before.getActiveTokens().isEmpty());
+        assertEquals(before.getVersion() + 3, index.snapshot().getVersion());
+    }
+
+    @Test
+    public void changesThatChangeNothingKeepTheSnapshot() {
+        index.put(alert("a"));
+        Snapshot before = index.snapshot();
+        index.setActive("a", false);
+        index.remove("missing");
+        assertSame(before, index.snapshot());
+    }
+
+    @Test
+    public void activeAlertsThatAreNotKnownAreLeftOutOfTheState() {
+        index.setActive("unknown", true);
+        assertEquals(Collections.singleton("unknown"), index.snapshot().getActiveTokens());
+        assertTrue(index.snapshot().getState().getActiveAlerts().isEmpty());
+    }
+
+    @Test
+    public void concurrentWritersLoseNoChanges() throws Exception {
+        int writers = 8;
+        int alertsPerWriter = 500;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<String> inconsistency = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> {
+            long lastVersion = -1;
+            while (writing.get()) {
+                Snapshot snapshot = index.snapshot();
+                if (snapshot.getVersion() < lastVersion) {
+                    inconsistency.set("version went back");
+                }
+                lastVersion = snapshot.getVersion();
+                for (Alert active : snapshot.getState().getActiveAlerts()) {
+                    if (!snapshot.contains(active.getToken())) {
+                        inconsistency.set(active.getToken() + " is active but not known");
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            String prefix = "writer-" + w + "-";
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < alertsPerWriter; i++) {
+                    String token = prefix + i;
+                    index.put(alert(token));
+                    index.setActive(token, true);
+                    // Every other alert is stopped again
+                    if (i % 2 == 0) {
+                        index.remove(token);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writing.set(false);
+        reader.join();
+
+        Snapshot snapshot = index.snapshot();
+        Set<String> expected = new HashSet<>();
+        for (int w = 0; w < writers; w++) {
+            for (int i = 1; i < alertsPerWriter; i += 2) {
+                expected.add("writer-" + w + "-" + i);
+            }
+        }
+        Set<String> all = new HashSet<>();
+        for (Alert alert : snapshot.getAllAlerts()) {
+            all.add(alert.getToken());
+        }
+        assertEquals(expected, all);
+        assertEquals(expected, snapshot.getActiveTokens());
+        // Each put, start and stop is one version
+        assertEquals(writers * (alertsPerWriter * 2 + alertsPerWriter / 2),
+                snapshot.getVersion());
+        assertNull(inconsistency.get());
+    }
+
+    private static Alert alert(String token) {
+        return new Alert(token, AlertType.TIMER, ZonedDateTime.now().plusHours(1));
+    }
+}
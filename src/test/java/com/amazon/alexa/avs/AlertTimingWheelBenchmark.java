@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules many alert timeouts on one {@link AlertTimingWheel}, cancels every other one, and
+ * reports the threads and heap the timeouts took, how many fired, whether any fired early, and how
+ * late the rest were.
+ *
+ * Usage: AlertTimingWheelBenchmark [alerts] [tickMs]
+ */
+public final class AlertTimingWheelBenchmark {
+    private static final int DEFAULT_ALERTS = 10000;
+    private static final long DEFAULT_TICK_MS = 10;
+    private static final int WHEEL_SIZE = 512;
+    // Alerts are due between one and five seconds from now
+    private static final long FIRST_DUE_MS = 1000;
+    private static final long SPREAD_MS = 4000;
+
+    private AlertTimingWheelBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int alerts = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ALERTS;
+        long tickMs = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_TICK_MS;
+
+        AlertTimingWheel wheel = new AlertTimingWheel(tickMs, WHEEL_SIZE);
+        int expectedFires = alerts - alerts / 2;
+        CountDownLatch fired = new CountDownLatch(expectedFires);
+        AtomicInteger firedCount = new AtomicInteger();
+        AtomicInteger earlyCount = new AtomicInteger();
+        AtomicLong maxLatenessMs = new AtomicLong();
+        int threadsBefore = Thread.activeCount();
+        long heapBefore = usedHeap();
+
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        long scheduleStart = System.nanoTime();
+        List<AlertTimingWheel.Timeout> timeouts = new ArrayList<>(alerts);
+        for (int i = 0; i < alerts; i++) {
+            long dueMs = now + FIRST_DUE_MS + (long) (random.nextDouble() * SPREAD_MS);
+            timeouts.add(wheel.schedule(Instant.ofEpochMilli(dueMs), () -> {
+                long latenessMs = System.currentTimeMillis() - dueMs;
+                if (latenessMs < 0) {
+                    earlyCount.incrementAndGet();
+                }
+                maxLatenessMs.accumulateAndGet(latenessMs, Math::max);
+                firedCount.incrementAndGet();
+                fired.countDown();
+            }));
+        }
+        long scheduleNanos = System.nanoTime() - scheduleStart;
+        int threadsAdded = Thread.activeCount() - threadsBefore;
+        long heapAdded = usedHeap() - heapBefore;
+
+        long cancelStart = System.nanoTime();
+        int cancelled = 0;
+        for (int i = 0; i < alerts; i += 2) {
+            if (timeouts.get(i).cancel()) {
+                cancelled++;
+            }
+        }
+        long cancelNanos = System.nanoTime() - cancelStart;
+
+        boolean finished = fired.await(FIRST_DUE_MS + SPREAD_MS + 5000, TimeUnit.MILLISECONDS);
+        // Give a timeout that should have been cancelled the chance to fire anyway
+        Thread.sleep(5 * tickMs);
+
+        System.out.printf("%d alerts on a %d ms wheel, %d thread(s) started%n", alerts, tickMs,
+                threadsAdded);
+        System.out.printf("heap grew by %d KiB, %d bytes per alert%n", heapAdded / 1024,
+                heapAdded / alerts);
+        System.out.printf("scheduled in %.1f ms, cancelled %d in %.1f ms%n", scheduleNanos / 1e6,
+                cancelled, cancelNanos / 1e6);
+        System.out.printf("fired %d of %d%s, %d early, worst lateness %d ms%n", firedCount.get(),
+                expectedFires, finished ? "" : " (timed out)", earlyCount.get(),
+                maxLatenessMs.get());
+        System.out.printf("%d still pending%n", wheel.getPendingCount());
+    }
+
+    /**
+     * @return The bytes of heap in use once garbage has been collected, as far as it can be.
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // One collection may leave garbage behind, so settle on the lowest of a few
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import com.amazon.alexa.avs.AlertManager.ResultListener;
+import com.amazon.alexa.avs.message.response.alerts.SetAlert.AlertType;
+
+import java.io.File;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Times how long each alert data store takes to persist N alert adds, deletes of half of them, and
+ * adds of those again. The changes are made once in a burst, as when directives arrive together,
+ * and once one at a time, waiting for each to be persisted. Both stores write to the working
+ * directory, so run it from an empty one.
+ *
+ * Usage: AlertsDataStoreBenchmark [alerts]
+ */
+public final class AlertsDataStoreBenchmark {
+    private static final int DEFAULT_ALERTS = 1000;
+    private static final String[] STORE_FILES = { "alarms.json", "alarms.json.tmp",
+            "alarms.journal" };
+
+    private AlertsDataStoreBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ALERTS;
+        for (String name : STORE_FILES) {
+            if (new File(name).exists()) {
+                System.err.println(name + " exists, run this from an empty directory");
+                System.exit(1);
+            }
+        }
+
+        List<Alert> alerts = new ArrayList<>(count);
+        ZonedDateTime due = ZonedDateTime.now().plusDays(1);
+        for (int i = 0; i < count; i++) {
+            alerts.add(new Alert("benchmark-" + i, AlertType.ALARM, due.plusSeconds(i)));
+        }
+
+        try {
+            for (boolean oneAtATime : new boolean[] { false, true }) {
+                run("AlertsFileDataStore", AlertsFileDataStore.getInstance(), alerts, oneAtATime);
+                deleteStoreFiles();
+                run("AlertsJournalDataStore", AlertsJournalDataStore.getInstance(), alerts,
+                        oneAtATime);
+                deleteStoreFiles();
+            }
+        } finally {
+            deleteStoreFiles();
+        }
+        // The stores write on executors that do not run as daemons
+        System.exit(0);
+    }
+
+    private static void run(String name, AlertsDataStore store, List<Alert> alerts,
+            boolean oneAtATime) throws InterruptedException {
+        int half = alerts.size() / 2;
+        int changes = alerts.size() + 2 * half;
+        // One permit per persisted change
+        Semaphore done = new Semaphore(0);
+        AtomicInteger failures = new AtomicInteger();
+        ResultListener listener = new ResultListener() {
+            @Override
+            public void onSuccess() {
+                done.release();
+            }
+
+            @Override
+            public void onFailure() {
+                failures.incrementAndGet();
+                done.release();
+            }
+        };
+        int awaitEach = oneAtATime ? 1 : 0;
+
+        // What the alert manager would hold after each change
+        Map<String, Alert> current = new LinkedHashMap<>();
+        Supplier<List<Alert>> allAlerts = () -> new ArrayList<>(current.values());
+
+        long start = System.nanoTime();
+        for (Alert alert : alerts) {
+            current.put(alert.getToken(), alert);
+            store.add(alert, allAlerts, listener);
+            done.acquire(awaitEach);
+        }
+        for (Alert alert : alerts.subList(0, half)) {
+            current.remove(alert.getToken());
+            store.delete(alert, allAlerts, listener);
+            done.acquire(awaitEach);
+        }
+        for (Alert alert : alerts.subList(0, half)) {
+            current.put(alert.getToken(), alert);
+            store.add(alert, allAlerts, listener);
+            done.acquire(awaitEach);
+        }
+        boolean finished = done.tryAcquire(changes - awaitEach * changes, 5, TimeUnit.MINUTES);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.printf("%s, %s: %d changes in %d ms%s, %d failed%n", name,
+                oneAtATime ? "one at a time" : "burst", changes, elapsedMs,
+                finished ? "" : " (timed out)", failures.get());
+    }
+
+    private static void deleteStoreFiles() {
+        for (String name : STORE_FILES) {
+            new File(name).delete();
+        }
+    }
+}
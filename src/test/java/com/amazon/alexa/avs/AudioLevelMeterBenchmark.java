@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Times {@link AudioLevelMeter} against the per-sample metering AudioStateOutputStream used to do,
+ * on 10 ms {@link AudioInputFormat#LPCM} chunks of random audio.
+ *
+ * Usage: AudioLevelMeterBenchmark [seconds of audio]
+ */
+public final class AudioLevelMeterBenchmark {
+    private static final int DEFAULT_SECONDS = 3600;
+    private static final int ROUNDS = 5;
+
+    private static volatile int sink;
+
+    private AudioLevelMeterBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+        AudioInputFormat format = AudioInputFormat.LPCM;
+        int chunks = seconds * 1000 / format.getChunkSizeMs();
+        byte[] chunk = new byte[format.getChunkSizeBytes()];
+        new Random(42).nextBytes(chunk);
+
+        RecordingRMSListener listener = rms -> sink += rms;
+        AudioLevelMeter meter = new AudioLevelMeter(format.getAudioFormat(), 50, listener);
+
+        // The first round warms up both, the last one is reported
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < chunks; i++) {
+                legacyCalculateDB(chunk, chunk.length, listener);
+            }
+            long legacyNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < chunks; i++) {
+                meter.process(chunk, 0, chunk.length);
+            }
+            long meterNanos = System.nanoTime() - start;
+
+            if (round == ROUNDS) {
+                System.out.printf("%d s of audio in %d chunks%n", seconds, chunks);
+                System.out.printf("calculateDB     %.0f ns per chunk%n",
+                        (double) legacyNanos / chunks);
+                System.out.printf("AudioLevelMeter %.0f ns per chunk%n",
+                        (double) meterNanos / chunks);
+            }
+        }
+    }
+
+    /**
+     * AudioStateOutputStream.calculateDB as it was before AudioLevelMeter.
+     */
+    private static void legacyCalculateDB(byte[] data, int cnt, RecordingRMSListener rmsListener) {
+        final int bytesPerSample = 2;
+        int len = cnt / bytesPerSample;
+        double avg = 0;
+
+        for (int i = 0; i < cnt; i += bytesPerSample) {
+            ByteBuffer bb = ByteBuffer.allocate(bytesPerSample);
+            bb.order(ByteOrder.LITTLE_ENDIAN);
+            bb.put(data[i]);
+            bb.put(data[i + 1]);
+            double dVal = java.lang.Math.abs(bb.getShort(0));
+            dVal = ((100 * dVal) / (Short.MAX_VALUE / 2.0)) + 1;
+            avg += dVal * dVal;
+        }
+        avg /= len;
+        avg = java.lang.Math.sqrt(avg);
+        rmsListener.rmsChanged((int) avg);
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+
+public class AudioLevelMeterTest {
+    private static final AudioFormat FORMAT = AudioInputFormat.LPCM.getAudioFormat();
+    private static final int CHUNK_BYTES = AudioInputFormat.LPCM.getChunkSizeBytes();
+    private static final int WINDOW_MS = 50;
+    private static final int WINDOW_BYTES = CHUNK_BYTES * WINDOW_MS / 10;
+
+    private static class Levels implements RecordingRMSListener {
+        private final List<Integer> legacy = new ArrayList<>();
+        private final List<Integer> rms = new ArrayList<>();
+        private final List<Integer> peaks = new ArrayList<>();
+        private final List<Double> dbfs = new ArrayList<>();
+
+        @Override
+        public void rmsChanged(int value) {
+            legacy.add(value);
+        }
+
+        @Override
+        public void levelChanged(int rmsValue, int peak, double dbfsValue) {
+            rms.add(rmsValue);
+            peaks.add(peak);
+            dbfs.add(dbfsValue);
+        }
+    }
+
+    @Test
+    public void publishesOncePerWindow() {
+        Levels levels = new Levels();
+        AudioLevelMeter meter = new AudioLevelMeter(FORMAT, WINDOW_MS, levels);
+        byte[] chunk = new byte[CHUNK_BYTES];
+        for (int i = 0; i < 12; i++) {
+            meter.process(chunk, 0, chunk.length);
+        }
+        // 12 chunks of 10 ms fill two 50 ms windows
+        assertEquals(2, levels.legacy.size());
+        assertEquals(2, levels.rms.size());
+    }
+
+    @Test
+    public void matchesTheLegacyLevelOfAWindow() {
+        byte[] window = randomPcm(WINDOW_BYTES, 1);
+        Levels levels = new Levels();
+        AudioLevelMeter meter = new AudioLevelMeter(FORMAT, WINDOW_MS, levels);
+        for (int off = 0; off < window.length; off += CHUNK_BYTES) {
+            meter.process(window, off, CHUNK_BYTES);
+        }
+        assertEquals(1, levels.legacy.size());
+        assertEquals(legacyLevel(window), levels.legacy.get(0).intValue());
+    }
+
+    @Test
+    public void joinsSamplesSplitAcrossChunks() {
+        byte[] window = randomPcm(WINDOW_BYTES, 2);
+        Levels whole = new Levels();
+        new AudioLevelMeter(FORMAT, WINDOW_MS, whole).process(window, 0, window.length);
+
+        Levels split = new Levels();
+        AudioLevelMeter meter = new AudioLevelMeter(FORMAT, WINDOW_MS, split);
+        int off = 0;
+        for (int length : new int[] { 1, 7, 320, 33, 1 }) {
+            meter.process(window, off, length);
+            off += length;
+        }
+        meter.process(window, off, window.length - off);
+
+        assertEquals(whole.legacy, split.legacy);
+        assertEquals(whole.rms, split.rms);
+        assertEquals(whole.peaks, split.peaks);
+    }
+
+    @Test
+    public void reportsSilenceAndFullScale() {
+        Levels levels = new Levels();
+        AudioLevelMeter meter = new AudioLevelMeter(FORMAT, WINDOW_MS, levels);
+        meter.process(new byte[WINDOW_BYTES], 0, WINDOW_BYTES);
+
+        byte[] loud = new byte[WINDOW_BYTES];
+        for (int i = 0; i < loud.length; i += 2) {
+            // Alternating full scale samples, a square wave
+            short sample = (i / 2) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+            loud[i] = (byte) sample;
+            loud[i + 1] = (byte) (sample >> 8);
+        }
+        meter.process(loud, 0, loud.length);
+
+        assertEquals(0, levels.rms.get(0).intValue());
+        assertEquals(-96.0, levels.dbfs.get(0), 0.0);
+        assertEquals(32768, levels.peaks.get(1).intValue());
+        assertEquals(0.0, levels.dbfs.get(1), 0.01);
+    }
+
+    @Test
+    public void resetDiscardsThePartialWindow() {
+        Levels levels = new Levels();
+        AudioLevelMeter meter = new AudioLevelMeter(FORMAT, WINDOW_MS, levels);
+        byte[] window = randomPcm(WINDOW_BYTES, 3);
+        meter.process(window, 0, WINDOW_BYTES - 1);
+        meter.reset();
+        meter.process(window, 0, WINDOW_BYTES);
+        assertEquals(1, levels.legacy.size());
+        assertEquals(legacyLevel(window), levels.legacy.get(0).intValue());
+    }
+
+    @Test
+    public void doesNotAllocatePerChunk() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AudioLevelMeter meter = new AudioLevelMeter(FORMAT, WINDOW_MS, new RecordingRMSListener() {
+            @Override
+            public void rmsChanged(int rms) {
+            }
+        });
+        byte[] chunk = randomPcm(CHUNK_BYTES, 4);
+        // Warm up so the measured loop runs compiled code
+        for (int i = 0; i < 20000; i++) {
+            meter.process(chunk, 0, chunk.length);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10000; i++) {
+            meter.process(chunk, 0, chunk.length);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        // The old code allocated a buffer per sample, tens of megabytes for these chunks
+        assertTrue("Allocated " + allocated + " bytes", allocated < 64 * 1024);
+    }
+
+    static byte[] randomPcm(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * The level AudioStateOutputStream used to publish for a chunk.
+     */
+    static int legacyLevel(byte[] data) {
+        double avg = 0;
+        for (int i = 0; i < data.length; i += 2) {
+            double value = Math.abs((short) ((data[i] & 0xff) | (data[i + 1] << 8)));
+            value = ((100 * value) / (Short.MAX_VALUE / 2.0)) + 1;
+            avg += value * value;
+        }
+        return (int) Math.sqrt(avg / (data.length / 2));
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+
+public class AudioMixerTest {
+    private static final float FRAME_RATE = AudioMixer.OUTPUT_FORMAT.getFrameRate();
+    private static final int FRAME_SIZE = AudioMixer.OUTPUT_FORMAT.getFrameSize();
+
+    private final NullSink sink = new NullSink();
+    private final AudioMixer mixer = new AudioMixer(sink);
+
+    /**
+     * Throws the audio away, but takes it no faster than a real line would play it, and records
+     * the levels of the left channel.
+     */
+    private static class NullSink implements AudioMixer.Sink {
+        private final Set<Integer> levels = ConcurrentHashMap.newKeySet();
+        private volatile int bufferSize;
+        private volatile long written;
+        private volatile boolean started;
+        private volatile long startNanos;
+        private volatile long startFrame;
+        private volatile long stoppedFrame;
+
+        @Override
+        public void open(AudioFormat format, int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        public void start() {
+            startFrame = stoppedFrame;
+            startNanos = System.nanoTime();
+            started = true;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            for (int i = offset; i < offset + length; i += FRAME_SIZE) {
+                levels.add((int) (short) ((data[i] & 0xFF) | (data[i + 1] << 8)));
+            }
+            written += length / FRAME_SIZE;
+            while (started && queuedFrames() * FRAME_SIZE > bufferSize) {
+                sleep();
+            }
+        }
+
+        @Override
+        public int available() {
+            return bufferSize - (int) queuedFrames() * FRAME_SIZE;
+        }
+
+        @Override
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        @Override
+        public long getFramePosition() {
+            if (!started) {
+                return stoppedFrame;
+            }
+            long elapsed = (long) ((System.nanoTime() - startNanos) * (double) FRAME_RATE / 1e9);
+            return Math.min(written, startFrame + elapsed);
+        }
+
+        @Override
+        public void drain() {
+            while (started && queuedFrames() > 0) {
+                sleep();
+            }
+        }
+
+        @Override
+        public void flush() {
+            written = getFramePosition();
+        }
+
+        @Override
+        public void stop() {
+            stoppedFrame = getFramePosition();
+            started = false;
+        }
+
+        private long queuedFrames() {
+            return written - getFramePosition();
+        }
+
+        private static void sleep() {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A stereo source at the output rate in which every sample has the same value.
+     */
+    private static class ConstantSource extends MixerSource {
+        private final short[] block = new short[AudioMixer.FRAMES_PER_BUFFER * 2];
+        private final long blockDelayMs;
+        private long remainingFrames;
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        ConstantSource(int value, long durationMs) {
+            this(value, durationMs, 0);
+        }
+
+        /**
+         * @param blockDelayMs
+         *            How long to hold up the mixer thread before handing over each block.
+         */
+        ConstantSource(int value, long durationMs, long blockDelayMs) {
+            Arrays.fill(block, (short) value);
+            remainingFrames = (long) (durationMs * FRAME_RATE / 1000);
+            this.blockDelayMs = blockDelayMs;
+        }
+
+        @Override
+        protected boolean nextBlock() {
+            if (remainingFrames <= 0) {
+                return false;
+            }
+            if (blockDelayMs > 0) {
+                try {
+                    Thread.sleep(blockDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            int frames = (int) Math.min(remainingFrames, AudioMixer.FRAMES_PER_BUFFER);
+            remainingFrames -= frames;
+            setBlock(block, frames * 2, (int) FRAME_RATE, 2, AudioMixer.OUTPUT_FORMAT);
+            return true;
+        }
+
+        @Override
+        protected void close() {
+            closed.countDown();
+        }
+
+        boolean isClosed() {
+            return closed.getCount() == 0;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mixer.shutdown();
+    }
+
+    @Test
+    public void higherPriorityDucksLowerOne() throws Exception {
+        AudioMixer.Playback alert =
+                mixer.play(new ConstantSource(8000, 5000), AudioMixer.Priority.ALERT);
+        waitForLevel(8000);
+
+        AudioMixer.Playback speech =
+                mixer.play(new ConstantSource(1000, 200), AudioMixer.Priority.SPEECH);
+        speech.await();
+        // The alert is played at a quarter of its level under the speech
+        assertTrue(sink.levels.contains(2000 + 1000));
+        assertFalse(alert.isDone());
+
+        alert.stop();
+        alert.await();
+    }
+
+    @Test
+    public void stopAllStopsEveryPlayback() throws Exception {
+        ConstantSource first = new ConstantSource(1000, 5000);
+        ConstantSource second = new ConstantSource(2000, 5000);
+        AudioMixer.Playback alert = mixer.play(first, AudioMixer.Priority.ALERT);
+        AudioMixer.Playback speech = mixer.play(second, AudioMixer.Priority.SPEECH);
+        waitForLevel(1000 / 4 + 2000);
+
+        assertEquals(2, mixer.stopAll());
+        assertTrue(awaitDone(alert));
+        assertTrue(awaitDone(speech));
+        assertTrue(first.isClosed());
+        assertTrue(second.isClosed());
+        assertEquals(0, mixer.stopAll());
+    }
+
+    @Test
+    public void stoppingOnePlaybackLeavesTheOthers() throws Exception {
+        AudioMixer.Playback alert =
+                mixer.play(new ConstantSource(1000, 5000), AudioMixer.Priority.ALERT);
+        AudioMixer.Playback earcon =
+                mixer.play(new ConstantSource(2000, 5000), AudioMixer.Priority.EARCON);
+        waitForLevel(1000 / 4 + 2000);
+
+        alert.stop();
+        assertTrue(awaitDone(alert));
+        assertFalse(earcon.isDone());
+        // The earcon is no longer ducking anything
+        waitForLevel(2000);
+
+        assertEquals(1, mixer.stopAll());
+        assertTrue(awaitDone(earcon));
+    }
+
+    @Test
+    public void positionFollowsPlayback() throws Exception {
+        long start = System.nanoTime();
+        AudioMixer.Playback speech =
+                mixer.play(new ConstantSource(1000, 500), AudioMixer.Priority.SPEECH);
+        speech.await();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(500, speech.getPositionMs());
+        // Done only once the sink has played it, not when the last of it was mixed
+        assertTrue("Finished after " + elapsedMs + " ms", elapsedMs >= 450);
+    }
+
+    @Test
+    public void slowSourceIsCountedAsUnderrun() throws Exception {
+        long before = mixer.getUnderrunCount();
+        // Each block lasts about 12 ms, but takes 60 ms to hand over
+        AudioMixer.Playback slow =
+                mixer.play(new ConstantSource(1000, 200, 60), AudioMixer.Priority.SPEECH);
+        slow.await();
+        assertTrue(mixer.getUnderrunCount() > before);
+    }
+
+    @Test
+    public void mp3SourceWithoutStreamFinishes() throws Exception {
+        AudioMixer.Playback playback = mixer.play(new Mp3Source(null, AudioMixer.OUTPUT_FORMAT),
+                AudioMixer.Priority.SPEECH);
+        assertTrue(awaitDone(playback));
+        // At most a little silence while the decoder found there was nothing to play
+        assertTrue(playback.getPositionMs() < 200);
+    }
+
+    @Test
+    public void alarmStopsPartWayThrough() throws Exception {
+        AudioMixer.Playback alarm = mixer.play(new Mp3Source(
+                getClass().getResourceAsStream("/res/alarm.mp3"), AudioMixer.OUTPUT_FORMAT),
+                AudioMixer.Priority.ALERT);
+        Thread.sleep(300);
+        alarm.stop();
+        assertTrue(awaitDone(alarm));
+        assertTrue(alarm.getPositionMs() > 0);
+    }
+
+    @Test
+    public void playAfterShutdownFinishesAtOnce() throws Exception {
+        mixer.shutdown();
+        ConstantSource source = new ConstantSource(1000, 500);
+        AudioMixer.Playback playback = mixer.play(source, AudioMixer.Priority.SPEECH);
+        assertTrue(playback.isDone());
+        assertTrue(source.isClosed());
+    }
+
+    private void waitForLevel(int level) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!sink.levels.contains(level)) {
+            assertTrue("Never heard level " + level, System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static boolean awaitDone(AudioMixer.Playback playback) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!playback.isDone()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.alexa.avs.config.ObjectMapperFactory;
+import com.amazon.alexa.avs.message.DialogRequestIdHeader;
+import com.amazon.alexa.avs.message.MessageIdHeader;
+import com.amazon.alexa.avs.message.response.Directive;
+import com.amazon.alexa.avs.message.response.speechsynthesizer.Speak;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+public class DirectiveEnqueuerTest {
+    private final Queue<Directive> dependent = new ArrayDeque<>();
+    private final Queue<Directive> independent = new ArrayDeque<>();
+    private final DirectiveEnqueuer enqueuer = new DirectiveEnqueuer(
+            DialogRequestIdAuthority.getInstance(), dependent, independent);
+    private String dialogRequestId;
+
+    /**
+     * An attachment that is still downloading, which only records whether it was closed.
+     */
+    private static class Attachment extends InputStream {
+        private volatile boolean closed;
+
+        @Override
+        public int read() {
+            return closed ? -1 : 0;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        dialogRequestId = DialogRequestIdAuthority.getInstance().createNewDialogRequestId();
+    }
+
+    @Test
+    public void releasesASpeakAsSoonAsItsAttachmentStarts() throws Exception {
+        Directive speak = speak("cid-1");
+        enqueuer.onDirective(speak);
+        assertTrue(dependent.isEmpty());
+
+        Attachment audio = new Attachment();
+        enqueuer.onDirectiveAttachment("cid-1", audio);
+        assertSame(speak, dependent.poll());
+        assertSame(audio, ((Speak) speak.getPayload()).getAttachedContent());
+        assertFalse(audio.closed);
+    }
+
+    @Test
+    public void matchesAnAttachmentThatArrivesFirst() throws Exception {
+        Attachment audio = new Attachment();
+        enqueuer.onDirectiveAttachment("cid-1", audio);
+        Directive speak = speak("cid-1");
+        enqueuer.onDirective(speak);
+        assertSame(speak, dependent.poll());
+        assertSame(audio, ((Speak) speak.getPayload()).getAttachedContent());
+    }
+
+    @Test
+    public void keepsDirectivesInOrderBehindAWaitingSpeak() throws Exception {
+        Directive first = speak("cid-1");
+        Directive second = speak("cid-2");
+        Directive expectSpeech = directive("SpeechRecognizer", "ExpectSpeech", dialogRequestId);
+        enqueuer.onDirective(first);
+        enqueuer.onDirective(second);
+        enqueuer.onDirective(expectSpeech);
+
+        // The second attachment is matched at once, but waits for the first Speak
+        enqueuer.onDirectiveAttachment("cid-2", new Attachment());
+        assertTrue(dependent.isEmpty());
+
+        enqueuer.onDirectiveAttachment("cid-1", new Attachment());
+        List<Directive> released = new ArrayList<>(dependent);
+        assertEquals(3, released.size());
+        assertSame(first, released.get(0));
+        assertSame(second, released.get(1));
+        assertSame(expectSpeech, released.get(2));
+    }
+
+    @Test
+    public void sortsDirectivesByDialogRequestId() throws Exception {
+        enqueuer.onDirective(directive("Speaker", "SetVolume", null));
+        enqueuer.onDirective(directive("SpeechRecognizer", "ExpectSpeech", dialogRequestId));
+        enqueuer.onDirective(directive("SpeechRecognizer", "ExpectSpeech", "stale-dialog"));
+        assertEquals(1, independent.size());
+        assertEquals(1, dependent.size());
+    }
+
+    @Test
+    public void closesTheOldestOrphansWhenTooManyWait() {
+        List<Attachment> orphans = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Attachment orphan = new Attachment();
+            orphans.add(orphan);
+            enqueuer.onDirectiveAttachment("orphan-" + i, orphan);
+        }
+        int closed = 0;
+        for (Attachment orphan : orphans) {
+            closed += orphan.closed ? 1 : 0;
+        }
+        // At most 16 wait at once, the oldest are closed first
+        assertEquals(4, closed);
+        for (int i = 0; i < orphans.size(); i++) {
+            assertEquals(i < 4, orphans.get(i).closed);
+        }
+    }
+
+    @Test
+    public void closesAnOrphanReplacedByTheSameContentId() {
+        Attachment first = new Attachment();
+        enqueuer.onDirectiveAttachment("cid-1", first);
+        enqueuer.onDirectiveAttachment("cid-1", new Attachment());
+        assertTrue(first.closed);
+    }
+
+    private Directive speak(String contentId) throws Exception {
+        JsonNode payload = ObjectMapperFactory.getObjectReader().readTree(
+                "{\"url\":\"cid:" + contentId + "\",\"format\":\"AUDIO_MPEG\",\"token\":\"t\"}");
+        return new Directive(new DialogRequestIdHeader("SpeechSynthesizer", "Speak",
+                dialogRequestId), payload, "{}");
+    }
+
+    private static Directive directive(String namespace, String name, String dialogRequestId)
+            throws Exception {
+        MessageIdHeader header = dialogRequestId == null ? new MessageIdHeader(namespace, name)
+                : new DialogRequestIdHeader(namespace, name, dialogRequestId);
+        return new Directive(header, JsonNodeFactory.instance.objectNode(), "{}");
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.alexa.avs.message.DialogRequestIdHeader;
+import com.amazon.alexa.avs.message.MessageIdHeader;
+import com.amazon.alexa.avs.message.response.Directive;
+
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DirectiveSchedulerTest {
+    private final List<String> dispatched = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final DirectiveScheduler scheduler = new DirectiveScheduler(directive -> {
+        if (directive.getName().startsWith("Slow")) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (directive.getName().startsWith("Failing")) {
+            throw new IllegalStateException("Handler failed");
+        }
+        dispatched.add(directive.getNamespace() + "." + directive.getName());
+    });
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void slowNamespaceDoesNotHoldUpOthers() throws Exception {
+        scheduler.dispatch(directive("AudioPlayer", "SlowPlay", null));
+        scheduler.dispatch(directive("Alerts", "SetAlert", null));
+        scheduler.dispatch(directive("Speaker", "SetVolume", null));
+
+        waitForDispatched(2);
+        assertEquals(2, dispatched.size());
+        assertTrue(dispatched.contains("Alerts.SetAlert"));
+        assertTrue(dispatched.contains("Speaker.SetVolume"));
+
+        release.countDown();
+        waitForDispatched(3);
+        assertTrue(dispatched.contains("AudioPlayer.SlowPlay"));
+    }
+
+    @Test
+    public void keepsTheOrderWithinANamespace() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            scheduler.dispatch(directive("Speaker", "SetVolume" + i, null));
+        }
+        waitForDispatched(50);
+        for (int i = 0; i < 50; i++) {
+            assertEquals("Speaker.SetVolume" + i, dispatched.get(i));
+        }
+    }
+
+    @Test
+    public void waitsForDirectivesOfADialog() throws Exception {
+        Directive speak = directive("SpeechSynthesizer", "SlowSpeak", "dialog-1");
+        Directive play = directive("AudioPlayer", "Play", "dialog-1");
+        Thread dependent = new Thread(() -> {
+            scheduler.dispatch(speak);
+            scheduler.dispatch(play);
+        });
+        dependent.start();
+
+        // The Play comes after the Speak of the same dialog, even though it is in another lane
+        dependent.join(200);
+        assertTrue(dependent.isAlive());
+        assertTrue(dispatched.isEmpty());
+
+        release.countDown();
+        dependent.join(5000);
+        assertEquals(2, dispatched.size());
+        assertEquals("SpeechSynthesizer.SlowSpeak", dispatched.get(0));
+        assertEquals("AudioPlayer.Play", dispatched.get(1));
+    }
+
+    @Test
+    public void keepsGoingAfterAFailureAndCountsIt() throws Exception {
+        scheduler.dispatch(directive("System", "FailingReset", null));
+        scheduler.dispatch(directive("System", "ResetUserInactivity", null));
+        waitForDispatched(1);
+
+        DirectiveLane lane = scheduler.getLanes().iterator().next();
+        assertEquals("System", lane.getName());
+        assertEquals(2, lane.getCompletedCount());
+        assertEquals(0, lane.getQueueDepth());
+    }
+
+    private void waitForDispatched(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatched.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        // Anything that was going to be dispatched by now has been
+        Thread.sleep(50);
+    }
+
+    private static Directive directive(String namespace, String name, String dialogRequestId)
+            throws Exception {
+        MessageIdHeader header = dialogRequestId == null ? new MessageIdHeader(namespace, name)
+                : new DialogRequestIdHeader(namespace, name, dialogRequestId);
+        return new Directive(header, JsonNodeFactory.instance.objectNode(), "{}");
+    }
+}
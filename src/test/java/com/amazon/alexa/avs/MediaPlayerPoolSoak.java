@@ -0,0 +1,280 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import uk.co.caprica.vlcj.component.AudioMediaPlayerComponent;
+import uk.co.caprica.vlcj.player.MediaPlayer;
+import uk.co.caprica.vlcj.player.MediaPlayerEventAdapter;
+
+/**
+ * Plays many short files back to back through a {@link MediaPlayerPool}, preparing each file on an
+ * idle player while the one before it plays, the way {@link AVSAudioPlayer} prefetches the next
+ * stream. Reports how many players were created, how the resident memory of the process grew, and
+ * the gap between one file finishing and the next one playing. Needs libvlc.
+ *
+ * Usage: MediaPlayerPoolSoak [files] [trackMs]
+ */
+public final class MediaPlayerPoolSoak {
+    private static final int DEFAULT_FILES = 1000;
+    private static final long DEFAULT_TRACK_MS = 500;
+    private static final int POOL_SIZE = 2;
+    private static final int REPORT_EVERY = 100;
+    private static final float SAMPLE_RATE = 22050;
+    private static final double TONE_HZ = 440;
+
+    private final List<String> files;
+    private final MediaPlayerPool pool;
+    // libvlc calls the listener on its own threads, which must not call back into the players
+    private final ExecutorService events = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "soak-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // Only used on the events thread
+    private AudioMediaPlayerComponent current;
+    private AudioMediaPlayerComponent prefetched;
+    private int index;
+    private long finishedNanos = -1;
+    private long startRssKb;
+    private final List<Long> gapsMs = new ArrayList<>();
+    private int errors;
+
+    private MediaPlayerPoolSoak(List<String> files) {
+        this.files = files;
+        this.pool = new MediaPlayerPool(POOL_SIZE, new MediaPlayerEventAdapter() {
+            @Override
+            public void timeChanged(MediaPlayer mediaPlayer, long newTime) {
+                if (newTime > 0) {
+                    events.execute(() -> onTimeChanged(mediaPlayer));
+                }
+            }
+
+            @Override
+            public void finished(MediaPlayer mediaPlayer) {
+                events.execute(() -> onFinished(mediaPlayer));
+            }
+
+            @Override
+            public void error(MediaPlayer mediaPlayer) {
+                events.execute(() -> onError(mediaPlayer));
+            }
+        });
+    }
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException, ExecutionException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FILES;
+        long trackMs = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_TRACK_MS;
+
+        Path dir = Files.createTempDirectory("soak");
+        List<String> files = writeFiles(dir, count, trackMs);
+        System.out.printf("Wrote %d files of %d ms to %s%n", count, trackMs, dir);
+
+        MediaPlayerPoolSoak soak = new MediaPlayerPoolSoak(files);
+        try {
+            long expectedMs = count * trackMs;
+            long started = System.nanoTime();
+            // Fails here if libvlc cannot be loaded
+            soak.events.submit(soak::start).get();
+            if (!soak.done.await(expectedMs * 2 + TimeUnit.MINUTES.toMillis(1),
+                    TimeUnit.MILLISECONDS)) {
+                System.out.println("Timed out");
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            soak.events.submit(() -> soak.report(elapsedMs, expectedMs)).get();
+        } finally {
+            soak.pool.shutdown();
+            for (String file : files) {
+                Files.deleteIfExists(Paths.get(file));
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private void start() {
+        startRssKb = residentKb();
+        current = pool.acquire();
+        if (!current.getMediaPlayer().startMedia(files.get(0))) {
+            errors++;
+        }
+        prefetch();
+    }
+
+    /**
+     * Starts the next file paused and muted on an idle player, as the audio player does once the
+     * current stream is nearly finished.
+     */
+    private void prefetch() {
+        if (index + 1 >= files.size()) {
+            return;
+        }
+        prefetched = pool.acquire();
+        MediaPlayer mediaPlayer = prefetched.getMediaPlayer();
+        if (mediaPlayer.prepareMedia(files.get(index + 1), ":start-paused")) {
+            mediaPlayer.mute(true);
+            mediaPlayer.play();
+        } else {
+            pool.release(prefetched);
+            prefetched = null;
+        }
+    }
+
+    private void onTimeChanged(MediaPlayer mediaPlayer) {
+        if (isCurrent(mediaPlayer) && finishedNanos >= 0) {
+            gapsMs.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - finishedNanos));
+            finishedNanos = -1;
+        }
+    }
+
+    private void onFinished(MediaPlayer mediaPlayer) {
+        if (isCurrent(mediaPlayer)) {
+            finishedNanos = System.nanoTime();
+            next();
+        }
+    }
+
+    private void onError(MediaPlayer mediaPlayer) {
+        errors++;
+        if (isCurrent(mediaPlayer)) {
+            finishedNanos = -1;
+            next();
+        } else if (prefetched != null && prefetched.getMediaPlayer() == mediaPlayer) {
+            // The next file is started the usual way instead
+            pool.release(prefetched);
+            prefetched = null;
+        }
+    }
+
+    /**
+     * Hands the current player back to the pool and plays the next file, on the prefetched player
+     * if there is one.
+     */
+    private void next() {
+        pool.release(current);
+        current = null;
+        index++;
+        if (index >= files.size()) {
+            done.countDown();
+            return;
+        }
+
+        if (prefetched != null) {
+            current = prefetched;
+            prefetched = null;
+            current.getMediaPlayer().mute(false);
+            current.getMediaPlayer().setPause(false);
+        } else {
+            current = pool.acquire();
+            if (!current.getMediaPlayer().startMedia(files.get(index))) {
+                errors++;
+            }
+        }
+        prefetch();
+
+        if (index % REPORT_EVERY == 0) {
+            System.out.printf("%d files played, resident memory grew by %d KiB%n", index,
+                    residentKb() - startRssKb);
+        }
+    }
+
+    private boolean isCurrent(MediaPlayer mediaPlayer) {
+        return current != null && current.getMediaPlayer() == mediaPlayer;
+    }
+
+    private void report(long elapsedMs, long expectedMs) {
+        System.out.printf("Played %d of %d files in %d ms (%d ms of audio), %d errors%n", index,
+                files.size(), elapsedMs, expectedMs, errors);
+        System.out.printf("Created %d media players%n", pool.getCreatedCount());
+        System.out.printf("Resident memory grew by %d KiB%n", residentKb() - startRssKb);
+        if (gapsMs.isEmpty()) {
+            System.out.println("No gaps measured");
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(gapsMs);
+        Collections.sort(sorted);
+        long total = 0;
+        for (long gap : sorted) {
+            total += gap;
+        }
+        System.out.printf("Gap between files: %d measured, avg %d ms, p50 %d ms, p99 %d ms, "
+                + "max %d ms%n", sorted.size(), total / sorted.size(), percentile(sorted, 50),
+                percentile(sorted, 99), sorted.get(sorted.size() - 1));
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int i = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, i)));
+    }
+
+    /**
+     * @return The resident set size of this process, which covers the native memory libvlc holds,
+     *         or -1 where /proc is not available.
+     */
+    private static long residentKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"),
+                    StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Fall through
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the given number of 16-bit mono WAV files, each a sine tone of the given length.
+     */
+    private static List<String> writeFiles(Path dir, int count, long trackMs) throws IOException {
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        int frames = (int) (SAMPLE_RATE * trackMs / 1000);
+        byte[] pcm = new byte[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            short sample = (short) (Math.sin(2 * Math.PI * TONE_HZ * i / SAMPLE_RATE) * 8000);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+
+        List<String> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            File file = dir.resolve(String.format("track-%04d.wav", i)).toFile();
+            try (AudioInputStream in =
+                    new AudioInputStream(new ByteArrayInputStream(pcm), format, frames)) {
+                AudioSystem.write(in, AudioFileFormat.Type.WAVE, file);
+            }
+            files.add(file.getAbsolutePath());
+        }
+        return files;
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.IOUtils;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Decodes the bundled alarm and earcons, and any MP3 files given, such as saved Speak attachments.
+ * For each file it first reports how long jlayer takes per frame when decoding inline, as the
+ * player did before. It then plays the file through an {@link Mp3Source} at the pace of the mixer
+ * and reports the decode time per frame, the lowest fill level of the decode-ahead ring and the
+ * decode underruns. Busy threads can be started to stand in for a loaded device.
+ *
+ * Usage: Mp3DecodeBenchmark [busy threads] [mp3 file...]
+ */
+public final class Mp3DecodeBenchmark {
+    private static final String[] BUNDLED =
+            { "/res/alarm.mp3", "/res/start.mp3", "/res/stop.mp3", "/res/error.mp3" };
+    private static final int CHANNELS = AudioMixer.OUTPUT_FORMAT.getChannels();
+    private static final long BUFFER_NANOS = (long) (AudioMixer.FRAMES_PER_BUFFER * 1e9
+            / AudioMixer.OUTPUT_FORMAT.getFrameRate());
+    // How long the ring is given to fill when a file starts
+    private static final long STARTUP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static volatile boolean busy = true;
+
+    private Mp3DecodeBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException, JavaLayerException {
+        int busyThreads = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (String resource : BUNDLED) {
+            try (InputStream in = Mp3DecodeBenchmark.class.getResourceAsStream(resource)) {
+                files.put(resource, IOUtils.toByteArray(in));
+            }
+        }
+        for (int i = 1; i < args.length; i++) {
+            files.put(args[i], Files.readAllBytes(Paths.get(args[i])));
+        }
+
+        List<Thread> load = new ArrayList<>();
+        for (int i = 0; i < busyThreads; i++) {
+            Thread thread = new Thread(() -> {
+                long spin = 0;
+                while (busy) {
+                    spin++;
+                }
+            }, "busy-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            load.add(thread);
+        }
+        System.out.printf("%d busy threads on %d processors%n", busyThreads,
+                Runtime.getRuntime().availableProcessors());
+
+        // Warm up the decoder
+        for (byte[] mp3 : files.values()) {
+            decodeInline(mp3);
+        }
+
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            System.out.println(file.getKey());
+            InlineResult inline = decodeInline(file.getValue());
+            inline.print();
+            playAhead(file.getValue(), inline);
+        }
+        System.out.printf("Mp3Source overall: %d frames, avg %d us, max %d us per frame, "
+                + "%d underruns%n", Mp3Source.getDecodedFrameCount(),
+                Mp3Source.getAverageDecodeMicros(), Mp3Source.getMaxDecodeMicros(),
+                Mp3Source.getUnderrunCount());
+        busy = false;
+    }
+
+    private static class InlineResult {
+        private int frames;
+        private long audioNanos;
+        private long decodeNanos;
+        private long maxDecodeNanos;
+        // Frames that took longer to decode than they last, which an inline decoder cannot hide
+        private int lateFrames;
+
+        void print() {
+            System.out.printf("  inline: %d frames, %d ms of audio, decoded in %d ms, "
+                    + "avg %d us, max %d us per frame, %d frames slower than real time%n",
+                    frames, TimeUnit.NANOSECONDS.toMillis(audioNanos),
+                    TimeUnit.NANOSECONDS.toMillis(decodeNanos),
+                    frames == 0 ? 0 : decodeNanos / frames / 1000, maxDecodeNanos / 1000,
+                    lateFrames);
+        }
+    }
+
+    /**
+     * Decodes every frame on this thread, as jlayer's Player did before the decode-ahead ring.
+     */
+    private static InlineResult decodeInline(byte[] mp3) throws JavaLayerException {
+        InlineResult result = new InlineResult();
+        Bitstream bitstream =
+                new Bitstream(new BufferedInputStream(new ByteArrayInputStream(mp3)));
+        Decoder decoder = new Decoder();
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                Header frame = bitstream.readFrame();
+                if (frame == null) {
+                    break;
+                }
+                SampleBuffer samples = (SampleBuffer) decoder.decodeFrame(frame, bitstream);
+                bitstream.closeFrame();
+                long nanos = System.nanoTime() - start;
+
+                long frameNanos = (long) (samples.getBufferLength() / samples.getChannelCount()
+                        * 1e9 / samples.getSampleFrequency());
+                result.frames++;
+                result.audioNanos += frameNanos;
+                result.decodeNanos += nanos;
+                result.maxDecodeNanos = Math.max(result.maxDecodeNanos, nanos);
+                if (nanos > frameNanos) {
+                    result.lateFrames++;
+                }
+            }
+        } finally {
+            bitstream.close();
+        }
+        return result;
+    }
+
+    /**
+     * Pulls the file through an {@link Mp3Source} one mixer buffer at a time, at the rate the mixer
+     * thread would. The ring is only watched once it has had time to fill, and until the decoder
+     * could have reached the end of the file, since it empties then anyway.
+     */
+    private static void playAhead(byte[] mp3, InlineResult inline) {
+        long frameNanos = inline.frames == 0 ? 0 : inline.audioNanos / inline.frames;
+        long underrunsBefore = Mp3Source.getUnderrunCount();
+        float[] mix = new float[AudioMixer.FRAMES_PER_BUFFER * CHANNELS];
+        Mp3Source source = new Mp3Source(new ByteArrayInputStream(mp3), AudioMixer.OUTPUT_FORMAT);
+        int lowestFill = Integer.MAX_VALUE;
+        int highestFill = 0;
+        long frames = 0;
+        long next = System.nanoTime();
+        try {
+            while (true) {
+                int mixed = source.mixInto(mix, AudioMixer.FRAMES_PER_BUFFER, CHANNELS, 1.0f);
+                frames += mixed;
+                if (mixed < AudioMixer.FRAMES_PER_BUFFER) {
+                    break;
+                }
+                int fill = source.getRingFillLevel();
+                highestFill = Math.max(highestFill, fill);
+                long playedNanos = (long) (frames * 1e9 / AudioMixer.OUTPUT_FORMAT.getFrameRate());
+                if (playedNanos >= STARTUP_NANOS
+                        && playedNanos + highestFill * frameNanos < inline.audioNanos) {
+                    lowestFill = Math.min(lowestFill, fill);
+                }
+                next += BUFFER_NANOS;
+                LockSupport.parkNanos(next - System.nanoTime());
+            }
+        } finally {
+            source.close();
+        }
+        System.out.printf("  ahead:  %d ms played, ring held up to %d frames and fell to %s, "
+                + "%d underruns%n",
+                (long) (frames * 1000 / AudioMixer.OUTPUT_FORMAT.getFrameRate()), highestFill,
+                lowestFill == Integer.MAX_VALUE ? "-" : String.valueOf(lowestFill),
+                Mp3Source.getUnderrunCount() - underrunsBefore);
+    }
+}
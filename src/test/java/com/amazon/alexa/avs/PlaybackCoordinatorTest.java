@@ -0,0 +1,187 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class PlaybackCoordinatorTest {
+    private static final int TURNS = 8;
+    private static final long SPEECH_MS = 60;
+    // How often the ExpectSpeech handler used to check whether speech had finished
+    private static final long LEGACY_POLL_MS = 500;
+
+    private final PlaybackCoordinator coordinator = new PlaybackCoordinator();
+    private final ScheduledExecutorService audio = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Stands in for the speech player: plays for a fixed time, then reports that it finished the
+     * way {@link AVSAudioPlayer} does.
+     */
+    private class MockSpeech {
+        private volatile boolean speaking;
+        private volatile long finishedNanos;
+
+        void play(boolean signal) {
+            speaking = true;
+            audio.schedule(() -> {
+                finishedNanos = System.nanoTime();
+                speaking = false;
+                if (signal) {
+                    coordinator.signal();
+                }
+            }, SPEECH_MS, TimeUnit.MILLISECONDS);
+        }
+
+        boolean isSpeaking() {
+            return speaking;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        coordinator.shutdown();
+        audio.shutdownNow();
+    }
+
+    @Test
+    public void runsRightAwayWhenConditionHolds() throws Exception {
+        CountDownLatch ran = new CountDownLatch(1);
+        coordinator.when("ready", () -> true, ran::countDown);
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void waitsForSignalAfterConditionChanges() throws Exception {
+        MockSpeech speech = new MockSpeech();
+        speech.speaking = true;
+        CompletableFuture<Long> done = coordinator.when("quiet", () -> !speech.isSpeaking(), () -> {
+        });
+
+        Thread.sleep(50);
+        assertFalse(done.isDone());
+        speech.speaking = false;
+        Thread.sleep(50);
+        // Nobody said the state changed
+        assertFalse(done.isDone());
+
+        coordinator.signal();
+        assertTrue(done.get(1, TimeUnit.SECONDS) > 0);
+    }
+
+    @Test
+    public void failingConditionIsDropped() throws Exception {
+        CompletableFuture<Long> failed = coordinator.when("failing", () -> {
+            throw new IllegalStateException("Condition failed");
+        }, () -> fail("Action must not run"));
+        try {
+            failed.get(1, TimeUnit.SECONDS);
+            fail("Expected the condition to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        // The mailbox keeps going
+        CountDownLatch ran = new CountDownLatch(1);
+        coordinator.when("ready", () -> true, ran::countDown);
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void slowActionDoesNotHoldUpOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        coordinator.when("slow", () -> true, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CountDownLatch ran = new CountDownLatch(1);
+        coordinator.when("fast", () -> true, ran::countDown);
+        try {
+            assertTrue(ran.await(1, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void expectSpeechReopensMicSoonerThanPolling() throws Exception {
+        long legacyNanos = 0;
+        long coordinatedNanos = 0;
+        long worstCoordinatedNanos = 0;
+        for (int i = 0; i < TURNS; i++) {
+            legacyNanos += legacyTurn();
+            long nanos = coordinatedTurn();
+            coordinatedNanos += nanos;
+            worstCoordinatedNanos = Math.max(worstCoordinatedNanos, nanos);
+        }
+        long legacyMs = TimeUnit.NANOSECONDS.toMillis(legacyNanos / TURNS);
+        long coordinatedMs = TimeUnit.NANOSECONDS.toMillis(coordinatedNanos / TURNS);
+        System.out.printf("ExpectSpeech turn-taking after %d ms of speech: polling %d ms, "
+                + "coordinator %d ms (worst %d ms)%n", SPEECH_MS, legacyMs, coordinatedMs,
+                TimeUnit.NANOSECONDS.toMillis(worstCoordinatedNanos));
+
+        assertTrue(legacyMs >= LEGACY_POLL_MS - SPEECH_MS - 10);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(worstCoordinatedNanos) < 100);
+        assertTrue(coordinatedMs * 10 < legacyMs);
+    }
+
+    /**
+     * Speech plays, and ExpectSpeech reopens the mic the way the app did before the coordinator: a
+     * thread checks every half second whether speech has finished.
+     *
+     * @return Nanoseconds from the end of speech to the mic opening.
+     */
+    private long legacyTurn() throws InterruptedException {
+        MockSpeech speech = new MockSpeech();
+        speech.play(false);
+        long[] openedNanos = new long[1];
+        Thread expectSpeech = new Thread(() -> {
+            try {
+                while (speech.isSpeaking()) {
+                    Thread.sleep(LEGACY_POLL_MS);
+                }
+                openedNanos[0] = System.nanoTime();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        expectSpeech.start();
+        expectSpeech.join();
+        return openedNanos[0] - speech.finishedNanos;
+    }
+
+    /**
+     * Speech plays, and ExpectSpeech reopens the mic once the coordinator sees it has finished.
+     *
+     * @return Nanoseconds from the end of speech to the mic opening.
+     */
+    private long coordinatedTurn() throws Exception {
+        MockSpeech speech = new MockSpeech();
+        speech.play(true);
+        long[] openedNanos = new long[1];
+        coordinator.when("ExpectSpeech", () -> !speech.isSpeaking(),
+                () -> openedNanos[0] = System.nanoTime()).get(1, TimeUnit.SECONDS);
+        assertFalse(speech.isSpeaking());
+        return openedNanos[0] - speech.finishedNanos;
+    }
+}
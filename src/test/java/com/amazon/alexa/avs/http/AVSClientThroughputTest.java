@@ -0,0 +1,178 @@
+/**
+ * Copyright 2016 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * You may not use this file except in compliance with the License. A copy of the License is located the "LICENSE.txt"
+ * file accompanying this source. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.amazon.alexa.avs.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.amazon.alexa.avs.RequestListener;
+import com.amazon.alexa.avs.message.request.RequestBody;
+import com.amazon.alexa.avs.message.request.RequestFactory;
+import com.amazon.alexa.avs.message.response.Directive;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends events to a stub AVS over cleartext HTTP/2 and measures how many are answered per second.
+ * Events of one namespace share a lane and are sent one at a time, as every event used to be. The
+ * same number of events spread over four namespaces are multiplexed on the one connection.
+ */
+public class AVSClientThroughputTest {
+    private static final int EVENTS = 40;
+    // How long the stub takes to answer an event
+    private static final long SERVER_DELAY_MS = 50;
+
+    private Server server;
+    private AVSClient client;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /**
+     * Answers events after a delay and holds the downchannel open.
+     */
+    private class StubAvs extends AbstractHandler {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                HttpServletResponse response) throws IOException {
+            baseRequest.setHandled(true);
+            if (target.endsWith("/directives")) {
+                baseRequest.startAsync().setTimeout(0);
+                return;
+            }
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                IOUtils.toByteArray(request.getInputStream());
+                Thread.sleep(SERVER_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server,
+                new HTTP2CServerConnectionFactory(new HttpConfiguration()));
+        server.addConnector(connector);
+        server.setHandler(new StubAvs());
+        server.start();
+
+        URL host = new URL("http://localhost:" + connector.getLocalPort());
+        client = new AVSClient(host, new MultipartParser.MultipartParserConsumer() {
+            @Override
+            public void onDirective(Directive directive) {
+            }
+
+            @Override
+            public void onDirectiveAttachment(String contentId, InputStream attachmentContent) {
+            }
+        }, new SslContextFactory(), unparseable -> {
+        });
+        client.setAccessToken("token");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void multiplexesEventsOfDifferentNamespaces() throws Exception {
+        // Warms up the connection and the JIT
+        send(EVENTS, i -> event(i, 4));
+        maxInFlight.set(0);
+
+        long serialMs = send(EVENTS, i -> event(i, 1));
+        int serialMaxInFlight = maxInFlight.getAndSet(0);
+        long multiplexedMs = send(EVENTS, i -> event(i, 4));
+        int multiplexedMaxInFlight = maxInFlight.get();
+
+        System.out.printf("One namespace: %d events in %d ms, %.0f events/s%n", EVENTS, serialMs,
+                EVENTS * 1000.0 / serialMs);
+        System.out.printf("Four namespaces: %d events in %d ms, %.0f events/s, %d at once%n",
+                EVENTS, multiplexedMs, EVENTS * 1000.0 / multiplexedMs, multiplexedMaxInFlight);
+
+        assertEquals(1, serialMaxInFlight);
+        assertTrue(multiplexedMaxInFlight > 1);
+        assertTrue("Multiplexing took " + multiplexedMs + " ms against " + serialMs + " ms",
+                multiplexedMs * 2 < serialMs);
+    }
+
+    /**
+     * @return How long it took until every event had been answered, in milliseconds.
+     */
+    private long send(int count, IntFunction<RequestBody> events) throws Exception {
+        CountDownLatch done = new CountDownLatch(count);
+        List<Throwable> errors = new ArrayList<>();
+        RequestListener listener = new RequestListener() {
+            @Override
+            public void onRequestSuccess() {
+                done.countDown();
+            }
+
+            @Override
+            public synchronized void onRequestError(Throwable e) {
+                errors.add(e);
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            client.sendEvent(events.apply(i), listener);
+        }
+        assertTrue("Events were not answered in time", done.await(30, TimeUnit.SECONDS));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(new ArrayList<Throwable>(), errors);
+        return elapsedMs;
+    }
+
+    /**
+     * @return The i-th event, taken in turn from the given number of namespaces.
+     */
+    private static RequestBody event(int i, int namespaces) {
+        switch (i % namespaces) {
+            case 0:
+                return RequestFactory.createSpeechSynthesizerSpeechStartedEvent("speak-" + i);
+            case 1:
+                return RequestFactory.createSpeakerVolumeChangedEvent(i % 100, false);
+            case 2:
+                return RequestFactory.createSystemUserInactivityReportEvent(i);
+            default:
+                return RequestFactory.createAudioPlayerPlaybackStartedEvent("stream-" + i, i);
+        }
+    }
+}